@@ -0,0 +1,174 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.bench;
+
+import static sc.iview.snailj.shell.ShellPresets.*;
+
+import sc.iview.snailj.fractal.FractalDimension;
+import sc.iview.snailj.fractal.SparseVoxels;
+import sc.iview.snailj.shell.ShellKernel;
+import sc.iview.snailj.shell.ShellParameters;
+import sc.iview.snailj.shell.ShellPresets;
+
+import net.imagej.mesh.Mesh;
+import net.imagej.ops.OpService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.scijava.Context;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.util.ValuePair;
+
+import ij.measure.CurveFitter;
+
+/**
+ * The dense fractal dimension pipeline, voxelization, box counting and the
+ * straight line fit, each stage on its own and all together, so that
+ * regressions can be pinned to one stage, next to the sparse engine.
+ *
+ * @author Conrad Mearns
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FractalDimensionBenchmark {
+
+    @Param({TORUS, BOAT_EAR_MOON, WENTLETRAP, TURRITELLA, ANCILLA, ARGONAUTA})
+    public String preset;
+
+    @Param({"4"})
+    public double turns;
+
+    @Param({"32", "64"})
+    public int resolution;
+
+    private Context context;
+    private OpService op;
+
+    private Mesh mesh;
+    private RandomAccessibleInterval voxels;
+    private List<ValuePair<DoubleType, DoubleType>> counts;
+
+    @Setup
+    public void setup() {
+        context = new Context(OpService.class);
+        op = context.service(OpService.class);
+
+        ShellParameters p = ShellPresets.get(preset, turns, resolution, resolution);
+        mesh = ShellKernel.toMesh(p);
+        voxels = voxelize();
+        counts = boxCount();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.dispose();
+    }
+
+    @Benchmark
+    public RandomAccessibleInterval voxelize() {
+        return op.geom().voxelization(mesh);
+    }
+
+    @Benchmark
+    public List<ValuePair<DoubleType, DoubleType>> boxCount() {
+        return op.topology().boxCount(voxels);
+    }
+
+    @Benchmark
+    public double fit() {
+        return fit(counts);
+    }
+
+    @Benchmark
+    public double pipeline() {
+        return fit(op.topology().boxCount(op.geom().voxelization(mesh)));
+    }
+
+    /**
+      * Single-scale sparse counts on the default grid, leaving out the box
+      * sizes whose count has dropped to one
+      */
+    @Benchmark
+    public double sparse() {
+        SparseVoxels voxels = SparseVoxels.voxelize(mesh, FractalDimension.DEFAULT_BITS);
+        long[] counts = voxels.boxCounts();
+        int n = 0;
+        while(n < counts.length && counts[n] > 1) {
+            n++;
+        }
+
+        double datax[] = new double[n];
+        double datay[] = new double[n];
+        for(int k = 0; k < n; k++) {
+            datax[k] = -Math.log(voxels.getVoxelSize() * (1L << k));
+            datay[k] = Math.log(counts[k]);
+        }
+        return slope(datax, datay);
+    }
+
+    /**
+      * The straight line fit of the plugin's original dense pipeline: the
+      * slope of the box counts from Ops
+      */
+    static double fit(List<ValuePair<DoubleType, DoubleType>> counts) {
+        double datax[] = new double[counts.size()];
+        double datay[] = new double[counts.size()];
+
+        for (int i = 0; i < counts.size(); i++) {
+            datax[i] = counts.get(i).getA().getRealDouble();
+            datay[i] = counts.get(i).getB().getRealDouble();
+        }
+        return slope(datax, datay);
+    }
+
+    static double slope(double[] x, double[] y) {
+        CurveFitter cf = new CurveFitter(x, y);
+        cf.doFit(CurveFitter.STRAIGHT_LINE);
+        return cf.getParams()[1];
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.bench;
+
+import static sc.iview.snailj.shell.ShellPresets.*;
+
+import sc.iview.snailj.shell.ShellBuilder;
+import sc.iview.snailj.shell.ShellKernel;
+import sc.iview.snailj.shell.ShellParameters;
+import sc.iview.snailj.shell.ShellPresets;
+import sc.iview.snailj.shell.ShellTables;
+
+import net.imagej.mesh.nio.BufferMesh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shell generation throughput for every built-in preset over a range of
+ * resolutions. Run with {@code mvn -Pbenchmark package exec:exec}, which
+ * also attaches the GC profiler for allocation rates. The vector kernel is
+ * only measured when the vector-api profile is active as well, otherwise
+ * its benchmarks fall back to the scalar kernel.
+ *
+ * @author Conrad Mearns
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShellBenchmark {
+
+    @Param({TORUS, BOAT_EAR_MOON, WENTLETRAP, TURRITELLA, ANCILLA, ARGONAUTA})
+    public String preset;
+
+    @Param({"2", "8"})
+    public double turns;
+
+    @Param({"32", "128"})
+    public int segmentsPerTurn;
+
+    @Param({"32", "128"})
+    public int cseg;
+
+    private ShellParameters p;
+    private ShellBuilder builder, vectorBuilder, scalarRows, vectorRows;
+    private ShellTables tables;
+    private FloatBuffer verts, normals;
+    private float[] points;
+    private double[] s;
+    private int vertices, triangles;
+
+    @Setup
+    public void setup() {
+        p = ShellPresets.get(preset, turns, segmentsPerTurn, cseg);
+        builder = new ShellBuilder(0, false);
+        vectorBuilder = new ShellBuilder(0, true);
+        scalarRows = new ShellBuilder(1, false);
+        vectorRows = new ShellBuilder(1, true);
+        vertices = p.vertexCount();
+        triangles = p.triangleCount();
+        points = new float[3 * vertices];
+
+        tables = new ShellTables(p);
+        verts = floats(3 * vertices);
+        normals = floats(3 * vertices);
+
+        s = new double[cseg];
+        for(int j = 0; j < cseg; j++) {
+            s[j] = 2 * Math.PI * j / cseg;
+        }
+    }
+
+    /**
+      * Vertices only, into a reused array, as in ShellDemo#makeShellPoints
+      */
+    @Benchmark
+    public float[] points(MeshCounters counters) {
+        ShellKernel.evaluate(p, points);
+        counters.vertices += vertices;
+        return points;
+    }
+
+    /**
+      * Vertices from the direct per-vertex formulas, for comparison
+      */
+    @Benchmark
+    public float[] pointsReference(MeshCounters counters) {
+        ShellKernel.evaluateReference(p, points);
+        counters.vertices += vertices;
+        return points;
+    }
+
+    /**
+      * A complete single-threaded mesh, including buffer allocation
+      */
+    @Benchmark
+    public BufferMesh toMesh(MeshCounters counters) {
+        BufferMesh mesh = ShellKernel.toMesh(p);
+        counters.vertices += vertices;
+        counters.triangles += triangles;
+        return mesh;
+    }
+
+    /**
+      * A complete mesh built on every core
+      */
+    @Benchmark
+    public BufferMesh build(MeshCounters counters) {
+        BufferMesh mesh = builder.build(p);
+        counters.vertices += vertices;
+        counters.triangles += triangles;
+        return mesh;
+    }
+
+    /**
+      * A complete mesh built on every core with the float32 vector kernel
+      */
+    @Benchmark
+    public BufferMesh buildVector(MeshCounters counters) {
+        BufferMesh mesh = vectorBuilder.build(p);
+        counters.vertices += vertices;
+        counters.triangles += triangles;
+        return mesh;
+    }
+
+    /**
+      * Vertices and normals on one thread, into reused buffers
+      */
+    @Benchmark
+    public FloatBuffer evaluate(MeshCounters counters) {
+        scalarRows.evaluate(tables, verts, normals);
+        counters.vertices += vertices;
+        return verts;
+    }
+
+    /**
+      * Vertices and normals on one thread with the float32 vector kernel
+      */
+    @Benchmark
+    public FloatBuffer evaluateVector(MeshCounters counters) {
+        vectorRows.evaluate(tables, verts, normals);
+        counters.vertices += vertices;
+        return verts;
+    }
+
+    /**
+      * One generating curve, with its nodules, evaluated directly
+      */
+    @Benchmark
+    public void curve(Blackhole bh) {
+        double theta = 2 * Math.PI * turns;
+        for(int j = 0; j < s.length; j++) {
+            bh.consume(ShellKernel.C_ellipse(p, s[j]) + ShellKernel.C_node(p, s[j], theta));
+        }
+    }
+
+    private static FloatBuffer floats(int count) {
+        return ByteBuffer.allocateDirect(4 * count).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
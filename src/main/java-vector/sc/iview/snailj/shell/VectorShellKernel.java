@@ -0,0 +1,158 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.shell;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Float32 SIMD evaluation of shell rows with the JDK Vector API. Only built
+ * with the vector-api profile, and loaded reflectively by {@link RowKernel}.
+ *
+ * Each spiral row is evaluated one vector of generating curve columns at a
+ * time, from float copies of the column tables, with the row terms
+ * broadcast. The separable tables leave no trigonometric or exponential
+ * functions in the loop, so no approximations of those are needed; the
+ * only error is float32 rounding of the tables and of the multiply-adds.
+ * Bumpy shells sample their noise per vertex and are left to the scalar
+ * kernel.
+ *
+ * @author Conrad Mearns
+ */
+final class VectorShellKernel implements RowKernel {
+
+    private static final VectorSpecies<Float> F = FloatVector.SPECIES_PREFERRED;
+    private static final VectorMask<Float> ALL = F.maskAll(true);
+
+    @Override
+    public void evaluateRows(ShellTables t, FloatBuffer xyz, FloatBuffer normals, int rowStart, int rowEnd) {
+        if(t.p.bumpiness != 0) {
+            ShellKernel.evaluateRows(t, xyz, normals, rowStart, rowEnd);
+            return;
+        }
+
+        int cseg = t.cseg;
+        float[] cosCurve = floats(t.cosCurve), sinCurve = floats(t.sinCurve);
+        float[] ellipse = floats(t.ellipse), nodeCol = floats(t.nodeCol);
+        float[] ellipseSlope = floats(t.ellipseSlope), nodeColSlope = floats(t.nodeColSlope);
+
+        float[] x = new float[cseg], y = new float[cseg], z = new float[cseg];
+        float[] nx = normals != null ? new float[cseg] : null;
+        float[] ny = normals != null ? new float[cseg] : null;
+        float[] nz = normals != null ? new float[cseg] : null;
+        float[] row = new float[3 * cseg];
+
+        float D = (float)t.D, Acb = (float)t.Acb, cosMu = (float)t.cosMu, cot = (float)t.cot;
+
+        for(int i = rowStart; i < rowEnd; i++) {
+            float e = (float)t.growth[i];
+            float x0 = (float)(t.Asb * t.cosTheta[i]), y0 = (float)(t.Asb * t.sinTheta[i]);
+            float dx0 = (float)(-t.Asb * t.sinTheta[i]), dy0 = (float)(t.Asb * t.cosTheta[i]);
+            float ct = (float)t.cosTurn[i], st = (float)t.sinTurn[i];
+            float muCt = (float)(t.sinMu * t.cosTurn[i]), muSt = (float)(t.sinMu * t.sinTurn[i]);
+            float node = (float)t.nodeRow[i], nodeSlope = (float)t.nodeRowSlope[i];
+
+            int bound = F.loopBound(cseg);
+            for(int j = 0; j < cseg; j += F.length()) {
+                // NB: Only the last, partial vector of the row needs a mask.
+                VectorMask<Float> m = j < bound ? ALL : F.indexInRange(j, cseg);
+                FloatVector cs = FloatVector.fromArray(F, cosCurve, j, m);
+                FloatVector ss = FloatVector.fromArray(F, sinCurve, j, m);
+                FloatVector nc = FloatVector.fromArray(F, nodeCol, j, m);
+                FloatVector c = nc.mul(node).add(FloatVector.fromArray(F, ellipse, j, m));
+
+                FloatVector px = cs.mul(ct).sub(ss.mul(muSt));
+                FloatVector py = cs.mul(st).sub(ss.mul(muCt));
+                FloatVector pz = ss.mul(cosMu);
+                FloatVector fx = px.mul(c).add(x0);
+                FloatVector fy = py.mul(c).add(y0);
+                FloatVector fz = pz.mul(c).sub(Acb);
+
+                fx.mul(D * e).intoArray(x, j, m);
+                fy.mul(e).intoArray(y, j, m);
+                fz.mul(e).intoArray(z, j, m);
+
+                if(normals != null) {
+                    FloatVector cTheta = nc.mul(nodeSlope);
+                    FloatVector ux = fx.mul(cot).add(dx0).sub(cs.mul(st).add(ss.mul(muCt)).mul(c)).add(px.mul(cTheta)).mul(D);
+                    FloatVector uy = fy.mul(cot).add(dy0).add(cs.mul(ct).add(ss.mul(muSt)).mul(c)).add(py.mul(cTheta));
+                    FloatVector uz = fz.mul(cot).add(pz.mul(cTheta));
+
+                    FloatVector cS = FloatVector.fromArray(F, nodeColSlope, j, m).mul(node).add(FloatVector.fromArray(F, ellipseSlope, j, m));
+                    FloatVector vx = ss.mul(ct).add(cs.mul(muSt)).mul(c).neg().add(px.mul(cS)).mul(D);
+                    FloatVector vy = ss.mul(st).add(cs.mul(muCt)).mul(c).neg().add(py.mul(cS));
+                    FloatVector vz = cs.mul(cosMu).mul(c).add(pz.mul(cS));
+
+                    FloatVector wx = uy.mul(vz).sub(uz.mul(vy));
+                    FloatVector wy = uz.mul(vx).sub(ux.mul(vz));
+                    FloatVector wz = ux.mul(vy).sub(uy.mul(vx));
+                    FloatVector len = wx.mul(wx).add(wy.mul(wy)).add(wz.mul(wz)).lanewise(VectorOperators.SQRT);
+                    VectorMask<Float> zero = len.compare(VectorOperators.EQ, 0);
+                    FloatVector scale = len.blend(1, zero);
+
+                    wx.div(scale).blend(0, zero).intoArray(nx, j, m);
+                    wy.div(scale).blend(0, zero).intoArray(ny, j, m);
+                    wz.div(scale).blend(0, zero).intoArray(nz, j, m);
+                }
+            }
+
+            int offset = 3 * i * cseg;
+            put(xyz, xyz.position() + offset, x, y, z, row);
+            if(normals != null) {
+                put(normals, normals.position() + offset, nx, ny, nz, row);
+            }
+        }
+    }
+
+    /**
+      * Interleave one row of x, y and z into the buffer at an absolute index
+      */
+    private static void put(FloatBuffer out, int index, float[] x, float[] y, float[] z, float[] row) {
+        for(int j = 0, k = 0; j < x.length; j++) {
+            row[k++] = x[j];
+            row[k++] = y[j];
+            row[k++] = z[j];
+        }
+        FloatBuffer target = out.duplicate();
+        target.position(index);
+        target.put(row);
+    }
+
+    private static float[] floats(double[] values) {
+        float[] out = new float[values.length];
+        for(int i = 0; i < values.length; i++) {
+            out[i] = (float)values[i];
+        }
+        return out;
+    }
+}
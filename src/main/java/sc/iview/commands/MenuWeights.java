@@ -82,5 +82,12 @@ private MenuWeights() {
     public static final double DEMO_GAME_OF_LIFE = 4;
 
     public static final double SNAILJ_SHELLS = 0;
+    public static final double SNAILJ_CANCEL = 0.5;
     public static final double SNAILJ_FRACDIM = 1;
+    public static final double SNAILJ_MULTIFRACTAL = 2;
+    public static final double SNAILJ_FIT = 3;
+    public static final double SNAILJ_SWEEP = 4;
+    public static final double SNAILJ_OPEN_ARCHIVE = 5;
+    public static final double SNAILJ_SAVE_ARCHIVE = 6;
+    public static final double SNAILJ_GALLERY = 7;
 }
@@ -30,9 +30,18 @@
 
 import static sc.iview.commands.MenuWeights.SNAILJ;
 import static sc.iview.commands.MenuWeights.SNAILJ_FRACDIM;
-import static sc.iview.commands.snailj.ShellDemo.REMOVETHISGROSSASSMESHTHING;
+import static sc.iview.snailj.fractal.FractalDimension.DENSE;
+import static sc.iview.snailj.fractal.FractalDimension.EXACT;
+import static sc.iview.snailj.fractal.FractalDimension.FAST;
+import static sc.iview.snailj.fractal.FractalDimension.SPARSE;
 import sc.iview.SciView;
+import sc.iview.commands.snailj.ShellRegistry;
 import sc.iview.process.MeshConverter;
+import sc.iview.snailj.fractal.CorrelationDimension;
+import sc.iview.snailj.fractal.FractalDimension;
+import sc.iview.snailj.fractal.FractalFit;
+import sc.iview.snailj.fractal.FractalSettings;
+import sc.iview.snailj.metrics.Metrics;
 
 import net.imagej.ops.OpService;
 import net.imagej.mesh.nio.BufferMesh;
@@ -48,14 +57,6 @@
 import graphics.scenery.Material;
 import graphics.scenery.Node;
 
-import java.util.List;
-
-import net.imglib2.type.numeric.real.DoubleType;
-import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.util.ValuePair;
-
-import ij.measure.CurveFitter;
-
 /**
  * Fractal dimension analyzer
  *
@@ -76,6 +77,48 @@ public class FractalDimensionDemo implements Command {
     @Parameter
     private OpService op;
 
+    /**
+      * Exact box counting, or a fast estimate from random surface points
+      * for interactive use
+      */
+    @Parameter(label = "Mode", choices = { EXACT, FAST })
+    private String mode = EXACT;
+
+    /**
+      * Time the fast estimate may take, it stops earlier once it is stable
+      */
+    @Parameter(label = "Fast Time Budget (ms)", min = "1")
+    private long budget = 50;
+
+    /**
+      * Box counting engine. Meshes over
+      * {@link FractalDimension#DENSE_MAX_TRIANGLES} triangles always use the
+      * sparse one.
+      */
+    @Parameter(label = "Engine", choices = { DENSE, SPARSE })
+    private String engine = DENSE;
+
+    @Parameter(label = "Grid Levels (2^n voxels per side)", min = "2", max = "20")
+    private int gridLevels = FractalDimension.DEFAULT_BITS;
+
+    @Parameter(label = "Smallest Box (voxels)", min = "1")
+    private double minBox = 1;
+
+    @Parameter(label = "Largest Box (voxels, 0 for half the grid)", min = "0")
+    private double maxBox = 0;
+
+    @Parameter(label = "Scale Ratio", min = "1.05")
+    private double scaleRatio = 2;
+
+    @Parameter(label = "Scale Count (0 for all)", min = "0")
+    private int scaleCount = 0;
+
+    @Parameter(label = "Grid Offsets", min = "1")
+    private int gridOffsets = 1;
+
+    @Parameter(label = "Bootstrap Resamples", min = "0")
+    private int bootstrap = 1000;
+
     // @Parameter
     // private Mesh mesh;
 
@@ -84,35 +127,72 @@ public void run() {
 
       Node active = sciView.getActiveNode();
 
-      if(active != null && active instanceof graphics.scenery.Mesh) {
-        Mesh m = MeshConverter.toImageJ( (graphics.scenery.Mesh)active );
-        double fd = getFractalDimension(m);
-        log.info("Fractal Dimension: " + fd);
+      // NB: Generated shells are analyzed from the buffers they were built
+      // from, with their results cached until the node changes.
+      ShellRegistry.Entry shell = ShellRegistry.get(active);
+      Mesh m;
+      if(shell != null) {
+        m = shell.getMesh();
+      } else if(active != null && active instanceof graphics.scenery.Mesh) {
+        m = MeshConverter.toImageJ( (graphics.scenery.Mesh)active );
       } else {
         log.info("Active node is not a mesh");
+        return;
       }
-      // double fd = getFractalDimension((Mesh)REMOVETHISGROSSASSMESHTHING);
-      // log.info("Fractal Dimension of new shell: " + fd);
-
-    }
-
-    private double getFractalDimension(Mesh m){
-      RandomAccessibleInterval voxelizedMesh = op.geom().voxelization(m);
-      List<ValuePair<DoubleType, DoubleType>> toCurveFit = op.topology().boxCount(voxelizedMesh);
 
-      double datax[] = new double[toCurveFit.size()];
-      double datay[] = new double[toCurveFit.size()];
+      FractalSettings settings = toSettings();
+      CorrelationDimension estimator = toEstimator();
+      String used = FractalDimension.engineFor(engine, m);
+      String key;
+      if(mode.equals(FAST)) {
+        key = FAST + "/" + estimator.key();
+      } else {
+        if(!used.equals(engine)) {
+          log.info("Mesh has " + m.triangles().size() + " triangles, using the " + used + " engine");
+        }
+        key = used + "/" + settings.key();
+      }
 
-      for (int i = 0; i < toCurveFit.size(); i++) {
-        datax[i] = toCurveFit.get(i).getA().getRealDouble();
-        datay[i] = toCurveFit.get(i).getB().getRealDouble();
+      FractalFit fit = shell != null ? shell.getAnalysis(key) : null;
+      if(fit == null) {
+        long version = shell != null ? shell.getVersion() : 0;
+        if(mode.equals(FAST)) {
+          CorrelationDimension.Estimate estimate = estimator.estimate(m);
+          log.debug(estimate);
+          fit = estimate.getFit();
+        } else {
+          fit = FractalDimension.analyze(used, op, m, settings);
+        }
+        if(shell != null) {
+          shell.putAnalysis(version, key, fit);
+        }
+      } else {
+        log.debug("Using the cached analysis of " + active.getName());
+      }
+      log.info("Fractal Dimension: " + fit.getSlope());
+      log.info(fit);
+      if(Metrics.ENABLED) {
+        log.debug(Metrics.summary());
       }
 
-      CurveFitter cf = new CurveFitter(datax, datay);
-      cf.doFit(CurveFitter.STRAIGHT_LINE);
+    }
 
-      log.debug("CurveFitter result: "+cf.getResultString());
+    public FractalSettings toSettings() {
+      FractalSettings settings = new FractalSettings();
+      settings.bits = gridLevels;
+      settings.minBox = minBox;
+      settings.maxBox = maxBox;
+      settings.scaleRatio = scaleRatio;
+      settings.scaleCount = scaleCount;
+      settings.offsets = gridOffsets;
+      settings.bootstrap = bootstrap;
+      return settings;
+    }
 
-      return cf.getParams()[1];
+    public CorrelationDimension toEstimator() {
+      CorrelationDimension estimator = new CorrelationDimension();
+      estimator.budget = budget;
+      estimator.bootstrap = bootstrap;
+      return estimator;
     }
 }
@@ -0,0 +1,196 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.commands.snailj;
+
+import static sc.iview.commands.MenuWeights.SNAILJ;
+import static sc.iview.commands.MenuWeights.SNAILJ_MULTIFRACTAL;
+
+import sc.iview.SciView;
+import sc.iview.process.MeshConverter;
+import sc.iview.snailj.fractal.BoxMasses;
+import sc.iview.snailj.fractal.FractalDimension;
+import sc.iview.snailj.fractal.FractalFit;
+import sc.iview.snailj.fractal.FractalSettings;
+import sc.iview.snailj.fractal.MeshBoxCounter;
+import sc.iview.snailj.fractal.SparseVoxels;
+
+import net.imagej.mesh.Mesh;
+
+import org.scijava.ItemIO;
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Menu;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.table.DefaultGenericTable;
+import org.scijava.table.GenericTable;
+
+import graphics.scenery.Node;
+
+import java.util.TreeSet;
+
+/**
+ * Multifractal analyzer: generalized dimensions D(q) and lacunarity of the
+ * active mesh, from one pass of sparse box counting
+ *
+ * @author Conrad Mearns
+ */
+@Plugin(type = Command.class, label = "SnailJ Multifractal Analyzer", menuRoot = "SciView",
+        menu = { @Menu(label = "SnailJ", weight = SNAILJ),
+                 @Menu(label = "Analyze Multifractal Spectrum", weight = SNAILJ_MULTIFRACTAL) })
+public class MultifractalDemo implements Command {
+
+    @Parameter
+    private LogService log;
+
+    @Parameter
+    private SciView sciView;
+
+    @Parameter(label = "Grid Levels (2^n voxels per side)", min = "2", max = "20")
+    private int gridLevels = FractalDimension.DEFAULT_BITS;
+
+    @Parameter(label = "Smallest Box (voxels)", min = "1")
+    private double minBox = 1;
+
+    @Parameter(label = "Largest Box (voxels, 0 for half the grid)", min = "0")
+    private double maxBox = 0;
+
+    @Parameter(label = "Scale Ratio", min = "1.05")
+    private double scaleRatio = 2;
+
+    @Parameter(label = "Grid Offsets", min = "1")
+    private int gridOffsets = 1;
+
+    @Parameter(label = "Bootstrap Resamples", min = "0")
+    private int bootstrap = 200;
+
+    @Parameter(label = "Minimum q")
+    private double qMin = -5;
+
+    @Parameter(label = "Maximum q")
+    private double qMax = 5;
+
+    @Parameter(label = "q Step", min = "0.01")
+    private double qStep = 0.5;
+
+    @Parameter(type = ItemIO.OUTPUT, label = "Generalized Dimensions")
+    private GenericTable spectrum;
+
+    @Parameter(type = ItemIO.OUTPUT, label = "Box Masses per Scale")
+    private GenericTable scales;
+
+    @Override
+    public void run() {
+      Node active = sciView.getActiveNode();
+
+      // NB: Generated shells are analyzed from the buffers they were built
+      // from, without converting the scene node.
+      ShellRegistry.Entry shell = ShellRegistry.get(active);
+      Mesh m;
+      if(shell != null) {
+        m = shell.getMesh();
+      } else if(active != null && active instanceof graphics.scenery.Mesh) {
+        m = MeshConverter.toImageJ( (graphics.scenery.Mesh)active );
+      } else {
+        log.info("Active node is not a mesh");
+        return;
+      }
+
+      FractalSettings settings = toSettings();
+      SparseVoxels voxels = new MeshBoxCounter(settings.threads).voxelize(m, settings.bits);
+      BoxMasses masses = BoxMasses.measure(voxels, settings);
+
+      double[] qs = qValues();
+      FractalFit[] fits = masses.spectrum(qs, settings);
+
+      spectrum = new DefaultGenericTable(5, qs.length);
+      String[] headers = { "q", "D(q)", "R^2", "CI Lower", "CI Upper" };
+      for(int c = 0; c < headers.length; c++) {
+        spectrum.setColumnHeader(c, headers[c]);
+      }
+      for(int r = 0; r < qs.length; r++) {
+        spectrum.set(0, r, qs[r]);
+        spectrum.set(1, r, fits[r].getSlope());
+        spectrum.set(2, r, fits[r].getRSquared());
+        spectrum.set(3, r, fits[r].getLower());
+        spectrum.set(4, r, fits[r].getUpper());
+      }
+
+      scales = new DefaultGenericTable(5, masses.scales());
+      headers = new String[] { "Box Size (voxels)", "Box Size", "Boxes", "Entropy", "Lacunarity" };
+      for(int c = 0; c < headers.length; c++) {
+        scales.setColumnHeader(c, headers[c]);
+      }
+      for(int r = 0; r < masses.scales(); r++) {
+        scales.set(0, r, masses.size(r));
+        scales.set(1, r, masses.length(r));
+        scales.set(2, r, masses.count(r));
+        scales.set(3, r, masses.entropy(r));
+        scales.set(4, r, masses.lacunarity(r));
+      }
+
+      // NB: The spectrum always holds q = 0, 1 and 2, with their intervals.
+      for(int r = 0; r < qs.length; r++) {
+        if(qs[r] == 0 || qs[r] == 1 || qs[r] == 2) {
+          log.info("D(" + (int) qs[r] + "): " + fits[r]);
+        }
+      }
+    }
+
+    /**
+      * q from qMin to qMax in steps of qStep, always including 0, 1 and 2
+      */
+    private double[] qValues() {
+      TreeSet<Double> qs = new TreeSet<>();
+      for(int i = 0; qMin + i * qStep <= qMax + 1e-9; i++) {
+        qs.add(Math.round((qMin + i * qStep) * 1e6) / 1e6);
+      }
+      qs.add(0.0);
+      qs.add(1.0);
+      qs.add(2.0);
+
+      double[] out = new double[qs.size()];
+      int i = 0;
+      for(double q : qs) {
+        out[i++] = q;
+      }
+      return out;
+    }
+
+    public FractalSettings toSettings() {
+      FractalSettings settings = new FractalSettings();
+      settings.bits = gridLevels;
+      settings.minBox = minBox;
+      settings.maxBox = maxBox;
+      settings.scaleRatio = scaleRatio;
+      settings.offsets = gridOffsets;
+      settings.bootstrap = bootstrap;
+      return settings;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.commands.snailj;
+
+import static sc.iview.commands.MenuWeights.SNAILJ;
+import static sc.iview.commands.MenuWeights.SNAILJ_OPEN_ARCHIVE;
+
+import sc.iview.SciView;
+import sc.iview.snailj.fractal.FractalFit;
+import sc.iview.snailj.io.ShellArchive;
+import sc.iview.snailj.shell.ShellParameters;
+
+import net.imagej.mesh.nio.BufferMesh;
+
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Menu;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import graphics.scenery.Material;
+import cleargl.GLVector;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Adds the shells of a {@link ShellArchive} to the scene, side by side. Their
+ * stored fractal dimension fits are restored, so analysing them again is
+ * free.
+ *
+ * @author Conrad Mearns
+ */
+@Plugin(type = Command.class, label = "SnailJ Open Shell Archive", menuRoot = "SciView",
+        menu = { @Menu(label = "SnailJ", weight = SNAILJ),
+                 @Menu(label = "Open Shell Archive", weight = SNAILJ_OPEN_ARCHIVE) })
+public class OpenShellArchive implements Command {
+
+    @Parameter
+    private LogService log;
+
+    @Parameter
+    private SciView sciView;
+
+    @Parameter(label = "Archive File", style = "open")
+    private File file;
+
+    @Parameter(label = "First Shell", min = "0")
+    private int first = 0;
+
+    @Parameter(label = "Maximum Shells", min = "1")
+    private int count = 16;
+
+    @Override
+    public void run() {
+      try(ShellArchive archive = ShellArchive.open(file.toPath())) {
+        List<ShellArchive.Entry> entries = archive.entries();
+        int end = Math.min(entries.size(), first + count);
+        Material mat = ShellDemo.shellMaterial();
+        for(int i = first; i < end; i++) {
+          ShellArchive.Entry entry = entries.get(i);
+          ShellParameters p = entry.getParameters();
+          BufferMesh mesh = archive.mesh(entry);
+
+          graphics.scenery.Mesh node = SceneryMeshes.strips(mesh, p);
+          node.setName(entry.getName());
+          node.setPosition(new GLVector(1.2f * ShellDemo.SIZE * (i - first), 0.0f, 0.0f));
+          node.fitInto( ShellDemo.SIZE, true );
+          node.setMaterial( mat );
+          sciView.addNode(node);
+
+          ShellRegistry.register(node, mesh, p);
+          ShellRegistry.Entry registered = ShellRegistry.get(node);
+          for(Map.Entry<String, FractalFit> fit : entry.getAnalyses().entrySet()) {
+            registered.putAnalysis(registered.getVersion(), fit.getKey(), fit.getValue());
+          }
+        }
+        log.info(String.format("Opened %d of %d shells from %s", Math.max(0, end - first), entries.size(), file));
+      } catch(IOException e) {
+        log.error("Could not read " + file, e);
+      }
+    }
+}
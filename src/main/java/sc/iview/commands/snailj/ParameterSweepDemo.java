@@ -0,0 +1,162 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.commands.snailj;
+
+import static sc.iview.commands.MenuWeights.SNAILJ;
+import static sc.iview.commands.MenuWeights.SNAILJ_SWEEP;
+import static sc.iview.snailj.shell.ShellPresets.*;
+
+import sc.iview.snailj.shell.ShellParameters;
+import sc.iview.snailj.shell.ShellPresets;
+import sc.iview.snailj.sweep.ParameterSweep;
+import sc.iview.snailj.sweep.SweepAxis;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.DoubleType;
+
+import org.scijava.ItemIO;
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Menu;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sweeps two shell parameters and maps the fractal dimension of every shell,
+ * resuming from the results already in the CSV file
+ *
+ * @author Conrad Mearns
+ */
+@Plugin(type = Command.class, label = "SnailJ Parameter Sweep", menuRoot = "SciView",
+        menu = { @Menu(label = "SnailJ", weight = SNAILJ),
+                 @Menu(label = "Parameter Sweep", weight = SNAILJ_SWEEP) })
+public class ParameterSweepDemo implements Command {
+
+    @Parameter
+    private LogService log;
+
+    @Parameter(label = "Preset", choices = { TORUS, BOAT_EAR_MOON, WENTLETRAP, TURRITELLA, ANCILLA, ARGONAUTA })
+    private String preset = BOAT_EAR_MOON;
+
+    @Parameter(label = "Turns", min = "1")
+    private double turns = 4;
+
+    @Parameter(label = "Segments per Turn", min = "4")
+    private int segmentsPerTurn = 64;
+
+    @Parameter(label = "Curve Segments", min = "4")
+    private int cseg = 64;
+
+    @Parameter(label = "X Parameter", choices = { "alpha", "beta", "phi", "mu", "omega", "A", "a", "b", "L", "P", "W1", "W2", "N", "turns" })
+    private String xName = "alpha";
+
+    @Parameter(label = "X Min (degrees for angles)")
+    private double xMin = 80;
+
+    @Parameter(label = "X Max (degrees for angles)")
+    private double xMax = 88;
+
+    @Parameter(label = "X Steps", min = "1")
+    private int xSteps = 16;
+
+    @Parameter(label = "Y Parameter", choices = { "alpha", "beta", "phi", "mu", "omega", "A", "a", "b", "L", "P", "W1", "W2", "N", "turns" })
+    private String yName = "beta";
+
+    @Parameter(label = "Y Min (degrees for angles)")
+    private double yMin = 0;
+
+    @Parameter(label = "Y Max (degrees for angles)")
+    private double yMax = 60;
+
+    @Parameter(label = "Y Steps", min = "1")
+    private int ySteps = 16;
+
+    @Parameter(label = "Sampling", choices = { ParameterSweep.GRID, ParameterSweep.LATIN_HYPERCUBE })
+    private String mode = ParameterSweep.GRID;
+
+    @Parameter(label = "Latin Hypercube Samples", min = "1")
+    private int samples = 256;
+
+    @Parameter(label = "Grid Levels", min = "2", max = "20")
+    private int gridLevels = 7;
+
+    @Parameter(label = "Threads (0 for all cores)", min = "0")
+    private int threads = 0;
+
+    @Parameter(label = "Results File", style = "save")
+    private File results;
+
+    @Parameter(type = ItemIO.OUTPUT, label = "Fractal Dimension Map")
+    private Img<DoubleType> heatmap;
+
+    @Override
+    public void run() {
+      ShellParameters base = ShellPresets.get(preset, turns, segmentsPerTurn, cseg);
+      List<SweepAxis> axes = Arrays.asList(axis(xName, xMin, xMax, xSteps), axis(yName, yMin, yMax, ySteps));
+
+      ParameterSweep sweep = new ParameterSweep(base, axes);
+      sweep.mode = mode;
+      sweep.samples = samples;
+      sweep.threads = threads;
+      sweep.settings.bits = gridLevels;
+
+      Map<String, Double> dimensions;
+      try {
+        dimensions = sweep.run(results.toPath(),
+                               (done, total, p, d) -> log.info(done + "/" + total + ": D = " + d));
+      } catch(IOException e) {
+        log.error("Could not write sweep results", e);
+        return;
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        log.info("Sweep interrupted, rerun to resume from " + results);
+        return;
+      }
+
+      log.info("Sweep results in " + results);
+      if(ParameterSweep.GRID.equals(mode)) {
+        heatmap = ArrayImgs.doubles(sweep.heatmap(dimensions), xSteps, ySteps);
+      }
+    }
+
+    private static SweepAxis axis(String name, double min, double max, int steps) {
+      if(ShellParameters.isAngle(name)) {
+        min = Math.toRadians(min);
+        max = Math.toRadians(max);
+      }
+      return new SweepAxis(name, min, max, steps);
+    }
+}
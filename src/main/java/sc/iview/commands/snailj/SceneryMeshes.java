@@ -0,0 +1,204 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.commands.snailj;
+
+import sc.iview.snailj.metrics.Metrics;
+import sc.iview.snailj.metrics.Stage;
+import sc.iview.snailj.shell.ShellParameters;
+import sc.iview.snailj.shell.ShellTopology;
+
+import net.imagej.mesh.nio.BufferMesh;
+
+import graphics.scenery.GeometryType;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Helpers for pushing SnailJ meshes into existing scenery nodes.
+ *
+ * @author Conrad Mearns
+ */
+public final class SceneryMeshes {
+
+    private SceneryMeshes() {
+        // NB: Prevent instantiation of utility class.
+    }
+
+    /**
+      * A scenery mesh of a shell, drawn as a triangle strip over the shared
+      * {@link ShellTopology} of its resolution, which takes about a third
+      * of the indices of the triangle list.
+      */
+    public static graphics.scenery.Mesh strips(BufferMesh source, ShellParameters p) {
+        graphics.scenery.Mesh target = new graphics.scenery.Mesh("Shell");
+        target.setGeometryType(GeometryType.TRIANGLE_STRIP);
+        update(target, source, p);
+        return target;
+    }
+
+    /**
+      * One scenery mesh drawing several shells of the same resolution as a
+      * single strip. Each shell is scaled so the largest side of its bounding
+      * box is the given size, and centred on its position, an xyz triple.
+      * The vertices and normals are concatenated, so uploading and drawing
+      * them costs one node instead of one per shell.
+      */
+    public static graphics.scenery.Mesh merged(List<BufferMesh> sources, List<float[]> positions, float size,
+                                               ShellParameters p) {
+        ShellTopology topology = ShellTopology.of(p);
+        int floats = 3 * p.vertexCount();
+        FloatBuffer verts = floats(sources.size() * floats);
+        FloatBuffer normals = floats(sources.size() * floats);
+        float[] lo = new float[3], hi = new float[3];
+        for(int s = 0; s < sources.size(); s++) {
+            FloatBuffer v = sources.get(s).vertices().verts();
+            FloatBuffer n = sources.get(s).vertices().normals();
+            Arrays.fill(lo, Float.POSITIVE_INFINITY);
+            Arrays.fill(hi, Float.NEGATIVE_INFINITY);
+            for(int k = 0; k < floats; k++) {
+                lo[k % 3] = Math.min(lo[k % 3], v.get(k));
+                hi[k % 3] = Math.max(hi[k % 3], v.get(k));
+            }
+            float extent = Math.max(hi[0] - lo[0], Math.max(hi[1] - lo[1], hi[2] - lo[2]));
+            float scale = extent > 0 ? size / extent : 1;
+            float[] position = positions.get(s);
+            for(int k = 0; k < floats; k++) {
+                int d = k % 3;
+                verts.put((v.get(k) - (lo[d] + hi[d]) / 2) * scale + position[d]);
+                normals.put(n.get(k));
+            }
+        }
+        verts.flip();
+        normals.flip();
+
+        graphics.scenery.Mesh target = new graphics.scenery.Mesh("Shells");
+        target.setGeometryType(GeometryType.TRIANGLE_STRIP);
+        try(Metrics.Span span = Metrics.begin(Stage.UPLOAD).count(verts.limit() / 3, (long)sources.size() * p.triangleCount())) {
+            target.setVertices(verts);
+            target.setNormals(normals);
+            target.setTexcoords(floats(verts.limit() / 3 * 2));
+            target.setIndices(topology.ints(sources.size()));
+        }
+        target.setNeedsUpdate(true);
+        target.setDirty(true);
+        return target;
+    }
+
+    /**
+      * A scenery mesh drawing the triangle list of any mesh, e.g. the partly
+      * refined shells of a {@link sc.iview.snailj.shell.ProgressiveShell}.
+      */
+    public static graphics.scenery.Mesh triangles(BufferMesh source) {
+        graphics.scenery.Mesh target = new graphics.scenery.Mesh("Shell");
+        target.setGeometryType(GeometryType.TRIANGLES);
+        update(target, source, null);
+        return target;
+    }
+
+    /**
+      * Replace the geometry of a scenery mesh with the given shell. When the
+      * vertex count is unchanged the vertices are copied into the node's
+      * existing buffer, otherwise new vertex and index buffers are attached.
+      * Read-only direct source buffers in native order, such as the mapped
+      * vertices of a {@link sc.iview.snailj.io.ShellArchive}, cannot change
+      * under the node and are attached without copying.
+      * The shell's normals come with it, so they are copied along instead of
+      * being recalculated. Strip meshes keep drawing strips and need the
+      * shell's parameters, other meshes take the source's triangle list.
+      */
+    public static void update(graphics.scenery.Mesh target, BufferMesh source, ShellParameters p) {
+        try(Metrics.Span span = Metrics.begin(Stage.UPLOAD).count(source.vertices().size(), source.triangles().size())) {
+            upload(target, source, p);
+        }
+    }
+
+    private static void upload(graphics.scenery.Mesh target, BufferMesh source, ShellParameters p) {
+        FloatBuffer verts = source.vertices().verts();
+        FloatBuffer normals = source.vertices().normals().duplicate();
+        normals.limit(verts.limit());
+        boolean strips = target.getGeometryType() == GeometryType.TRIANGLE_STRIP;
+
+        FloatBuffer current = target.getVertices();
+        boolean resized = current == null || current.isReadOnly() || target.getNormals().isReadOnly() ||
+                          current.capacity() != verts.limit();
+        if(!resized) {
+            current.clear();
+            current.put(verts.duplicate());
+            current.flip();
+            FloatBuffer currentNormals = target.getNormals();
+            currentNormals.clear();
+            currentNormals.put(normals);
+            currentNormals.flip();
+        } else {
+            FloatBuffer texCoords = source.vertices().texCoords();
+            target.setVertices(shareable(verts) ? verts.duplicate() : copy(verts));
+            target.setNormals(shareable(normals) ? normals : copy(normals));
+            target.setTexcoords(shareable(texCoords) && texCoords.limit() == verts.limit() / 3 * 2 ?
+                                texCoords.duplicate() : floats(verts.limit() / 3 * 2));
+        }
+
+        if(strips) {
+            ShellTopology topology = ShellTopology.of(p);
+            if(target.getIndices() == null || target.getIndices().limit() != topology.length()) {
+                target.setIndices(topology.ints());
+            }
+        } else {
+            target.setIndices(copy(source.triangles().indices()));
+        }
+        target.setNeedsUpdate(true);
+        target.setDirty(true);
+    }
+
+    static boolean shareable(FloatBuffer source) {
+        return source.isReadOnly() && source.isDirect() && source.order() == ByteOrder.nativeOrder();
+    }
+
+    static FloatBuffer copy(FloatBuffer source) {
+        FloatBuffer copy = floats(source.limit());
+        copy.put(source.duplicate());
+        copy.flip();
+        return copy;
+    }
+
+    static IntBuffer copy(IntBuffer source) {
+        IntBuffer copy = ByteBuffer.allocateDirect(4 * source.limit()).order(ByteOrder.nativeOrder()).asIntBuffer();
+        copy.put(source.duplicate());
+        copy.flip();
+        return copy;
+    }
+
+    static FloatBuffer floats(int count) {
+        return ByteBuffer.allocateDirect(4 * count).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
@@ -30,18 +30,12 @@
 
 import static sc.iview.commands.MenuWeights.SNAILJ;
 import static sc.iview.commands.MenuWeights.SNAILJ_SHELLS;
+import static sc.iview.snailj.shell.ShellPresets.*;
 
-import jdk.nashorn.tools.Shell;
-import net.imagej.ImageJ;
 import org.scijava.command.CommandService;
-import sc.iview.vector.DoubleVector3;
-
-import net.imagej.ops.geom.geom3d.DefaultVoxelization3D;
-import net.imagej.ops.topology.BoxCount;
 
 import net.imagej.ops.OpService;
 import net.imagej.mesh.nio.BufferMesh;
-import net.imagej.mesh.Mesh;
 
 import org.scijava.command.Command;
 import org.scijava.io.IOService;
@@ -51,23 +45,38 @@
 import org.scijava.plugin.Plugin;
 
 import sc.iview.SciView;
-
+import sc.iview.vector.DoubleVector3;
+import sc.iview.snailj.shell.CurveNoise;
+import sc.iview.snailj.shell.LiveShell;
+import sc.iview.snailj.shell.ProgressiveShell;
+import sc.iview.snailj.shell.ShellBuilder;
+import sc.iview.snailj.shell.ShellChange;
+import sc.iview.snailj.shell.ShellKernel;
+import sc.iview.snailj.shell.ShellLod;
+import sc.iview.snailj.shell.ShellMeshCache;
+import sc.iview.snailj.shell.ShellParameters;
+import sc.iview.snailj.shell.ShellPresets;
+import sc.iview.snailj.shell.ShellTopology;
+
+import graphics.scenery.GeometryType;
 import graphics.scenery.Material;
 import graphics.scenery.Node;
 import cleargl.GLVector;
-
+import kotlin.Unit;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.Random;
 
 import java.util.List;
-
-import net.imglib2.type.numeric.real.DoubleType;
-import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.util.ValuePair;
-
-import ij.measure.CurveFitter;
-
-import java.net.URL;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Shell generator, based on the paper by Jorge Picado
@@ -82,94 +91,10 @@
                  @Menu(label = "Generate Shell", weight = SNAILJ_SHELLS) })
 
 public class ShellDemo implements Command {
-    public static BufferMesh REMOVETHISGROSSASSMESHTHING; //TODO
-    //D, A, alpha, beta, phi, mu, omega, a, b, L, P, W1, W2, N;
-    private final String CUSTOM         = "Custom";
-    private final String TORUS          = "Torus";
-    private final String BOAT_EAR_MOON  = "Boat Ear Moon";
-    private final String WENTLETRAP     = "Precious Wentletrap";
-    private final String TURRITELLA     = "Turritella";
-    private final String ANCILLA        = "Ancilla";
-    private final String ARGONAUTA      = "Argonauta";
-
-    private double[][] presets = {
-      {
-        //Torus
-        1,
-        90,
-        Math.toRadians(90),
-        Math.toRadians(10),
-        0,0,0,
-        10,
-        10,
-        0, 0, 1, 1, 1
-      },
-      {
-        //Boat Ear Moon
-        1,
-        25,
-        Math.toRadians(83),
-        Math.toRadians(42),
-        Math.toRadians(70),
-        Math.toRadians(10),
-        Math.toRadians(30),
-        12,
-        20,
-        0, 0, 1, 1, 1
-      },
-      {
-        //Precious Wentletrap
-        1,
-        90,
-        Math.toRadians(86),
-        Math.toRadians(10),
-        Math.toRadians(-45),
-        Math.toRadians(5),
-        Math.toRadians(1),
-        20,
-        20,
-        10, Math.toRadians(40), Math.toRadians(180), Math.toRadians(0.4), 8
-      },
-      {
-        //Turritella
-        1,
-        22.2,
-        Math.toRadians(88.9),
-        Math.toRadians(4),
-        Math.toRadians(55),
-        Math.toRadians(1),
-        Math.toRadians(-2),
-        1.3,
-        1.5,
-        0, 0, 1, 1, 1
-      },
-      {
-        //Ancilla
-        1,
-        100,
-        Math.toRadians(86),
-        Math.toRadians(7),
-        0, 0, 0,
-        15,
-        35,
-        0, 0, 1, 1, 1
-      },
-      {
-        //Argonauta
-        1,
-        2,
-        Math.toRadians(80),
-        Math.toRadians(90),
-        0, 0, 0,
-        2,
-        1.5,
-        0.3,
-        Math.toRadians(5),
-        Math.toRadians(150),
-        Math.toRadians(20),
-        30
-      }
-    };
+    /**
+      * Size generated shells are scaled to fit into
+      */
+    static final float SIZE = 15.0f;
 
     @Parameter
     private IOService io;
@@ -198,6 +123,13 @@ public class ShellDemo implements Command {
     @Parameter(label = "Spiral Turn Resolution")
     private int segmentsPerTurn = 64;
 
+    /**
+      * Spread the spiral rows following the shell's growth, so the small
+      * early turns get fewer vertices than the large final ones
+      */
+    @Parameter(label = "Adaptive Spiral Resolution")
+    private boolean adaptive;
+
     /**
       * Resolution of segments of the generating curve. Effectively makes an
       * ellipse into an N-gon where cseg is N
@@ -208,213 +140,366 @@ public class ShellDemo implements Command {
     @Parameter(label = "Generating Curve Randomness Multiplier")
     private double bumpiness = 0;
 
+    /**
+      * Seed for the bumpiness, the same seed always gives the same shell
+      */
+    @Parameter(label = "Generating Curve Randomness Seed")
+    private long seed = 0;
+
+    @Parameter(label = "Generating Curve Randomness Style", choices = {CurveNoise.RANDOM, CurveNoise.SMOOTH})
+    private String noise = CurveNoise.RANDOM;
+
+    /**
+      * Threads used to generate the shell, 0 uses every core
+      */
+    @Parameter(label = "Generation Threads", min = "0")
+    private int threads = 0;
+
+    /**
+      * Number of meshes of decreasing resolution to generate. Coarser levels
+      * are shown instead of the full shell when the camera is far away
+      */
+    @Parameter(label = "Detail Levels", min = "1")
+    private int detailLevels = 1;
+
+    /**
+      * Reuse a previously generated mesh with identical parameters
+      */
+    @Parameter(label = "Use Shell Cache")
+    private boolean useCache = true;
+
+    /**
+      * Generate the shell on a background thread, showing a coarse version
+      * right away and refining it band by band along the spiral. Coarser
+      * detail levels are built once the full shell is shown
+      */
+    @Parameter(label = "Generate in Background")
+    private boolean background;
+
     @Parameter(label = "Use Radians")
     private boolean inRadians;
 
+    /**
+      * Keep updating the last generated shell in place as parameters change,
+      * instead of adding a new node each time
+      */
+    @Parameter(label = "Live Edit", callback = "liveUpdate")
+    private boolean liveEdit;
+
     /**
       * 14 parameters outlined by the referenced paper.
       */
-    @Parameter
+    @Parameter(callback = "liveUpdate")
     private double D, A, alpha, beta, phi, mu, omega, a, b, L, P, W1, W2, N;
 
-    public void updateParams() {
-      int presetIndex = 0;
-      switch(preset){
-        default:
-          presetIndex = 0;
-          break;
-        case ARGONAUTA:
-          presetIndex++;
-        case ANCILLA:
-          presetIndex++;
-        case TURRITELLA:
-          presetIndex++;
-        case WENTLETRAP:
-          presetIndex++;
-        case BOAT_EAR_MOON:
-          presetIndex++;
-        }
-
-        if(!preset.equals(CUSTOM)){
-          D = presets[presetIndex][0];
-          A = presets[presetIndex][1];
-          alpha = presets[presetIndex][2];
-          beta = presets[presetIndex][3];
-          phi = presets[presetIndex][4];
-          mu = presets[presetIndex][5];
-          omega = presets[presetIndex][6];
-          a = presets[presetIndex][7];
-          b = presets[presetIndex][8];
-          L = presets[presetIndex][9];
-          P = presets[presetIndex][10];
-          W1 = presets[presetIndex][11];
-          W2 = presets[presetIndex][12];
-          N = presets[presetIndex][13];
-        }
-    }
+    private static LiveShell liveShell;
+    private static graphics.scenery.Mesh liveNode;
 
     /**
-      * Curve function
-      * @param s The angle, in radians, that maps to a point on an ellipse
+      * Shells being generated in the background, in the order they started
       */
-    private double C_ellipse(double s) {
-      Random rand = new Random();
-      return Math.pow(Math.pow(Math.cos(s)/a, 2) + Math.pow(Math.sin(s)/b, 2), -0.5) + (rand.nextDouble()*bumpiness);
-    }
+    private static final List<ProgressiveShell> generating = new CopyOnWriteArrayList<>();
+    private static ExecutorService generator;
 
     /**
-      * Node function, allows malformation of the standard ellipse curve to
-      * introduce bumps and spines
-      * @param s The angle, in radians, that maps to a point on an ellipse
-      * @param theta The angle, in radians, that maps to a point on a spiral
+      * Overwrite the 14 parameters with the chosen preset, unless it is Custom
       */
-    private double C_node(double s, double theta) {
-      if(W1 ==0 || W2 == 0 || N == 0) {
-          return 0;
-      }else {
-          double l = ((2 * Math.PI) / N) * ((N * theta)/(2 * Math.PI) - (int)((N * theta)/(2 * Math.PI)));
-          return L * Math.exp(-(Math.pow(2*(s-P)/W1, 2) + Math.pow(2*l/W2, 2)));
-      }
+    public void updateParams(ShellParameters p) {
+        ShellPresets.apply(preset, p);
     }
 
     /**
-      * X, Y, and Z functions for shell generation.
-      * @param s The angle, in radians, that maps to a point on an ellipse
-      * @param theta The angle, in radians, that maps to a point on a spiral
-      * @param curve The combination of all curve-related functions with
-      *   corresponding s and theta values
+      * Collect the current settings into the parameters used by the kernel,
+      * converting angles to radians and applying the chosen preset
       */
-    private double S_x(double theta, double s, double curve) {
-        return D * (A * Math.sin(beta) * Math.cos(theta) +
-                      Math.cos(s + phi) * Math.cos(theta + omega) * curve -
-                      Math.sin(mu) * Math.sin(s + phi) * Math.sin(theta + omega) * curve
-                    ) * Math.exp(theta / Math.tan(alpha));
+    public ShellParameters toParameters() {
+        ShellParameters p = new ShellParameters();
+        p.D = D; p.A = A; p.alpha = alpha; p.beta = beta; p.phi = phi;
+        p.mu = mu; p.omega = omega; p.a = a; p.b = b; p.L = L; p.P = P;
+        p.W1 = W1; p.W2 = W2; p.N = N;
+        if(!inRadians) {
+          p.anglesToRadians();
+        }
+        updateParams(p);
+
+        p.turns = turns;
+        p.segmentsPerTurn = segmentsPerTurn;
+        p.adaptive = adaptive;
+        p.cseg = cseg;
+        p.bumpiness = bumpiness;
+        p.seed = seed;
+        p.noise = noise;
+        return p;
     }
 
-    private double S_y(double theta, double s, double curve) {
-        return (A * Math.sin(beta) * Math.sin(theta) +
-                  Math.cos(s + phi) * Math.sin(theta + omega) * curve -
-                  Math.sin(mu) * Math.sin(s + phi) * Math.cos(theta + omega) * curve
-                ) * Math.exp(theta / Math.tan(alpha));
+    @Override
+    public void run() {
+        if(liveEdit) {
+          liveUpdate();
+          return;
+        }
+
+        if(background) {
+          generateInBackground(ShellLod.levels(toParameters(), detailLevels));
+          return;
+        }
+
+        ShellBuilder builder = new ShellBuilder(threads);
+        List<ShellParameters> levels = ShellLod.levels(toParameters(), detailLevels);
+        List<BufferMesh> meshes = new ArrayList<>();
+        for(ShellParameters level : levels) {
+          meshes.add(generate(builder, level));
+        }
+        if(useCache) {
+          log.debug(ShellMeshCache.shared());
+        }
+
+        if(meshes.size() == 1) {
+          Node node = addMesh(0.0f, 0.0f, 0.0f, meshes.get(0), levels.get(0));
+          ShellRegistry.register(node, meshes.get(0), levels.get(0));
+        } else {
+          addLevels(0.0f, 0.0f, 0.0f, levels, meshes);
+        }
     }
 
-    private double S_z(double theta, double s, double curve) {
-        return (-A * Math.cos(beta) +
-                  Math.cos(mu) * Math.sin(s + phi) * curve
-                ) * Math.exp(theta / Math.tan(alpha));
+    private BufferMesh generate(ShellBuilder builder, ShellParameters p) {
+        if(useCache) {
+          return ShellMeshCache.shared().get(p, builder::build);
+        }
+        return builder.build(p);
     }
 
-    @Override
-    public void run() {
-        if(!inRadians) {
-          alpha = Math.toRadians(alpha);
-          beta = Math.toRadians(beta);
-          phi = Math.toRadians(phi);
-          mu = Math.toRadians(mu);
-          omega = Math.toRadians(omega);
-
-          P = Math.toRadians(P);
-          W1 = Math.toRadians(W1);
-          W2 = Math.toRadians(W2);
+    /**
+      * Queue the shell on the background generator and return. Its node
+      * is added with the coarse preview and updated in place as rows are
+      * refined, then switched to the shared strip topology once finished.
+      * With more than one level, the coarser ones are built next, and the
+      * node is replaced by the level of detail node. A cancelled shell is
+      * removed from the scene again.
+      */
+    private void generateInBackground(List<ShellParameters> levels) {
+        ShellParameters p = levels.get(0);
+        BufferMesh cached = useCache ? ShellMeshCache.shared().getIfPresent(p) : null;
+        if(cached != null && levels.size() == 1) {
+          Node node = addMesh(0.0f, 0.0f, 0.0f, cached, p);
+          ShellRegistry.register(node, cached, p);
+          return;
         }
 
-        updateParams();
+        ProgressiveShell shell = new ProgressiveShell(p, threads);
+        generating.add(shell);
+        generator().execute(() -> {
+          graphics.scenery.Mesh[] node = new graphics.scenery.Mesh[1];
+          try {
+            BufferMesh mesh = cached != null ? cached : shell.generate((m, progress, done) -> {
+              if(node[0] == null) {
+                // NB: A shell too small for a preview is already done here.
+                node[0] = done ? SceneryMeshes.strips(m, p) : SceneryMeshes.triangles(m);
+                node[0].setPosition(new GLVector(0.0f, 0.0f, 0.0f));
+                node[0].fitInto( SIZE, true );
+                node[0].setMaterial( shellMaterial() );
+                sciView.addNode(node[0]);
+              } else if(done) {
+                node[0].setGeometryType(GeometryType.TRIANGLE_STRIP);
+                SceneryMeshes.update(node[0], m, p);
+              } else {
+                SceneryMeshes.update(node[0], m, p);
+              }
+              log.debug(String.format("Shell generation %.0f%%", 100 * progress));
+            });
+            if(useCache && cached == null) {
+              ShellMeshCache.shared().put(p, mesh);
+            }
+            if(levels.size() == 1) {
+              ShellRegistry.register(node[0], mesh, p);
+              return;
+            }
+
+            ShellBuilder builder = new ShellBuilder(threads);
+            List<BufferMesh> meshes = new ArrayList<>();
+            meshes.add(mesh);
+            for(ShellParameters level : levels.subList(1, levels.size())) {
+              if(shell.isCancelled() || Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Shell generation cancelled");
+              }
+              meshes.add(generate(builder, level));
+            }
+            addLevels(0.0f, 0.0f, 0.0f, levels, meshes);
+            if(node[0] != null) {
+              sciView.deleteNode(node[0]);
+            }
+          } catch(CancellationException e) {
+            log.info("Shell generation cancelled");
+            if(node[0] != null) {
+              sciView.deleteNode(node[0]);
+            }
+          } catch(RuntimeException e) {
+            log.error("Shell generation failed", e);
+          } finally {
+            generating.remove(shell);
+          }
+        });
+    }
 
-        BufferMesh m = shellToMesh(makeShellPoints());
-        REMOVETHISGROSSASSMESHTHING = m;//TODO
-        addMesh(0.0f, 0.0f, 0.0f, (Mesh)m);
+    private static synchronized ExecutorService generator() {
+        if(generator == null) {
+          generator = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "SnailJ shell generation");
+            thread.setDaemon(true);
+            return thread;
+          });
+        }
+        return generator;
     }
 
     /**
-     * Estimate the Fractal Dimension of a given Mesh
-     * Collects boxCount data from the OpService, and then determines the slope
-     * using CurveFitter
-     */
-    private double getFractalDimension(Mesh m){
-      RandomAccessibleInterval voxelizedMesh = op.geom().voxelization(m);
-      List<ValuePair<DoubleType, DoubleType>> toCurveFit = op.topology().boxCount(voxelizedMesh);
-
-      double datax[] = new double[toCurveFit.size()];
-      double datay[] = new double[toCurveFit.size()];
-
-      for (int i = 0; i < toCurveFit.size(); i++) {
-        datax[i] = toCurveFit.get(i).getA().getRealDouble();
-        datay[i] = toCurveFit.get(i).getB().getRealDouble();
-      }
-
-      CurveFitter cf = new CurveFitter(datax, datay);
-      cf.doFit(CurveFitter.STRAIGHT_LINE);
+      * Cancel every shell queued or being generated in the background
+      *
+      * @return The number of shells cancelled
+      */
+    public static int cancelGeneration() {
+        int count = 0;
+        for(ProgressiveShell shell : generating) {
+          shell.cancel();
+          count++;
+        }
+        return count;
+    }
 
-      log.debug("CurveFitter result: "+cf.getResultString());
+    /**
+      * Regenerate the live shell for the current settings, reusing its node
+      * and buffers. Only the terms affected by the changed parameters are
+      * recomputed, and the indices are kept unless the resolution changed.
+      */
+    protected void liveUpdate() {
+        if(!liveEdit) {
+          return;
+        }
 
-      return cf.getParams()[1];
+        ShellParameters p = toParameters();
+        synchronized(ShellDemo.class) {
+          if(liveShell == null || liveNode == null || liveNode.getParent() == null) {
+            liveShell = new LiveShell(p, threads);
+            Node node = addMesh(0.0f, 0.0f, 0.0f, liveShell.getMesh(), p);
+            liveNode = node instanceof graphics.scenery.Mesh ? (graphics.scenery.Mesh)node : null;
+            ShellRegistry.register(node, liveShell.getMesh(), p);
+          } else {
+            EnumSet<ShellChange> changes = liveShell.update(p);
+            if(!changes.isEmpty()) {
+              log.debug("Live shell update: " + changes);
+              SceneryMeshes.update(liveNode, liveShell.getMesh(), p);
+              ShellRegistry.update(liveNode, liveShell.getMesh(), p);
+            }
+          }
+        }
     }
 
-    private void addMesh(float x, float y, float z, Mesh m) {
-      Node msh = sciView.addMesh(m);
+    private Node addMesh(float x, float y, float z, BufferMesh m, ShellParameters p) {
+      Node msh = SceneryMeshes.strips(m, p);
       msh.setPosition(new GLVector(x, y, z));
 
-      msh.fitInto( 15.0f, true );
-
-      Material mat = new Material();
-      mat.setAmbient( new GLVector( 1.0f, 0.0f, 0.0f ) );
-      mat.setDiffuse( new GLVector( 0.8f, 0.5f, 0.4f ) );
-      mat.setSpecular( new GLVector( 1.0f, 1.0f, 1.0f ) );
-      mat.setCullingMode(Material.CullingMode.None);
+      msh.fitInto( SIZE, true );
 
-      msh.setMaterial( mat );
+      msh.setMaterial( shellMaterial() );
 
 
       msh.setNeedsUpdate( true );
       msh.setDirty( true );
-    }
 
-    public DoubleVector3[][] makeShellPoints() {
-      int hseg = (int)(segmentsPerTurn * turns);
+      sciView.addNode(msh);
+      return msh;
+    }
 
-      double hstep = (2.0f * Math.PI) / segmentsPerTurn;
+    /**
+      * Add a level-of-detail pyramid as children of one parent node. Only one
+      * level is visible at a time, chosen from the camera distance every
+      * frame. Every level is registered with the mesh it shows, and the
+      * parent with the finest one.
+      */
+    private Node addLevels(float x, float y, float z, List<ShellParameters> params, List<BufferMesh> meshes) {
+      Node parent = new Node("Shell");
+      parent.setPosition(new GLVector(x, y, z));
+
+      Material mat = shellMaterial();
+      List<Node> levels = new ArrayList<>();
+      for(BufferMesh m : meshes) {
+        graphics.scenery.Mesh level = SceneryMeshes.strips(m, params.get(levels.size()));
+        level.setName("Shell LOD " + levels.size());
+        level.fitInto( SIZE, true );
+        level.setMaterial( mat );
+        level.setVisible( levels.isEmpty() );
+        level.setNeedsUpdate( true );
+        level.setDirty( true );
+        parent.addChild(level);
+        ShellRegistry.register(level, m, params.get(levels.size()));
+        levels.add(level);
+      }
 
-      DoubleVector3[][] shell = new DoubleVector3[hseg][cseg];
+      parent.getUpdate().add(() -> {
+        float distance = sciView.getCamera().getPosition().minus(parent.getPosition()).magnitude();
+        int shown = ShellLod.select(distance, SIZE, levels.size());
+        for(int i = 0; i < levels.size(); i++) {
+          levels.get(i).setVisible(i == shown);
+        }
+        return Unit.INSTANCE;
+      });
 
-      for(int i = 0; i < hseg; i++) {
-          double theta = hstep * i;
-          for(int j = 0; j < cseg; j++) {
-              double s = j * (2 * Math.PI) / cseg;
+      sciView.addNode(parent);
+      ShellRegistry.register(parent, meshes.get(0), params.get(0));
+      return parent;
+    }
 
-              double c = C_ellipse(s) + C_node(s, theta);
+    static Material shellMaterial() {
+      Material mat = new Material();
+      mat.setAmbient( new GLVector( 1.0f, 0.0f, 0.0f ) );
+      mat.setDiffuse( new GLVector( 0.8f, 0.5f, 0.4f ) );
+      mat.setSpecular( new GLVector( 1.0f, 1.0f, 1.0f ) );
+      mat.setCullingMode(Material.CullingMode.None);
+      return mat;
+    }
 
-              shell[i][j] = new DoubleVector3(
-                  S_x(theta, s, c),
-                  S_y(theta, s, c),
-                  S_z(theta, s, c));
-          }
-      }
-      return shell;
+    /**
+      * Flat xyz coordinates of every vertex, row by row along the spiral.
+      * This used to return a DoubleVector3 grid of [row][column]; vertex
+      * (i, j) is now at offset 3 * (i * cseg + j).
+      */
+    public float[] makeShellPoints() {
+      ShellParameters p = toParameters();
+      float[] points = new float[3 * p.vertexCount()];
+      ShellKernel.evaluate(p, points);
+      return points;
     }
 
+    /**
+      * Mesh of a grid of points of [spiral row][curve column], with the
+      * triangles of {@link ShellKernel#triangles} and smooth normals
+      *
+      * @deprecated Build shells with {@link ShellKernel#toMesh} or a
+      *   {@link ShellBuilder}, which write straight into the mesh's buffers
+      */
+    @Deprecated
     public BufferMesh shellToMesh(DoubleVector3[][] shell) {
-        int n = shell.length;
-        int m = shell[0].length;
-
-        BufferMesh mesh = new BufferMesh(n*m, 2*(n-1)*m);
-
-        for(int i = 0; i < n; i++) {
-            for(int j = 0; j < m; j++) {
-                float x = shell[i][j].xf();
-                float y = shell[i][j].yf();
-                float z = shell[i][j].zf();
-                mesh.vertices().add(x, y, z);
-            }
-        }
-
-        for(int i = 0; i < n-1; i++) {
-            for(int j = 0; j < m; j++) {
-                mesh.triangles().add(m*i+j, (i+1)*m+(j+1)%m, m*i+(j+1)%m);
-                mesh.triangles().add(m*i+j, (i+1)*m+j, (i+1)*m+(j+1)%m);
-            }
+      ShellParameters p = new ShellParameters();
+      p.turns = 1;
+      p.segmentsPerTurn = shell.length;
+      p.cseg = shell.length > 0 ? shell[0].length : 0;
+
+      FloatBuffer verts = floats(3 * p.vertexCount());
+      for(DoubleVector3[] row : shell) {
+        for(DoubleVector3 v : row) {
+          verts.put(v.xf()).put(v.yf()).put(v.zf());
         }
+      }
+      verts.flip();
+      FloatBuffer normals = floats(3 * p.vertexCount());
+      ShellTopology.normals(verts, p.hseg(), p.cseg, normals);
+      IntBuffer indices = ByteBuffer.allocateDirect(12 * p.triangleCount()).order(ByteOrder.nativeOrder()).asIntBuffer();
+      ShellKernel.triangles(p, indices);
+      return new BufferMesh(verts, normals, floats(2 * p.vertexCount()), indices, floats(3 * p.triangleCount()));
+    }
 
-        return mesh;
+    private static FloatBuffer floats(int count) {
+      return ByteBuffer.allocateDirect(4 * count).order(ByteOrder.nativeOrder()).asFloatBuffer();
     }
 
     public static void main(final String... args) {
@@ -0,0 +1,164 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.commands.snailj;
+
+import static sc.iview.commands.MenuWeights.SNAILJ;
+import static sc.iview.commands.MenuWeights.SNAILJ_FIT;
+import static sc.iview.snailj.shell.ShellPresets.*;
+
+import sc.iview.SciView;
+import sc.iview.process.MeshConverter;
+import sc.iview.snailj.fit.ChamferFitness;
+import sc.iview.snailj.fit.DimensionFitness;
+import sc.iview.snailj.fit.FitSpace;
+import sc.iview.snailj.fit.ShellFitness;
+import sc.iview.snailj.fit.ShellFitter;
+import sc.iview.snailj.shell.ShellKernel;
+import sc.iview.snailj.shell.ShellParameters;
+import sc.iview.snailj.shell.ShellPresets;
+
+import net.imagej.mesh.Mesh;
+
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Menu;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import graphics.scenery.Node;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Fits shell parameters to the active mesh, e.g. a measured specimen, or
+ * to a fractal dimension, with a parallel genetic algorithm
+ *
+ * @author Conrad Mearns
+ */
+@Plugin(type = Command.class, label = "SnailJ Shell Fitting", menuRoot = "SciView",
+        menu = { @Menu(label = "SnailJ", weight = SNAILJ),
+                 @Menu(label = "Fit Shell", weight = SNAILJ_FIT) })
+public class ShellFitDemo implements Command {
+
+    private static final String ACTIVE_MESH = "Active Mesh";
+    private static final String DIMENSION = "Fractal Dimension";
+
+    @Parameter
+    private LogService log;
+
+    @Parameter
+    private SciView sciView;
+
+    @Parameter(label = "Target", choices = { ACTIVE_MESH, DIMENSION })
+    private String target = ACTIVE_MESH;
+
+    @Parameter(label = "Target Fractal Dimension", min = "1", max = "3")
+    private double targetDimension = 2.2;
+
+    @Parameter(label = "Starting Preset", choices = { TORUS, BOAT_EAR_MOON, WENTLETRAP, TURRITELLA, ANCILLA, ARGONAUTA })
+    private String preset = BOAT_EAR_MOON;
+
+    @Parameter(label = "Turns", min = "1")
+    private double turns = 4;
+
+    @Parameter(label = "Segments per Turn", min = "4")
+    private int segmentsPerTurn = 64;
+
+    @Parameter(label = "Curve Segments", min = "4")
+    private int cseg = 64;
+
+    @Parameter(label = "Population", min = "4")
+    private int populationSize = 64;
+
+    @Parameter(label = "Generations", min = "1")
+    private int generations = 100;
+
+    @Parameter(label = "Coarse Segments", min = "4")
+    private int coarseSegments = 16;
+
+    @Parameter(label = "Chamfer Samples", min = "64")
+    private int samples = 2048;
+
+    @Parameter(label = "Threads (0 for all cores)", min = "0")
+    private int threads = 0;
+
+    @Parameter(label = "Checkpoint File", style = "save", required = false)
+    private File checkpoint;
+
+    @Parameter(label = "Resume from Checkpoint")
+    private boolean resume;
+
+    @Override
+    public void run() {
+      ShellFitness fitness;
+      if(ACTIVE_MESH.equals(target)) {
+        Node active = sciView.getActiveNode();
+        if(active == null || !(active instanceof graphics.scenery.Mesh)) {
+          log.info("Active node is not a mesh");
+          return;
+        }
+        Mesh m = MeshConverter.toImageJ( (graphics.scenery.Mesh)active );
+        float[] xyz = ChamferFitness.points(m);
+        fitness = new ChamferFitness(xyz, xyz.length / 3, samples);
+      } else {
+        fitness = new DimensionFitness(targetDimension, DimensionFitness.DEFAULT_BITS);
+      }
+
+      ShellParameters start = ShellPresets.get(preset, turns, segmentsPerTurn, cseg);
+      FitSpace space = FitSpace.standard();
+
+      ShellFitter fitter = new ShellFitter(threads);
+      fitter.populationSize = populationSize;
+      fitter.generations = generations;
+      fitter.coarseSegments = coarseSegments;
+      fitter.checkpoint = checkpoint;
+      fitter.resume = resume;
+
+      ShellParameters best;
+      try {
+        best = fitter.fit(space, start, fitness,
+                          (generation, score, p) -> log.info("Generation " + generation + ": " + score));
+      } catch(IOException e) {
+        log.error("Shell fitting checkpoint failed", e);
+        return;
+      }
+
+      StringBuilder sb = new StringBuilder("Fitted shell:");
+      for(int i = 0; i < space.size(); i++) {
+        String name = space.getName(i);
+        double v = best.get(name);
+        sb.append(' ').append(name).append('=').append(ShellParameters.isAngle(name) ? Math.toDegrees(v) : v);
+      }
+      log.info(sb.toString());
+
+      Node node = sciView.addMesh(ShellKernel.toMesh(best));
+      node.setName("Fitted Shell");
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.commands.snailj;
+
+import static sc.iview.commands.MenuWeights.SNAILJ;
+import static sc.iview.commands.MenuWeights.SNAILJ_GALLERY;
+import static sc.iview.snailj.shell.ShellPresets.*;
+
+import sc.iview.SciView;
+import sc.iview.snailj.shell.ShellBuilder;
+import sc.iview.snailj.shell.ShellMeshCache;
+import sc.iview.snailj.shell.ShellParameters;
+import sc.iview.snailj.shell.ShellPresets;
+import sc.iview.snailj.sweep.ParameterSweep;
+import sc.iview.snailj.sweep.SweepAxis;
+
+import net.imagej.mesh.nio.BufferMesh;
+
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Menu;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import graphics.scenery.Material;
+import graphics.scenery.Node;
+import cleargl.GLVector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Lays out many shells side by side in a grid, to compare the presets or the
+ * shells along a parameter sweep.
+ *
+ * The shells are generated concurrently. Shells of the same resolution share
+ * one {@link sc.iview.snailj.shell.ShellTopology} index buffer and one
+ * material, and are merged into a single node by default, so the scene
+ * nodes, uploads and draw calls grow with the number of distinct
+ * resolutions instead of the number of shells.
+ *
+ * @author Conrad Mearns
+ */
+@Plugin(type = Command.class, label = "SnailJ Shell Gallery", menuRoot = "SciView",
+        menu = { @Menu(label = "SnailJ", weight = SNAILJ),
+                 @Menu(label = "Shell Gallery", weight = SNAILJ_GALLERY) })
+public class ShellGallery implements Command {
+
+    public static final String PRESETS = "Presets";
+    public static final String SWEEP = "Sweep";
+
+    @Parameter
+    private LogService log;
+
+    @Parameter
+    private SciView sciView;
+
+    /**
+      * Every preset, or a grid of shells sweeping one or two parameters of
+      * the base preset
+      */
+    @Parameter(label = "Shells", choices = { PRESETS, SWEEP })
+    private String source = PRESETS;
+
+    @Parameter(label = "Base Preset", choices = { TORUS, BOAT_EAR_MOON, WENTLETRAP, TURRITELLA, ANCILLA, ARGONAUTA })
+    private String preset = BOAT_EAR_MOON;
+
+    @Parameter(label = "Turns", min = "1")
+    private double turns = 4;
+
+    @Parameter(label = "Segments per Turn", min = "4")
+    private int segmentsPerTurn = 64;
+
+    @Parameter(label = "Curve Segments", min = "4")
+    private int cseg = 64;
+
+    @Parameter(label = "X Parameter", choices = { "alpha", "beta", "phi", "mu", "omega", "A", "a", "b", "L", "P", "W1", "W2", "N", "turns" })
+    private String xName = "alpha";
+
+    @Parameter(label = "X Min (degrees for angles)")
+    private double xMin = 80;
+
+    @Parameter(label = "X Max (degrees for angles)")
+    private double xMax = 88;
+
+    @Parameter(label = "X Steps", min = "1")
+    private int xSteps = 5;
+
+    @Parameter(label = "Y Parameter", choices = { "alpha", "beta", "phi", "mu", "omega", "A", "a", "b", "L", "P", "W1", "W2", "N", "turns" })
+    private String yName = "beta";
+
+    @Parameter(label = "Y Min (degrees for angles)")
+    private double yMin = 0;
+
+    @Parameter(label = "Y Max (degrees for angles)")
+    private double yMax = 40;
+
+    @Parameter(label = "Y Steps", min = "1")
+    private int ySteps = 1;
+
+    /**
+      * Shells per row of the grid, 0 for a square grid, or the X steps of a
+      * sweep
+      */
+    @Parameter(label = "Columns", min = "0")
+    private int columns = 0;
+
+    /**
+      * Shells generated at once, 0 uses every core
+      */
+    @Parameter(label = "Generation Threads", min = "0")
+    private int threads = 0;
+
+    /**
+      * Draw the shells of each resolution as one node. Without merging,
+      * every shell is its own node, which can be selected and analyzed, but
+      * still shares the index buffer and material of its resolution.
+      */
+    @Parameter(label = "Merge Same Resolution")
+    private boolean merge = true;
+
+    @Parameter(label = "Use Shell Cache")
+    private boolean useCache = true;
+
+    @Override
+    public void run() {
+      List<ShellParameters> shells = new ArrayList<>();
+      List<String> names = new ArrayList<>();
+      int cols = columns;
+      if(source.equals(SWEEP)) {
+        ShellParameters base = ShellPresets.get(preset, turns, segmentsPerTurn, cseg);
+        ParameterSweep sweep = new ParameterSweep(base, Arrays.asList(axis(xName, xMin, xMax, xSteps),
+                                                                      axis(yName, yMin, yMax, ySteps)));
+        shells.addAll(sweep.points());
+        for(int i = 0; i < shells.size(); i++) {
+          names.add(label(xName, shells.get(i)) + ", " + label(yName, shells.get(i)));
+        }
+        if(cols == 0) {
+          cols = xSteps;
+        }
+      } else {
+        for(String name : ShellPresets.names()) {
+          shells.add(ShellPresets.get(name, turns, segmentsPerTurn, cseg));
+          names.add(name);
+        }
+      }
+      if(cols == 0) {
+        cols = (int)Math.ceil(Math.sqrt(shells.size()));
+      }
+
+      List<BufferMesh> meshes;
+      try {
+        meshes = generate(shells);
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        log.info("Gallery generation interrupted");
+        return;
+      } catch(ExecutionException e) {
+        log.error("Gallery generation failed", e.getCause());
+        return;
+      }
+
+      // NB: One index buffer and material per resolution, shells of the
+      // same resolution are grouped together.
+      Map<String, List<Integer>> groups = new LinkedHashMap<>();
+      for(int i = 0; i < shells.size(); i++) {
+        ShellParameters p = shells.get(i);
+        groups.computeIfAbsent(p.hseg() + "x" + p.cseg, k -> new ArrayList<>()).add(i);
+      }
+
+      float spacing = 1.2f * ShellDemo.SIZE;
+      Node gallery = new Node("Shell Gallery");
+      for(Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+        Material mat = ShellDemo.shellMaterial();
+        List<BufferMesh> groupMeshes = new ArrayList<>();
+        List<float[]> positions = new ArrayList<>();
+        for(int i : group.getValue()) {
+          float[] position = { spacing * (i % cols), -spacing * (i / cols), 0.0f };
+          if(merge) {
+            groupMeshes.add(meshes.get(i));
+            positions.add(position);
+          } else {
+            graphics.scenery.Mesh node = SceneryMeshes.strips(meshes.get(i), shells.get(i));
+            node.setName(names.get(i));
+            node.fitInto( ShellDemo.SIZE, true );
+            node.setPosition(new GLVector(position[0], position[1], position[2]));
+            node.setMaterial( mat );
+            gallery.addChild(node);
+            ShellRegistry.register(node, meshes.get(i), shells.get(i));
+          }
+        }
+        if(merge) {
+          graphics.scenery.Mesh node = SceneryMeshes.merged(groupMeshes, positions, ShellDemo.SIZE,
+                                                            shells.get(group.getValue().get(0)));
+          node.setName("Shells " + group.getKey());
+          node.setMaterial( mat );
+          gallery.addChild(node);
+        }
+      }
+      sciView.addNode(gallery);
+      log.info(String.format("Gallery of %d shells in %d %s", shells.size(), groups.size(),
+                             groups.size() == 1 ? "resolution" : "resolutions"));
+    }
+
+    /**
+      * Generate every shell on a pool of workers, one shell per worker at a
+      * time
+      */
+    private List<BufferMesh> generate(List<ShellParameters> shells) throws InterruptedException, ExecutionException {
+      int workers = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+      ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(workers, shells.size())));
+      try {
+        List<Future<BufferMesh>> futures = new ArrayList<>();
+        for(ShellParameters p : shells) {
+          futures.add(pool.submit(() -> {
+            ShellBuilder builder = new ShellBuilder(1);
+            return useCache ? ShellMeshCache.shared().get(p, builder::build) : builder.build(p);
+          }));
+        }
+        List<BufferMesh> meshes = new ArrayList<>();
+        for(Future<BufferMesh> future : futures) {
+          meshes.add(future.get());
+        }
+        return meshes;
+      } finally {
+        pool.shutdownNow();
+      }
+    }
+
+    private static String label(String name, ShellParameters p) {
+      double value = p.get(name);
+      return String.format("%s = %.4g", name, ShellParameters.isAngle(name) ? Math.toDegrees(value) : value);
+    }
+
+    private static SweepAxis axis(String name, double min, double max, int steps) {
+      if(ShellParameters.isAngle(name)) {
+        min = Math.toRadians(min);
+        max = Math.toRadians(max);
+      }
+      return new SweepAxis(name, min, max, steps);
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.commands.snailj;
+
+import sc.iview.snailj.fractal.FractalFit;
+import sc.iview.snailj.shell.ShellParameters;
+
+import net.imagej.mesh.nio.BufferMesh;
+
+import graphics.scenery.Node;
+
+import java.lang.ref.WeakReference;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Remembers the mesh and parameters each generated shell node was built
+ * from, so analyses can read the original buffers instead of converting the
+ * node back, and caches their results per version of the node.
+ *
+ * Nodes are held weakly, so entries go away with their nodes. An entry is
+ * dropped when its node's geometry is replaced, or when the node is marked
+ * dirty again after it was uploaded, since its buffers may then no longer
+ * match the mesh.
+ *
+ * @author Conrad Mearns
+ */
+public final class ShellRegistry {
+
+    private static final Map<Node, Entry> entries = new WeakHashMap<>();
+
+    private ShellRegistry() {
+        // NB: Prevent instantiation of utility class.
+    }
+
+    /**
+      * The source of one generated node, together with the analyses of its
+      * current version
+      */
+    public static final class Entry {
+        // NB: Held weakly, since the entry is the value of its own node.
+        private final WeakReference<Node> node;
+        private final FloatBuffer vertices;
+        private BufferMesh mesh;
+        private ShellParameters parameters;
+        private long version;
+        private boolean uploaded;
+        private final Map<String, FractalFit> analyses = new HashMap<>();
+
+        private Entry(Node node, BufferMesh mesh, ShellParameters parameters) {
+            this.node = new WeakReference<>(node);
+            this.vertices = vertices(node);
+            this.mesh = mesh;
+            this.parameters = parameters.copy();
+        }
+
+        public synchronized BufferMesh getMesh() {
+            return mesh;
+        }
+
+        public synchronized ShellParameters getParameters() {
+            return parameters.copy();
+        }
+
+        /**
+          * Incremented every time the node's geometry changes
+          */
+        public synchronized long getVersion() {
+            return version;
+        }
+
+        /**
+          * A cached analysis of the current version, or null
+          */
+        public synchronized FractalFit getAnalysis(String key) {
+            return analyses.get(key);
+        }
+
+        /**
+          * Every cached analysis of the current version, by key
+          */
+        public synchronized Map<String, FractalFit> getAnalyses() {
+            return new HashMap<>(analyses);
+        }
+
+        /**
+          * Cache an analysis, unless the node changed since the given version
+          */
+        public synchronized void putAnalysis(long version, String key, FractalFit fit) {
+            if(version == this.version) {
+                analyses.put(key, fit);
+            }
+        }
+
+        private synchronized void update(BufferMesh mesh, ShellParameters parameters) {
+            this.mesh = mesh;
+            this.parameters = parameters.copy();
+            version++;
+            uploaded = false;
+            analyses.clear();
+        }
+
+        /**
+          * Whether the node still shows the registered geometry
+          */
+        private synchronized boolean isCurrent() {
+            Node node = this.node.get();
+            if(node == null || vertices(node) != vertices) {
+                return false;
+            }
+            if(!node.getDirty()) {
+                uploaded = true;
+                return true;
+            }
+            return !uploaded;
+        }
+    }
+
+    /**
+      * Associate a new node with the mesh and parameters it shows
+      */
+    public static synchronized void register(Node node, BufferMesh mesh, ShellParameters p) {
+        entries.put(node, new Entry(node, mesh, p));
+    }
+
+    /**
+      * Record an in-place update of a registered node's geometry, which
+      * clears its cached analyses
+      */
+    public static synchronized void update(Node node, BufferMesh mesh, ShellParameters p) {
+        Entry entry = entries.get(node);
+        if(entry == null || vertices(node) != entry.vertices) {
+            register(node, mesh, p);
+        } else {
+            entry.update(mesh, p);
+        }
+    }
+
+    /**
+      * The source of a node, or null when it was not generated by SnailJ or
+      * was changed since
+      */
+    public static synchronized Entry get(Node node) {
+        if(node == null) {
+            return null;
+        }
+        Entry entry = entries.get(node);
+        if(entry != null && !entry.isCurrent()) {
+            entries.remove(node);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+      * Every registered node that still shows its registered geometry
+      */
+    public static synchronized Map<Node, Entry> entries() {
+        Map<Node, Entry> current = new LinkedHashMap<>();
+        for(Node node : new ArrayList<>(entries.keySet())) {
+            Entry entry = get(node);
+            if(entry != null) {
+                current.put(node, entry);
+            }
+        }
+        return current;
+    }
+
+    public static synchronized void remove(Node node) {
+        entries.remove(node);
+    }
+
+    /**
+      * Number of entries, including those of nodes not yet collected
+      */
+    static synchronized int size() {
+        return entries.size();
+    }
+
+    private static FloatBuffer vertices(Node node) {
+        return node instanceof graphics.scenery.Mesh ? ((graphics.scenery.Mesh)node).getVertices() : null;
+    }
+}
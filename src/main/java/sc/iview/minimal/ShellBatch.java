@@ -0,0 +1,328 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package sc.iview.minimal;
+
+import sc.iview.snailj.io.ShellArchive;
+import sc.iview.snailj.io.ShellExport;
+import sc.iview.snailj.metrics.Metrics;
+import sc.iview.snailj.shell.ShellBuilder;
+import sc.iview.snailj.shell.ShellParameters;
+import sc.iview.snailj.shell.ShellPresets;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates shells in batch without SciView, scenery or a display.
+ *
+ * Reads parameter sets from a CSV file (with a header row) or a JSON lines
+ * file (one flat object per line). Keys are the {@link ShellParameters}
+ * field names, plus {@code preset} to start from a built-in preset,
+ * {@code name} for the output file and {@code inRadians} for angles given
+ * in radians rather than degrees. Each shell is streamed straight to a
+ * binary STL, PLY or raw mesh file, or all shells are added to one
+ * {@link ShellArchive} with {@code --archive}. The timing and throughput
+ * of each shell are printed, followed by per-stage timings when run with
+ * {@code -Dsnailj.metrics=true} (see {@link Metrics}). A row that cannot
+ * be generated is reported and skipped, and the exit status is then 2.
+ *
+ * <pre>
+ * java sc.iview.minimal.ShellBatch [--format stl|ply|raw] [--out dir] params.csv
+ * java sc.iview.minimal.ShellBatch --archive shells.snla [--quantize] params.csv
+ * </pre>
+ *
+ * @author Conrad Mearns
+ */
+public final class ShellBatch {
+
+	private ShellBatch() {
+		// prevent instantiation of utility class
+	}
+
+	public static void main(final String... args) throws IOException {
+		String format = ShellExport.STL;
+		Path out = Paths.get(".");
+		Path input = null;
+		Path archive = null;
+		boolean quantize = false;
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--format":
+					format = args[++i];
+					break;
+				case "--out":
+					out = Paths.get(args[++i]);
+					break;
+				case "--archive":
+					archive = Paths.get(args[++i]);
+					break;
+				case "--quantize":
+					quantize = true;
+					break;
+				default:
+					input = Paths.get(args[i]);
+			}
+		}
+		if (input == null) {
+			System.err.println("Usage: ShellBatch [--format stl|ply|raw] [--out dir] params.csv|params.jsonl");
+			System.err.println("       ShellBatch --archive file.snla [--quantize] params.csv|params.jsonl");
+			System.exit(1);
+		}
+
+		List<Map<String, String>> rows = read(input);
+		ShellBuilder builder = null;
+		if (archive != null) {
+			builder = new ShellBuilder(0);
+		} else {
+			Files.createDirectories(out);
+		}
+
+		long totalNanos = 0, totalVertices = 0, totalBytes = 0;
+		int failed = 0;
+		// NB: The archive's header and index are only written on close.
+		try (ShellArchive.Writer writer = archive == null ? null : new ShellArchive.Writer(archive,
+			quantize ? ShellArchive.Encoding.QUANTIZED : ShellArchive.Encoding.RAW)) {
+			for (int i = 0; i < rows.size(); i++) {
+				Map<String, String> row = rows.get(i);
+				String name = row.containsKey("name") ? row.get("name") : String.format("shell-%05d", i);
+
+				ShellParameters p;
+				long bytes;
+				long start = System.nanoTime();
+				try {
+					p = parse(row);
+					bytes = writer != null ? writer.add(name, p, builder.build(p), null) :
+						ShellExport.write(p, out.resolve(name + "." + format), format);
+				} catch (IOException | RuntimeException e) {
+					System.err.println(String.format("%s (row %d): skipped, %s", name, i + 1, e.getMessage()));
+					failed++;
+					continue;
+				}
+				long nanos = System.nanoTime() - start;
+
+				long vertices = p.vertices();
+				System.out.println(String.format("%s: %d vertices, %d triangles, %.1f ms, %.2f Mvertices/s, %.1f MB/s",
+					name, vertices, p.triangles(), nanos / 1e6,
+					vertices / (nanos / 1e3), bytes / (nanos / 1e3)));
+
+				totalNanos += nanos;
+				totalVertices += vertices;
+				totalBytes += bytes;
+			}
+		}
+		System.out.println(String.format("%d shells, %d failed, %d vertices, %.1f s, %.2f Mvertices/s, %.1f MB/s",
+			rows.size() - failed, failed, totalVertices, totalNanos / 1e9,
+			totalVertices / (totalNanos / 1e3), totalBytes / (totalNanos / 1e3)));
+		if (Metrics.ENABLED) {
+			System.out.print(Metrics.summary());
+		}
+		if (failed > 0) {
+			System.exit(2);
+		}
+	}
+
+	/**
+	 * Build shell parameters from one row of the input. A preset is applied
+	 * first, then every other key overrides it.
+	 *
+	 * @throws IllegalArgumentException if a value is malformed, or the shell
+	 *   has fewer than two spiral rows, e.g. a preset without {@code turns}
+	 */
+	public static ShellParameters parse(final Map<String, String> row) {
+		ShellParameters p = new ShellParameters();
+		boolean inRadians = Boolean.parseBoolean(row.get("inRadians"));
+		if (row.containsKey("preset")) {
+			p = ShellPresets.get(row.get("preset"), 0, p.segmentsPerTurn, p.cseg);
+		}
+		for (Map.Entry<String, String> e : row.entrySet()) {
+			String key = e.getKey();
+			if (key.equals("preset") || key.equals("name") || key.equals("inRadians") || e.getValue().isEmpty()) {
+				continue;
+			}
+			if (!inRadians && ShellParameters.isAngle(key)) {
+				p.set(key, Math.toRadians(Double.parseDouble(e.getValue())));
+			} else {
+				p.set(key, e.getValue());
+			}
+		}
+		if (p.hseg() < 2) {
+			throw new IllegalArgumentException("Need at least 2 spiral rows, got " + p.hseg() +
+				" from turns = " + p.turns + " and segmentsPerTurn = " + p.segmentsPerTurn);
+		}
+		return p;
+	}
+
+	/**
+	 * Read parameter sets, as JSON lines if the file ends in .json or .jsonl
+	 * and as CSV otherwise
+	 */
+	public static List<Map<String, String>> read(final Path input) throws IOException {
+		List<Map<String, String>> rows = new ArrayList<>();
+		boolean json = input.toString().endsWith(".json") || input.toString().endsWith(".jsonl");
+
+		try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+			String[] header = null;
+			String line;
+			int number = 0;
+			while ((line = reader.readLine()) != null) {
+				number++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				if (json) {
+					try {
+						rows.add(parseJson(line));
+					} catch (IllegalArgumentException e) {
+						throw new IllegalArgumentException(input.getFileName() + ":" + number + ": " + e.getMessage(), e);
+					}
+				} else if (header == null) {
+					header = line.split(",");
+				} else {
+					String[] values = line.split(",", -1);
+					Map<String, String> row = new LinkedHashMap<>();
+					for (int i = 0; i < header.length && i < values.length; i++) {
+						row.put(header[i].trim(), values[i].trim());
+					}
+					rows.add(row);
+				}
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Parse a flat JSON object of string, number and boolean values
+	 */
+	static Map<String, String> parseJson(final String line) {
+		Map<String, String> row = new LinkedHashMap<>();
+		int[] pos = { skip(line, 0) };
+		expect(line, pos, '{');
+		if (at(line, skip(line, pos[0])) == '}') {
+			return row;
+		}
+		while (true) {
+			String key = string(line, pos);
+			expect(line, pos, ':');
+			pos[0] = skip(line, pos[0]);
+			String value;
+			if (at(line, pos[0]) == '"') {
+				value = string(line, pos);
+			} else {
+				int start = pos[0];
+				while (pos[0] < line.length() && ",} \t".indexOf(line.charAt(pos[0])) < 0) {
+					pos[0]++;
+				}
+				value = line.substring(start, pos[0]);
+			}
+			row.put(key, value);
+			pos[0] = skip(line, pos[0]);
+			char c = at(line, pos[0]++);
+			if (c == '}') {
+				return row;
+			}
+			if (c != ',') {
+				throw new IllegalArgumentException("Malformed JSON at " + pos[0] + ": " + line);
+			}
+		}
+	}
+
+	private static String string(final String line, final int[] pos) {
+		expect(line, pos, '"');
+		StringBuilder sb = new StringBuilder();
+		char c;
+		while ((c = at(line, pos[0]++)) != '"') {
+			if (c == '\\') {
+				c = at(line, pos[0]++);
+				switch (c) {
+				case 'b': c = '\b'; break;
+				case 'f': c = '\f'; break;
+				case 'n': c = '\n'; break;
+				case 'r': c = '\r'; break;
+				case 't': c = '\t'; break;
+				case 'u':
+					if (pos[0] + 4 > line.length()) {
+						throw new IllegalArgumentException("Truncated \\u escape at " + pos[0] + ": " + line);
+					}
+					try {
+						c = (char) Integer.parseInt(line.substring(pos[0], pos[0] + 4), 16);
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException("Malformed \\u escape at " + pos[0] + ": " + line);
+					}
+					pos[0] += 4;
+					break;
+				case '"':
+				case '\\':
+				case '/':
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown escape '\\" + c + "' at " + pos[0] + ": " + line);
+				}
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * The character at pos, failing with the column rather than an index
+	 * exception when the line ends early
+	 */
+	private static char at(final String line, final int pos) {
+		if (pos >= line.length()) {
+			throw new IllegalArgumentException("Unexpected end of line at " + pos + ": " + line);
+		}
+		return line.charAt(pos);
+	}
+
+	private static void expect(final String line, final int[] pos, final char c) {
+		pos[0] = skip(line, pos[0]);
+		if (pos[0] >= line.length() || line.charAt(pos[0]) != c) {
+			throw new IllegalArgumentException("Expected '" + c + "' at " + pos[0] + ": " + line);
+		}
+		pos[0]++;
+	}
+
+	private static int skip(final String line, int pos) {
+		while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) {
+			pos++;
+		}
+		return pos;
+	}
+}
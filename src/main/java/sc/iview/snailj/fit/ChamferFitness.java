@@ -0,0 +1,154 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.fit;
+
+import sc.iview.snailj.shell.ShellParameters;
+
+import net.imagej.mesh.Mesh;
+import net.imagej.mesh.Vertices;
+
+/**
+ * Symmetric Chamfer distance between a sample of the candidate's vertices
+ * and a sample of the target's points: the mean distance from each point
+ * to the nearest point of the other cloud, averaged over both directions.
+ *
+ * Both clouds are centered on their centroid and scaled to unit RMS radius
+ * first, so the fit is free of position and size. Orientation is not
+ * normalized, so the target should be roughly aligned with the shell axis.
+ *
+ * @author Conrad Mearns
+ */
+public class ChamferFitness implements ShellFitness {
+
+    private final float[] target;
+    private final int targetCount;
+    private final PointGrid grid = new PointGrid();
+    private final int samples;
+
+    /**
+      * @param xyz Target points
+      * @param count Number of target points
+      * @param samples Points sampled from the target and from each candidate
+      */
+    public ChamferFitness(float[] xyz, int count, int samples) {
+        this.samples = samples;
+        target = new float[3 * Math.min(count, samples)];
+        targetCount = sample(xyz, count, target, samples);
+        if(!normalize(target, targetCount)) {
+            throw new IllegalArgumentException("Degenerate fitting target");
+        }
+        grid.build(target, targetCount);
+    }
+
+    /**
+      * Vertices of an ImageJ mesh, e.g. a measured specimen
+      */
+    public static float[] points(Mesh mesh) {
+        Vertices v = mesh.vertices();
+        float[] xyz = new float[(int) (3 * v.size())];
+        for(int i = 0; i < v.size(); i++) {
+            xyz[3 * i] = v.xf(i);
+            xyz[3 * i + 1] = v.yf(i);
+            xyz[3 * i + 2] = v.zf(i);
+        }
+        return xyz;
+    }
+
+    @Override
+    public double score(ShellParameters p, FitWorkspace workspace) {
+        float[] points = workspace.points(p);
+        int count = p.vertexCount();
+        float[] sample = workspace.sample(3 * Math.min(count, samples));
+        int n = sample(points, count, sample, samples);
+        if(n == 0 || !normalize(sample, n)) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        double toTarget = 0;
+        for(int i = 0; i < n; i++) {
+            toTarget += Math.sqrt(grid.nearest2(sample[3 * i], sample[3 * i + 1], sample[3 * i + 2]));
+        }
+
+        workspace.grid.build(sample, n);
+        double fromTarget = 0;
+        for(int i = 0; i < targetCount; i++) {
+            fromTarget += Math.sqrt(workspace.grid.nearest2(target[3 * i], target[3 * i + 1], target[3 * i + 2]));
+        }
+
+        return (toTarget / n + fromTarget / targetCount) / 2;
+    }
+
+    /**
+      * Copy up to max evenly strided points
+      * @return Number of points copied
+      */
+    private static int sample(float[] xyz, int count, float[] out, int max) {
+        int n = Math.min(count, max);
+        for(int i = 0; i < n; i++) {
+            int src = (int) ((long) i * count / n);
+            out[3 * i] = xyz[3 * src];
+            out[3 * i + 1] = xyz[3 * src + 1];
+            out[3 * i + 2] = xyz[3 * src + 2];
+        }
+        return n;
+    }
+
+    /**
+      * Center on the centroid and scale to unit RMS radius, in place
+      * @return false for empty, collapsed or non-finite clouds
+      */
+    private static boolean normalize(float[] xyz, int n) {
+        double cx = 0, cy = 0, cz = 0;
+        for(int i = 0; i < n; i++) {
+            cx += xyz[3 * i];
+            cy += xyz[3 * i + 1];
+            cz += xyz[3 * i + 2];
+        }
+        cx /= n;
+        cy /= n;
+        cz /= n;
+
+        double r2 = 0;
+        for(int i = 0; i < n; i++) {
+            double dx = xyz[3 * i] - cx, dy = xyz[3 * i + 1] - cy, dz = xyz[3 * i + 2] - cz;
+            r2 += dx * dx + dy * dy + dz * dz;
+        }
+        double scale = Math.sqrt(r2 / n);
+        if(!(scale > 0) || Double.isInfinite(scale)) {
+            return false;
+        }
+
+        for(int i = 0; i < n; i++) {
+            xyz[3 * i] = (float) ((xyz[3 * i] - cx) / scale);
+            xyz[3 * i + 1] = (float) ((xyz[3 * i + 1] - cy) / scale);
+            xyz[3 * i + 2] = (float) ((xyz[3 * i + 2] - cz) / scale);
+        }
+        return true;
+    }
+}
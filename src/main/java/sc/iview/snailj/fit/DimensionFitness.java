@@ -0,0 +1,81 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.fit;
+
+import sc.iview.snailj.fractal.FractalFit;
+import sc.iview.snailj.fractal.MeshBoxCounter;
+import sc.iview.snailj.fractal.SparseVoxels;
+import sc.iview.snailj.shell.ShellParameters;
+
+/**
+ * Distance between the candidate's box-counting dimension and a target
+ * dimension. The candidate is counted on a coarse sparse grid, on the
+ * worker's own thread, at power of two box sizes.
+ *
+ * @author Conrad Mearns
+ */
+public class DimensionFitness implements ShellFitness {
+
+    /**
+      * Grid levels of the fitness, 64 voxels on a side
+      */
+    public static final int DEFAULT_BITS = 6;
+
+    private final double target;
+    private final int bits;
+    private final MeshBoxCounter counter = new MeshBoxCounter(1);
+
+    public DimensionFitness(double target, int bits) {
+        this.target = target;
+        this.bits = bits;
+    }
+
+    @Override
+    public double score(ShellParameters p, FitWorkspace workspace) {
+        SparseVoxels voxels = counter.voxelize(workspace.mesh(p), bits);
+        long[] counts = voxels.boxCounts();
+
+        int n = 0;
+        while(n < counts.length && counts[n] > 1) {
+            n++;
+        }
+        if(n < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for(int k = 0; k < n; k++) {
+            x[k] = -Math.log(voxels.getVoxelSize() * (1L << k));
+            y[k] = Math.log(counts[k]);
+        }
+        double d = new FractalFit(x, y).getSlope();
+        return Double.isNaN(d) ? Double.POSITIVE_INFINITY : Math.abs(d - target);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.fit;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * State of a fitting run after a generation, written atomically so that a
+ * long run can be resumed from its last checkpoint. Random numbers are
+ * drawn from a per-generation seed, so a resumed run continues exactly as
+ * the interrupted one would have.
+ *
+ * @author Conrad Mearns
+ */
+public class FitCheckpoint {
+
+    private static final int MAGIC = 0x534e4c46; // "SNLF"
+    private static final int VERSION = 2;
+
+    /**
+      * Generations completed
+      */
+    public int generation;
+
+    /**
+      * Genomes of the population, and their coarse scores
+      */
+    public double[][] population;
+    public double[] scores;
+
+    /**
+      * Best genome so far, by its refined score, or null while no elite has
+      * had a finite score
+      */
+    public double[] best;
+    public double bestScore = Double.POSITIVE_INFINITY;
+
+    public void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try(DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp.toPath()))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(generation);
+            out.writeInt(population.length);
+            out.writeInt(population.length > 0 ? population[0].length : 0);
+            for(int i = 0; i < population.length; i++) {
+                out.writeDouble(scores[i]);
+                for(double g : population[i]) {
+                    out.writeDouble(g);
+                }
+            }
+            out.writeDouble(bestScore);
+            out.writeBoolean(best != null);
+            if(best != null) {
+                for(double g : best) {
+                    out.writeDouble(g);
+                }
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static FitCheckpoint read(File file) throws IOException {
+        try(DataInputStream in = new DataInputStream(Files.newInputStream(file.toPath()))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a shell fitting checkpoint: " + file);
+            }
+            FitCheckpoint c = new FitCheckpoint();
+            c.generation = in.readInt();
+            int size = in.readInt();
+            int genes = in.readInt();
+            c.population = new double[size][genes];
+            c.scores = new double[size];
+            for(int i = 0; i < size; i++) {
+                c.scores[i] = in.readDouble();
+                for(int g = 0; g < genes; g++) {
+                    c.population[i][g] = in.readDouble();
+                }
+            }
+            c.bestScore = in.readDouble();
+            if(in.readBoolean()) {
+                c.best = new double[genes];
+                for(int g = 0; g < genes; g++) {
+                    c.best[g] = in.readDouble();
+                }
+            }
+            return c;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.fit;
+
+import sc.iview.snailj.shell.ShellParameters;
+
+/**
+ * The parameters searched when fitting a shell and their ranges. Genomes
+ * are arrays of genes in [0, 1], one per parameter, mapped linearly onto
+ * the ranges. Angles are in radians, and N is rounded to whole nodules.
+ *
+ * @author Conrad Mearns
+ */
+public class FitSpace {
+
+    private final String[] names;
+    private final double[] lo, hi;
+
+    public FitSpace(String[] names, double[] lo, double[] hi) {
+        if(names.length != lo.length || names.length != hi.length) {
+            throw new IllegalArgumentException("Mismatched fit space: " + names.length + " names, " +
+                                               lo.length + " minima, " + hi.length + " maxima");
+        }
+        this.names = names.clone();
+        this.lo = lo.clone();
+        this.hi = hi.clone();
+    }
+
+    /**
+      * Every Picado parameter but the coiling direction D, plus turns, over
+      * ranges that hold the built-in presets
+      */
+    public static FitSpace standard() {
+        String[] names = {"A", "alpha", "beta", "phi", "mu", "omega", "a", "b", "L", "P", "W1", "W2", "N", "turns"};
+        double[] lo = {1, Math.toRadians(45), Math.toRadians(-90), Math.toRadians(-90), Math.toRadians(-30),
+                       Math.toRadians(-30), 1, 1, 0, Math.toRadians(-180), Math.toRadians(1), Math.toRadians(1), 0, 1};
+        double[] hi = {100, Math.toRadians(90), Math.toRadians(90), Math.toRadians(90), Math.toRadians(30),
+                       Math.toRadians(30), 30, 30, 10, Math.toRadians(180), Math.toRadians(60), Math.toRadians(60), 30, 10};
+        return new FitSpace(names, lo, hi);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(int i) {
+        return names[i];
+    }
+
+    /**
+      * A copy of the base parameters with the searched ones set from genes
+      */
+    public ShellParameters decode(double[] genes, ShellParameters base) {
+        ShellParameters p = base.copy();
+        for(int i = 0; i < names.length; i++) {
+            double v = lo[i] + genes[i] * (hi[i] - lo[i]);
+            p.set(names[i], "N".equals(names[i]) ? Math.rint(v) : v);
+        }
+        return p;
+    }
+
+    /**
+      * Genes of the given parameters, clamped to the ranges
+      */
+    public double[] encode(ShellParameters p) {
+        double[] genes = new double[names.length];
+        for(int i = 0; i < names.length; i++) {
+            double g = (p.get(names[i]) - lo[i]) / (hi[i] - lo[i]);
+            genes[i] = Math.max(0, Math.min(1, g));
+        }
+        return genes;
+    }
+}
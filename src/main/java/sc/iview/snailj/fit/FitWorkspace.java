@@ -0,0 +1,166 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.fit;
+
+import sc.iview.snailj.shell.ShellKernel;
+import sc.iview.snailj.shell.ShellParameters;
+import sc.iview.snailj.shell.ShellTables;
+
+import net.imagej.mesh.nio.BufferMesh;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Scratch space of one fitting worker, kept between candidates and
+ * generations. The vertex and index buffers grow to the largest candidate,
+ * and the shell's lookup tables are kept per resolution and updated in
+ * place, so once warmed up a candidate only allocates its small parameter
+ * objects.
+ *
+ * @author Conrad Mearns
+ */
+public class FitWorkspace {
+
+    private float[] points = new float[0];
+    private FloatBuffer verts = floats(0), normals = floats(0), texcoords = floats(0);
+    private IntBuffer indices = ints(0);
+    private FloatBuffer triangleNormals = floats(0);
+    private ShellParameters topology;
+
+    /**
+      * Lookup tables of the two resolutions used last, the coarse and the
+      * refined one during a fit, most recent first
+      */
+    private final ShellTables[] tables = new ShellTables[2];
+
+    /**
+      * Nearest neighbour grid of the candidate's points
+      */
+    final PointGrid grid = new PointGrid();
+
+    /**
+      * Sampled and normalized candidate points
+      */
+    float[] sample = new float[0];
+
+    /**
+      * xyz of every vertex of a shell, in an array that may be longer
+      */
+    public float[] points(ShellParameters p) {
+        int n = 3 * p.vertexCount();
+        if(points.length < n) {
+            points = new float[n];
+        }
+        ShellKernel.evaluateRows(tables(p), points, 0, p.hseg());
+        return points;
+    }
+
+    /**
+      * A mesh of the shell over this workspace's buffers, valid until the
+      * next call. Indices are only rewritten when the topology changes.
+      */
+    public BufferMesh mesh(ShellParameters p) {
+        int n = 3 * p.vertexCount();
+        int t = 3 * p.triangleCount();
+        if(verts.capacity() < n) {
+            verts = floats(n);
+            normals = floats(n);
+            texcoords = floats(2 * n / 3);
+        }
+        if(indices.capacity() < t) {
+            indices = ints(t);
+            triangleNormals = floats(t);
+            topology = null;
+        }
+
+        verts.clear();
+        verts.limit(n);
+        ShellKernel.evaluateRows(tables(p), verts, 0, p.hseg());
+
+        if(topology == null || topology.hseg() != p.hseg() || topology.cseg != p.cseg) {
+            indices.clear();
+            ShellKernel.triangles(p, indices);
+            topology = p;
+        }
+        indices.position(0);
+        indices.limit(t);
+        verts.position(0);
+
+        return new BufferMesh(verts.slice(), limit(normals, n), limit(texcoords, 2 * n / 3),
+                              indices.slice(), limit(triangleNormals, t));
+    }
+
+    /**
+      * Tables of the shell, updating those of the same resolution in place
+      */
+    private ShellTables tables(ShellParameters p) {
+        ShellTables t = tables[0];
+        if(!matches(t, p)) {
+            t = tables[1];
+            tables[1] = tables[0];
+            tables[0] = t;
+        }
+        if(matches(t, p)) {
+            t.update(p);
+        } else {
+            t = new ShellTables(p);
+            tables[0] = t;
+        }
+        return t;
+    }
+
+    private static boolean matches(ShellTables t, ShellParameters p) {
+        return t != null && t.getParameters().hseg() == p.hseg() && t.getParameters().cseg == p.cseg;
+    }
+
+    float[] sample(int n) {
+        if(sample.length < n) {
+            sample = new float[n];
+        }
+        return sample;
+    }
+
+    private static FloatBuffer limit(FloatBuffer buffer, int n) {
+        FloatBuffer b = buffer.duplicate();
+        b.clear();
+        b.limit(n);
+        return b.slice();
+    }
+
+    private static FloatBuffer floats(int n) {
+        return ByteBuffer.allocateDirect(4 * n).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    private static IntBuffer ints(int n) {
+        return ByteBuffer.allocateDirect(4 * n).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.fit;
+
+/**
+ * Uniform grid over a point cloud for nearest neighbour queries, rebuilt in
+ * place so that a worker can reuse it for every candidate.
+ *
+ * @author Conrad Mearns
+ */
+class PointGrid {
+
+    /**
+      * Cells per axis
+      */
+    private static final int G = 32;
+
+    private final int[] start = new int[G * G * G + 1], next = new int[G * G * G];
+    private int[] order = new int[0], cellOf = new int[0];
+
+    private float[] xyz;
+    private int n;
+    private float x0, y0, z0, sx, sy, sz, minCell;
+
+    /**
+      * Index the first n points of the xyz array, which must not change
+      * while the grid is in use
+      */
+    void build(float[] xyz, int n) {
+        this.xyz = xyz;
+        this.n = n;
+        if(order.length < n) {
+            order = new int[n];
+            cellOf = new int[n];
+        }
+
+        float[] lo = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+        float[] hi = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+        for(int i = 0; i < n; i++) {
+            for(int d = 0; d < 3; d++) {
+                lo[d] = Math.min(lo[d], xyz[3 * i + d]);
+                hi[d] = Math.max(hi[d], xyz[3 * i + d]);
+            }
+        }
+        x0 = lo[0];
+        y0 = lo[1];
+        z0 = lo[2];
+        sx = Math.max(hi[0] - lo[0], 1e-6f) / G;
+        sy = Math.max(hi[1] - lo[1], 1e-6f) / G;
+        sz = Math.max(hi[2] - lo[2], 1e-6f) / G;
+        minCell = Math.min(sx, Math.min(sy, sz));
+
+        // Counting sort of the points by cell
+        java.util.Arrays.fill(start, 0);
+        for(int i = 0; i < n; i++) {
+            int c = cell(cx(xyz[3 * i]), cy(xyz[3 * i + 1]), cz(xyz[3 * i + 2]));
+            cellOf[i] = c;
+            start[c + 1]++;
+        }
+        for(int c = 0; c < G * G * G; c++) {
+            start[c + 1] += start[c];
+        }
+        System.arraycopy(start, 0, next, 0, next.length);
+        for(int i = 0; i < n; i++) {
+            order[next[cellOf[i]]++] = i;
+        }
+    }
+
+    /**
+      * Squared distance to the nearest indexed point, searching rings of
+      * cells outwards until no closer point can remain
+      */
+    double nearest2(float x, float y, float z) {
+        if(n == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        int ix = cx(x), iy = cy(y), iz = cz(z);
+
+        // Distance from the query to the grid, for queries outside it
+        double ox = Math.max(0, Math.max(x0 - x, x - (x0 + G * sx)));
+        double oy = Math.max(0, Math.max(y0 - y, y - (y0 + G * sy)));
+        double oz = Math.max(0, Math.max(z0 - z, z - (z0 + G * sz)));
+        double outside = Math.sqrt(ox * ox + oy * oy + oz * oz);
+
+        double best = Double.POSITIVE_INFINITY;
+        for(int r = 0; r < G; r++) {
+            for(int i = Math.max(0, ix - r); i <= Math.min(G - 1, ix + r); i++) {
+                for(int j = Math.max(0, iy - r); j <= Math.min(G - 1, iy + r); j++) {
+                    for(int k = Math.max(0, iz - r); k <= Math.min(G - 1, iz + r); k++) {
+                        if(Math.abs(i - ix) != r && Math.abs(j - iy) != r && Math.abs(k - iz) != r) {
+                            continue;
+                        }
+                        int c = cell(i, j, k);
+                        for(int q = start[c]; q < start[c + 1]; q++) {
+                            int p = 3 * order[q];
+                            double dx = xyz[p] - x, dy = xyz[p + 1] - y, dz = xyz[p + 2] - z;
+                            best = Math.min(best, dx * dx + dy * dy + dz * dz);
+                        }
+                    }
+                }
+            }
+            double reach = outside + r * minCell;
+            if(best <= reach * reach) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    private int cx(float x) {
+        return clamp((int) ((x - x0) / sx));
+    }
+
+    private int cy(float y) {
+        return clamp((int) ((y - y0) / sy));
+    }
+
+    private int cz(float z) {
+        return clamp((int) ((z - z0) / sz));
+    }
+
+    private static int clamp(int c) {
+        return c < 0 ? 0 : c >= G ? G - 1 : c;
+    }
+
+    private static int cell(int i, int j, int k) {
+        return (i * G + j) * G + k;
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.fit;
+
+import sc.iview.snailj.shell.ShellParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Genetic algorithm fitting shell parameters to a target.
+ *
+ * Every generation the whole population is scored in parallel with a cheap,
+ * low resolution version of each shell. Only the elites are then re-scored
+ * at the full resolution of the base parameters, and the best shell is
+ * chosen by that refined score. Each worker thread keeps one
+ * {@link FitWorkspace} for the whole run. Parents are picked by tournament,
+ * recombined by blend crossover and mutated with Gaussian noise.
+ *
+ * <pre>
+ * ShellFitter fitter = new ShellFitter(0);
+ * fitter.checkpoint = new File("fit.ckpt");
+ * ShellParameters best = fitter.fit(FitSpace.standard(), start, new ChamferFitness(xyz, n, 2048), null);
+ * </pre>
+ *
+ * @author Conrad Mearns
+ */
+public class ShellFitter {
+
+    public int populationSize = 64;
+    public int generations = 100;
+    public int elites = 4;
+    public int tournament = 3;
+
+    /**
+      * Probability that a child mixes two parents rather than copying one
+      */
+    public double crossoverRate = 0.9;
+
+    /**
+      * Probability that each gene of a child is mutated, and the standard
+      * deviation of a mutation as a fraction of the gene's range
+      */
+    public double mutationRate = 0.2;
+    public double mutationScale = 0.1;
+
+    /**
+      * segmentsPerTurn and cseg of the cheap fitness, at most those of the
+      * base parameters
+      */
+    public int coarseSegments = 16;
+
+    public long seed;
+
+    /**
+      * Checkpoint file, written every checkpointEvery generations and at the
+      * end, or null
+      */
+    public File checkpoint;
+    public int checkpointEvery = 5;
+
+    /**
+      * Continue from the checkpoint file when it exists
+      */
+    public boolean resume;
+
+    private final int threads;
+
+    /**
+      * Called after every generation
+      */
+    public interface Listener {
+        void generation(int generation, double score, ShellParameters best);
+    }
+
+    /**
+      * @param threads Number of worker threads, or 0 to use every core
+      */
+    public ShellFitter(int threads) {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+      * Fit the parameters of the space, starting from and keeping everything
+      * else of the base parameters, which also seed the first population.
+      * Stops early, with the best shell so far, when the thread is
+      * interrupted.
+      */
+    public ShellParameters fit(FitSpace space, ShellParameters base, ShellFitness fitness, Listener listener)
+            throws IOException {
+        ShellParameters coarse = base.copy();
+        coarse.segmentsPerTurn = Math.min(coarseSegments, base.segmentsPerTurn);
+        coarse.cseg = Math.min(coarseSegments, base.cseg);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ThreadLocal<FitWorkspace> workspaces = ThreadLocal.withInitial(FitWorkspace::new);
+        try {
+            FitCheckpoint state;
+            if(resume && checkpoint != null && checkpoint.exists()) {
+                state = FitCheckpoint.read(checkpoint);
+            } else {
+                state = new FitCheckpoint();
+                Random random = new Random(seed);
+                state.population = new double[populationSize][];
+                state.population[0] = space.encode(base);
+                for(int i = 1; i < populationSize; i++) {
+                    state.population[i] = new double[space.size()];
+                    for(int g = 0; g < space.size(); g++) {
+                        state.population[i][g] = random.nextDouble();
+                    }
+                }
+                state.scores = score(pool, workspaces, space, coarse, fitness, state.population, 0);
+            }
+
+            while(state.generation < generations && !Thread.currentThread().isInterrupted()) {
+                Integer[] ranked = rank(state.scores);
+                int e = Math.min(elites, ranked.length);
+
+                // Refine the elites at full resolution
+                double[][] best = new double[e][];
+                for(int i = 0; i < e; i++) {
+                    best[i] = state.population[ranked[i]];
+                }
+                double[] refined = score(pool, workspaces, space, base, fitness, best, 0);
+                if(Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                for(int i = 0; i < e; i++) {
+                    if(refined[i] < state.bestScore) {
+                        state.bestScore = refined[i];
+                        state.best = best[i].clone();
+                    }
+                }
+
+                // Breed the next generation, keeping the elites
+                Random random = new Random(seed * 0x9E3779B97F4A7C15L + state.generation);
+                double[][] next = new double[state.population.length][];
+                double[] scores = new double[next.length];
+                for(int i = 0; i < e; i++) {
+                    next[i] = state.population[ranked[i]];
+                    scores[i] = state.scores[ranked[i]];
+                }
+                for(int i = e; i < next.length; i++) {
+                    double[] mother = select(state, random);
+                    double[] father = select(state, random);
+                    next[i] = mutate(crossover(mother, father, random), random);
+                }
+                double[] children = score(pool, workspaces, space, coarse, fitness, next, e);
+                if(Thread.currentThread().isInterrupted()) {
+                    // NB: The children were not scored, keep the state of the
+                    // last complete generation.
+                    break;
+                }
+                System.arraycopy(children, e, scores, e, next.length - e);
+
+                state.population = next;
+                state.scores = scores;
+                state.generation++;
+
+                if(listener != null && state.best != null) {
+                    listener.generation(state.generation, state.bestScore, space.decode(state.best, base));
+                }
+                if(checkpoint != null && (state.generation % checkpointEvery == 0 || state.generation == generations)) {
+                    state.write(checkpoint);
+                }
+            }
+
+            return state.best != null ? space.decode(state.best, base) : base.copy();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+      * Score genomes [from, end) in parallel; earlier entries are left at 0.
+      * When interrupted, the interrupt flag is set again and the scores are
+      * meaningless, so callers must check it before using them.
+      */
+    private static double[] score(ExecutorService pool, ThreadLocal<FitWorkspace> workspaces, FitSpace space,
+                                  ShellParameters base, ShellFitness fitness, double[][] genomes, int from) {
+        List<Callable<Double>> tasks = new ArrayList<>();
+        for(int i = from; i < genomes.length; i++) {
+            double[] genes = genomes[i];
+            tasks.add(() -> {
+                try {
+                    double s = fitness.score(space.decode(genes, base), workspaces.get());
+                    return Double.isNaN(s) ? Double.POSITIVE_INFINITY : s;
+                } catch(IllegalArgumentException e) {
+                    // NB: Shells too large to evaluate are simply unfit.
+                    return Double.POSITIVE_INFINITY;
+                }
+            });
+        }
+
+        double[] scores = new double[genomes.length];
+        try {
+            List<Future<Double>> results = pool.invokeAll(tasks);
+            for(int i = 0; i < results.size(); i++) {
+                scores[from + i] = results.get(i).get();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Arrays.fill(scores, from, scores.length, Double.POSITIVE_INFINITY);
+        } catch(ExecutionException e) {
+            throw new IllegalStateException("Shell fitness failed", e.getCause());
+        }
+        return scores;
+    }
+
+    private static Integer[] rank(double[] scores) {
+        Integer[] order = new Integer[scores.length];
+        for(int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> scores[i]));
+        return order;
+    }
+
+    private double[] select(FitCheckpoint state, Random random) {
+        int winner = random.nextInt(state.population.length);
+        for(int i = 1; i < tournament; i++) {
+            int c = random.nextInt(state.population.length);
+            if(state.scores[c] < state.scores[winner]) {
+                winner = c;
+            }
+        }
+        return state.population[winner];
+    }
+
+    /**
+      * Blend crossover, BLX-0.5: each gene uniformly from the parents'
+      * interval widened by half its length on both sides
+      */
+    private double[] crossover(double[] mother, double[] father, Random random) {
+        double[] child = mother.clone();
+        if(random.nextDouble() < crossoverRate) {
+            for(int g = 0; g < child.length; g++) {
+                double lo = Math.min(mother[g], father[g]);
+                double hi = Math.max(mother[g], father[g]);
+                double pad = (hi - lo) / 2;
+                child[g] = clamp(lo - pad + random.nextDouble() * (hi - lo + 2 * pad));
+            }
+        }
+        return child;
+    }
+
+    private double[] mutate(double[] child, Random random) {
+        for(int g = 0; g < child.length; g++) {
+            if(random.nextDouble() < mutationRate) {
+                child[g] = clamp(child[g] + random.nextGaussian() * mutationScale);
+            }
+        }
+        return child;
+    }
+
+    private static double clamp(double g) {
+        return g < 0 ? 0 : g > 1 ? 1 : g;
+    }
+}
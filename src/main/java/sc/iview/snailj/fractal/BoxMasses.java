@@ -0,0 +1,204 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.fractal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Histograms of box masses, the number of occupied voxels in each occupied
+ * box, at every box size of a multi-scale analysis, summed over the grid
+ * offsets. They are measured in one pass over the sparse voxels, and every
+ * measure below is derived from them without touching the voxels again:
+ * box counts and D(0), the information dimension D(1), the correlation
+ * dimension D(2), the whole D(q) curve, and lacunarity.
+ *
+ * Lacunarity is that of the fixed grid, averaged over the grid offsets as a
+ * sample of the gliding box positions, counting the empty boxes of the
+ * bounding cube.
+ *
+ * @author Conrad Mearns
+ */
+public class BoxMasses {
+
+    private final double[] sizes;
+    private final double voxelSize;
+    private final int gridSize, offsets;
+    private final long total;
+
+    // Distinct masses and how many boxes have them, per box size
+    private final long[][] mass, frequency;
+
+    private BoxMasses(double[] sizes, double voxelSize, int gridSize, int offsets, long total,
+                      long[][] mass, long[][] frequency) {
+        this.sizes = sizes;
+        this.voxelSize = voxelSize;
+        this.gridSize = gridSize;
+        this.offsets = offsets;
+        this.total = total;
+        this.mass = mass;
+        this.frequency = frequency;
+    }
+
+    /**
+      * Measure the box masses of every box size and grid offset of the
+      * settings, each size and offset as its own task
+      */
+    public static BoxMasses measure(SparseVoxels voxels, FractalSettings settings) {
+        double[] sizes = settings.boxSizes();
+        double[][] offsets = settings.gridOffsets();
+
+        List<Callable<long[]>> tasks = new ArrayList<>();
+        for(double size : sizes) {
+            for(double[] offset : offsets) {
+                tasks.add(() -> voxels.masses(size, offset));
+            }
+        }
+        List<long[]> results = FractalDimension.invokeAll(tasks, settings.threads);
+
+        long[][] mass = new long[sizes.length][];
+        long[][] frequency = new long[sizes.length][];
+        for(int i = 0; i < sizes.length; i++) {
+            int n = 0;
+            for(int o = 0; o < offsets.length; o++) {
+                n += results.get(i * offsets.length + o).length;
+            }
+            long[] all = new long[n];
+            n = 0;
+            for(int o = 0; o < offsets.length; o++) {
+                long[] masses = results.get(i * offsets.length + o);
+                System.arraycopy(masses, 0, all, n, masses.length);
+                n += masses.length;
+            }
+            Arrays.sort(all);
+
+            mass[i] = SparseVoxels.distinctValues(all);
+            frequency[i] = SparseVoxels.runs(all, 0);
+        }
+
+        return new BoxMasses(sizes, voxels.getVoxelSize(), settings.gridSize(), offsets.length,
+                             voxels.size(), mass, frequency);
+    }
+
+    public int scales() {
+        return sizes.length;
+    }
+
+    /**
+      * Box size in voxels
+      */
+    public double size(int scale) {
+        return sizes[scale];
+    }
+
+    /**
+      * Box size in mesh units
+      */
+    public double length(int scale) {
+        return sizes[scale] * voxelSize;
+    }
+
+    /**
+      * Occupied boxes, averaged over the grid offsets
+      */
+    public double count(int scale) {
+        double n = 0;
+        for(long f : frequency[scale]) {
+            n += f;
+        }
+        return n / offsets;
+    }
+
+    /**
+      * Partition function, the sum of p^q over the occupied boxes, where p
+      * is the fraction of the occupied voxels in a box
+      */
+    public double partition(int scale, double q) {
+        double z = 0;
+        for(int i = 0; i < mass[scale].length; i++) {
+            z += frequency[scale][i] * Math.pow((double) mass[scale][i] / total, q);
+        }
+        return z / offsets;
+    }
+
+    /**
+      * Shannon entropy of the box masses, the sum of -p ln p
+      */
+    public double entropy(int scale) {
+        double h = 0;
+        for(int i = 0; i < mass[scale].length; i++) {
+            double p = (double) mass[scale][i] / total;
+            h -= frequency[scale][i] * p * Math.log(p);
+        }
+        return h / offsets;
+    }
+
+    /**
+      * Lacunarity, E[M^2] / E[M]^2 over every box of the bounding cube
+      */
+    public double lacunarity(int scale) {
+        double boxes = Math.pow(gridSize / sizes[scale], 3);
+        double m2 = 0;
+        for(int i = 0; i < mass[scale].length; i++) {
+            m2 += frequency[scale][i] * (double) mass[scale][i] * mass[scale][i];
+        }
+        return boxes * (m2 / offsets) / ((double) total * total);
+    }
+
+    /**
+      * Generalized dimension D(q), fitted over the box sizes with more than
+      * one occupied box. The data are scaled so that the slope of the fit,
+      * and its confidence interval, are D(q) itself.
+      */
+    public FractalFit dimension(double q, FractalSettings settings) {
+        int n = 0;
+        while(n < sizes.length && count(n) > 1) {
+            n++;
+        }
+
+        double datax[] = new double[n];
+        double datay[] = new double[n];
+        for(int k = 0; k < n; k++) {
+            datax[k] = -Math.log(length(k));
+            datay[k] = q == 1 ? entropy(k) : Math.log(partition(k, q)) / (1 - q);
+        }
+
+        return FractalFit.fit(datax, datay, settings);
+    }
+
+    public FractalFit[] spectrum(double[] qs, FractalSettings settings) {
+        FractalFit[] fits = new FractalFit[qs.length];
+        for(int i = 0; i < qs.length; i++) {
+            fits[i] = dimension(qs[i], settings);
+        }
+        return fits;
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.fractal;
+
+import sc.iview.snailj.metrics.Metrics;
+import sc.iview.snailj.metrics.Stage;
+
+import net.imagej.mesh.Mesh;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Fast approximate fractal dimension of a mesh, from the correlation
+ * integral of random points on its surface. C(r) is the fraction of point
+ * pairs closer than r, which scales as r^D. It is estimated from the
+ * neighbours of a subset of the points within each radius, found in a
+ * uniform grid whose cells are as large as the largest radius, so the
+ * cost depends on the number of samples rather than the mesh size.
+ *
+ * Sampling starts small and doubles each round, until the dimension changes
+ * by less than the tolerance, the next round would exceed the time budget
+ * or the sample limit is reached.
+ *
+ * @author Conrad Mearns
+ */
+public class CorrelationDimension {
+
+    /**
+      * Points sampled in the first round
+      */
+    public int samples = 4096;
+
+    /**
+      * Most points sampled in total
+      */
+    public int maxSamples = 1 << 20;
+
+    /**
+      * Most points whose neighbours are counted, per round
+      */
+    public int centers = 1024;
+
+    /**
+      * Radii, from a sixteenth of the mesh's extent, halving each time
+      */
+    public int scales = 6;
+
+    /**
+      * Time budget, in milliseconds
+      */
+    public long budget = 50;
+
+    /**
+      * Change of the dimension between rounds that counts as stable
+      */
+    public double tolerance = 0.01;
+
+    /**
+      * Bootstrap resamples of the fit, or 0 for no confidence interval
+      */
+    public int bootstrap = 200;
+
+    public double confidence = 0.95;
+
+    public long seed = 0;
+
+    /**
+      * Radii with fewer pairs than this are too small for the sampling
+      * density, their C(r) is too noisy and they are left out of the fit
+      */
+    private static final int MIN_PAIRS = 400;
+
+    /**
+      * Growth of a round's time when the samples double, to decide whether
+      * the next one fits in the budget
+      */
+    private static final double ROUND_GROWTH = 2.5;
+
+    /**
+      * Result of an estimate, with how it was reached
+      */
+    public static class Estimate {
+        private final FractalFit fit;
+        private final int samples, rounds;
+        private final boolean converged;
+        private final long nanos;
+
+        Estimate(FractalFit fit, int samples, int rounds, boolean converged, long nanos) {
+            this.fit = fit;
+            this.samples = samples;
+            this.rounds = rounds;
+            this.converged = converged;
+            this.nanos = nanos;
+        }
+
+        /**
+          * Fit of log(1 / C(r)) against log(1 / r), whose slope is the
+          * dimension
+          */
+        public FractalFit getFit() {
+            return fit;
+        }
+
+        public int getSamples() {
+            return samples;
+        }
+
+        public int getRounds() {
+            return rounds;
+        }
+
+        /**
+          * Whether the last two rounds agreed within the tolerance
+          */
+        public boolean isConverged() {
+            return converged;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s, %d samples, %d rounds, %s, %.1f ms", fit, samples, rounds,
+                                 converged ? "converged" : "not converged", nanos / 1e6);
+        }
+    }
+
+    /**
+      * The settings that affect the result, e.g. to cache estimates
+      */
+    public String key() {
+        return samples + "/" + maxSamples + "/" + centers + "/" + scales + "/" + budget + "/" + tolerance + "/" +
+               bootstrap + "/" + confidence + "/" + seed;
+    }
+
+    public Estimate estimate(Mesh mesh) {
+        long start = System.nanoTime();
+        long deadline = start + budget * 1_000_000L;
+
+        SurfaceSampler sampler;
+        try(Metrics.Span span = Metrics.begin(Stage.SAMPLE).count(mesh.vertices().size(), mesh.triangles().size())) {
+            sampler = new SurfaceSampler(mesh);
+        }
+        double[] radii = null;
+
+        Random random = new Random(seed);
+        float[] xyz = new float[0];
+        int n = 0, rounds = 0;
+        FractalFit fit = null;
+        boolean converged = false;
+        for(int next = Math.min(samples, maxSamples); ; next = Math.min(2 * n, maxSamples)) {
+            long roundStart = System.nanoTime();
+            if(xyz.length < 3 * next) {
+                xyz = Arrays.copyOf(xyz, 3 * next);
+            }
+            try(Metrics.Span span = Metrics.begin(Stage.SAMPLE).count(next - n, 0)) {
+                sampler.sample(random, xyz, n, next);
+            }
+            n = next;
+            rounds++;
+            if(radii == null) {
+                radii = radii(xyz, n);
+            }
+
+            int c = Math.min(centers, n);
+            long[] counts;
+            try(Metrics.Span span = Metrics.begin(Stage.CORRELATE).count(n, 0)) {
+                counts = count(xyz, n, c, radii);
+            }
+            FractalFit previous = fit;
+            try(Metrics.Span span = Metrics.begin(Stage.FIT)) {
+                fit = fit(counts, radii, c, n);
+            }
+            if(previous != null && fit != null &&
+               Math.abs(fit.getSlope() - previous.getSlope()) < tolerance) {
+                converged = true;
+                break;
+            }
+
+            long now = System.nanoTime();
+            if(n >= maxSamples || now + (long) (ROUND_GROWTH * (now - roundStart)) > deadline) {
+                break;
+            }
+        }
+
+        if(fit == null) {
+            fit = new FractalFit(new double[0], new double[0]);
+        } else if(bootstrap > 0) {
+            fit.bootstrap(bootstrap, confidence, seed);
+        }
+        return new Estimate(fit, n, rounds, converged, System.nanoTime() - start);
+    }
+
+    /**
+      * Radii from a sixteenth of the largest side of the samples' bounding
+      * box, which is close enough to the mesh's to pick the scales
+      */
+    private double[] radii(float[] xyz, int n) {
+        float[] lo = new float[3], hi = new float[3];
+        bounds(xyz, n, lo, hi);
+        double extent = Math.max(hi[0] - lo[0], Math.max(hi[1] - lo[1], hi[2] - lo[2]));
+        double[] radii = new double[scales];
+        radii[0] = Math.max(extent, Float.MIN_NORMAL) / 16;
+        for(int k = 1; k < scales; k++) {
+            radii[k] = radii[k - 1] / 2;
+        }
+        return radii;
+    }
+
+    private static void bounds(float[] xyz, int n, float[] lo, float[] hi) {
+        Arrays.fill(lo, Float.POSITIVE_INFINITY);
+        Arrays.fill(hi, Float.NEGATIVE_INFINITY);
+        for(int i = 0; i < n; i++) {
+            for(int d = 0; d < 3; d++) {
+                lo[d] = Math.min(lo[d], xyz[3 * i + d]);
+                hi[d] = Math.max(hi[d], xyz[3 * i + d]);
+            }
+        }
+    }
+
+    /**
+      * Fit over the radii with enough neighbours, or null with fewer than two
+      */
+    private static FractalFit fit(long[] counts, double[] radii, int centers, int n) {
+        int m = 0;
+        while(m < radii.length && counts[m] >= MIN_PAIRS) {
+            m++;
+        }
+        if(m < 2) {
+            return null;
+        }
+        double pairs = (double) centers * (n - 1);
+        double[] x = new double[m], y = new double[m];
+        for(int k = 0; k < m; k++) {
+            x[k] = -Math.log(radii[k]);
+            y[k] = -Math.log(counts[k] / pairs);
+        }
+        return new FractalFit(x, y);
+    }
+
+    /**
+      * Neighbours of the first c points among the first n, within each of
+      * the decreasing radii. The points are binned into cells as large as
+      * the largest radius, so the neighbours of a point are in the 27 cells
+      * around it.
+      */
+    static long[] count(float[] xyz, int n, int c, double[] radii) {
+        double cell = radii[0];
+        float[] min = new float[3], hi = new float[3];
+        bounds(xyz, n, min, hi);
+        int[] dims = new int[3];
+        for(int d = 0; d < 3; d++) {
+            dims[d] = (int) ((hi[d] - min[d]) / cell) + 1;
+        }
+
+        // Counting sort of the points by cell
+        int cells = dims[0] * dims[1] * dims[2];
+        int[] start = new int[cells + 1], cellOf = new int[n], order = new int[n];
+        for(int i = 0; i < n; i++) {
+            int cx = (int) ((xyz[3 * i] - min[0]) / cell);
+            int cy = (int) ((xyz[3 * i + 1] - min[1]) / cell);
+            int cz = (int) ((xyz[3 * i + 2] - min[2]) / cell);
+            cellOf[i] = (cz * dims[1] + cy) * dims[0] + cx;
+            start[cellOf[i] + 1]++;
+        }
+        for(int k = 0; k < cells; k++) {
+            start[k + 1] += start[k];
+        }
+        int[] fill = Arrays.copyOf(start, cells);
+        for(int i = 0; i < n; i++) {
+            order[fill[cellOf[i]]++] = i;
+        }
+        float[] sorted = new float[3 * n];
+        for(int k = 0; k < n; k++) {
+            System.arraycopy(xyz, 3 * order[k], sorted, 3 * k, 3);
+        }
+
+        double[] r2 = new double[radii.length];
+        for(int k = 0; k < radii.length; k++) {
+            r2[k] = radii[k] * radii[k];
+        }
+        long[] counts = new long[radii.length];
+        for(int i = 0; i < c; i++) {
+            float px = xyz[3 * i], py = xyz[3 * i + 1], pz = xyz[3 * i + 2];
+            int home = cellOf[i];
+            int cx = home % dims[0], cy = home / dims[0] % dims[1], cz = home / (dims[0] * dims[1]);
+            for(int z = Math.max(0, cz - 1); z <= Math.min(dims[2] - 1, cz + 1); z++) {
+                for(int y = Math.max(0, cy - 1); y <= Math.min(dims[1] - 1, cy + 1); y++) {
+                    int row = (z * dims[1] + y) * dims[0];
+                    int from = start[row + Math.max(0, cx - 1)], to = start[row + Math.min(dims[0] - 1, cx + 1) + 1];
+                    for(int j = from; j < to; j++) {
+                        float dx = sorted[3 * j] - px, dy = sorted[3 * j + 1] - py, dz = sorted[3 * j + 2] - pz;
+                        double d2 = dx * dx + dy * dy + dz * dz;
+                        for(int k = 0; k < r2.length && d2 < r2[k]; k++) {
+                            counts[k]++;
+                        }
+                    }
+                }
+            }
+            // NB: Every point is its own neighbour at distance 0.
+            for(int k = 0; k < r2.length; k++) {
+                counts[k]--;
+            }
+        }
+        return counts;
+    }
+}
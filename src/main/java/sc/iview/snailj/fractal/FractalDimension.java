@@ -0,0 +1,245 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.fractal;
+
+import sc.iview.snailj.metrics.Metrics;
+import sc.iview.snailj.metrics.Stage;
+
+import net.imagej.mesh.Mesh;
+import net.imagej.ops.OpService;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.util.ValuePair;
+
+import ij.measure.CurveFitter;
+
+/**
+ * Box-counting fractal dimension of a mesh surface, with two engines: the
+ * dense ImageJ Ops pipeline, which voxelizes into a full image and rescans
+ * it at every box size, and a sparse engine, which rasterizes the triangles
+ * straight into box codes and counts every box size in one pass over them.
+ *
+ * @author Conrad Mearns
+ */
+public final class FractalDimension {
+
+    public static final String SPARSE = "Sparse";
+    public static final String DENSE = "Dense (ImageJ Ops)";
+
+    /**
+      * Box counting of the voxelized mesh with one of the engines
+      */
+    public static final String EXACT = "Exact";
+
+    /**
+      * Correlation integral of random surface points, see
+      * {@link CorrelationDimension}
+      */
+    public static final String FAST = "Fast";
+
+    /**
+      * Default levels of the sparse grid, 256 voxels on a side
+      */
+    public static final int DEFAULT_BITS = 8;
+
+    /**
+      * Meshes with more triangles than this always use the sparse engine
+      */
+    public static final long DENSE_MAX_TRIANGLES = 1 << 16;
+
+    /**
+      * Pools shared by the analyses, by thread count. Their idle workers time
+      * out, so keeping them costs nothing between analyses.
+      */
+    private static final Map<Integer, ForkJoinPool> pools = new HashMap<>();
+
+    private FractalDimension() {
+        // NB: Prevent instantiation of utility class.
+    }
+
+    /**
+      * The engine to use for a mesh, which is the requested one unless the
+      * dense engine is requested for a mesh too large for it
+      */
+    public static String engineFor(String engine, Mesh m) {
+        if(DENSE.equals(engine) && m.triangles().size() > DENSE_MAX_TRIANGLES) {
+            return SPARSE;
+        }
+        return engine;
+    }
+
+    /**
+      * Multi-scale analysis with the given settings. The sparse engine counts
+      * every box size and grid offset concurrently and averages the counts
+      * over offsets. The dense engine voxelizes at the same resolution and
+      * passes the box sizes and offsets to Ops, which keeps the minimum
+      * count over offsets instead.
+      */
+    public static FractalFit analyze(String engine, OpService op, Mesh m, FractalSettings settings) {
+        switch(engineFor(engine, m)) {
+            case SPARSE:
+                return sparse(m, settings);
+            case DENSE:
+                return dense(op, m, settings);
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+    }
+
+    public static FractalFit dense(OpService op, Mesh m, FractalSettings settings) {
+        int size = settings.gridSize();
+        double[] sizes = settings.boxSizes();
+        RandomAccessibleInterval voxelizedMesh;
+        try(Metrics.Span span = Metrics.begin(Stage.VOXELIZE).count(m.vertices().size(), m.triangles().size())) {
+            voxelizedMesh = op.geom().voxelization(m, size, size, size);
+        }
+        List<ValuePair<DoubleType, DoubleType>> toCurveFit;
+        try(Metrics.Span span = Metrics.begin(Stage.BOX_COUNT)) {
+            toCurveFit = op.topology().boxCount(voxelizedMesh, (long) sizes[sizes.length - 1], (long) sizes[0],
+                                               settings.scaleRatio, (long) settings.offsets - 1);
+        }
+
+        double datax[] = new double[toCurveFit.size()];
+        double datay[] = new double[toCurveFit.size()];
+
+        for (int i = 0; i < toCurveFit.size(); i++) {
+            datax[i] = toCurveFit.get(i).getA().getRealDouble();
+            datay[i] = toCurveFit.get(i).getB().getRealDouble();
+        }
+
+        try(Metrics.Span span = Metrics.begin(Stage.FIT)) {
+            return FractalFit.fit(datax, datay, settings);
+        }
+    }
+
+    public static FractalFit sparse(Mesh m, FractalSettings settings) {
+        SparseVoxels voxels;
+        try(Metrics.Span span = Metrics.begin(Stage.VOXELIZE).count(m.vertices().size(), m.triangles().size())) {
+            voxels = new MeshBoxCounter(settings.threads).voxelize(m, settings.bits);
+        }
+        double[] sizes = settings.boxSizes();
+        double[] counts;
+        try(Metrics.Span span = Metrics.begin(Stage.BOX_COUNT)) {
+            counts = counts(voxels, sizes, settings.gridOffsets(), settings.threads);
+        }
+
+        int n = 0;
+        while(n < counts.length && counts[n] > 1) {
+            n++;
+        }
+
+        double datax[] = new double[n];
+        double datay[] = new double[n];
+        for(int k = 0; k < n; k++) {
+            datax[k] = -Math.log(voxels.getVoxelSize() * sizes[k]);
+            datay[k] = Math.log(counts[k]);
+        }
+
+        try(Metrics.Span span = Metrics.begin(Stage.FIT)) {
+            return FractalFit.fit(datax, datay, settings);
+        }
+    }
+
+    /**
+      * Occupied box counts for each size, averaged over the grid offsets,
+      * with every size and offset counted as its own task
+      */
+    public static double[] counts(SparseVoxels voxels, double[] sizes, double[][] offsets, int threads) {
+        List<Callable<Long>> tasks = new ArrayList<>();
+        for(double size : sizes) {
+            for(double[] offset : offsets) {
+                tasks.add(() -> voxels.count(size, offset));
+            }
+        }
+
+        List<Long> results = invokeAll(tasks, threads);
+        double[] counts = new double[sizes.length];
+        for(int i = 0; i < results.size(); i++) {
+            counts[i / offsets.length] += results.get(i);
+        }
+        for(int i = 0; i < counts.length; i++) {
+            counts[i] /= offsets.length;
+        }
+        return counts;
+    }
+
+    /**
+      * Run tasks on a pool of the given number of threads, or of every core
+      * for 0, and collect their results in order
+      */
+    static <T> List<T> invokeAll(List<Callable<T>> tasks, int threads) {
+        Metrics.Span span = Metrics.current();
+        List<Callable<T>> measured = new ArrayList<>(tasks.size());
+        for(Callable<T> task : tasks) {
+            measured.add(() -> {
+                try(Metrics.Worker worker = span.worker()) {
+                    return task.call();
+                }
+            });
+        }
+        try {
+            List<T> results = new ArrayList<>();
+            for(Future<T> result : pool(threads).invokeAll(measured)) {
+                results.add(result.get());
+            }
+            return results;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while counting boxes", e);
+        } catch(ExecutionException e) {
+            throw new IllegalStateException("Box counting failed", e.getCause());
+        }
+    }
+
+    /**
+      * The shared pool of the given number of threads, or of every core for 0
+      */
+    static ForkJoinPool pool(int threads) {
+        int parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        synchronized(pools) {
+            return pools.computeIfAbsent(parallelism, ForkJoinPool::new);
+        }
+    }
+
+    static double slope(double[] x, double[] y) {
+        CurveFitter cf = new CurveFitter(x, y);
+        cf.doFit(CurveFitter.STRAIGHT_LINE);
+        return cf.getParams()[1];
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.fractal;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Straight line fit of log box count against log inverse box size, whose
+ * slope is the fractal dimension, with its coefficient of determination and
+ * a percentile bootstrap confidence interval over resampled scales.
+ *
+ * @author Conrad Mearns
+ */
+public class FractalFit {
+
+    private final double[] x, y;
+    private final double slope, intercept, rSquared;
+    private double lower = Double.NaN, upper = Double.NaN, confidence;
+
+    public FractalFit(double[] x, double[] y) {
+        if(x.length != y.length) {
+            throw new IllegalArgumentException("Mismatched data: " + x.length + " x, " + y.length + " y");
+        }
+        this.x = x;
+        this.y = y;
+
+        double[] line = line(x, y, null);
+        slope = line[0];
+        intercept = line[1];
+
+        double my = 0;
+        for(double v : y) {
+            my += v;
+        }
+        my /= y.length;
+        double ssRes = 0, ssTot = 0;
+        for(int i = 0; i < x.length; i++) {
+            double r = y[i] - (intercept + slope * x[i]);
+            ssRes += r * r;
+            ssTot += (y[i] - my) * (y[i] - my);
+        }
+        rSquared = ssTot > 0 ? 1 - ssRes / ssTot : Double.NaN;
+    }
+
+    /**
+      * A fit with a confidence interval computed earlier, e.g. read back
+      * from a file
+      */
+    public static FractalFit of(double[] x, double[] y, double lower, double upper, double confidence) {
+        FractalFit fit = new FractalFit(x, y);
+        fit.lower = lower;
+        fit.upper = upper;
+        fit.confidence = confidence;
+        return fit;
+    }
+
+    /**
+      * Fit, then bootstrap a confidence interval for the slope
+      */
+    public static FractalFit fit(double[] x, double[] y, FractalSettings settings) {
+        FractalFit fit = new FractalFit(x, y);
+        if(settings.bootstrap > 0) {
+            fit.bootstrap(settings.bootstrap, settings.confidence, settings.seed);
+        }
+        return fit;
+    }
+
+    /**
+      * Percentile bootstrap of the slope, resampling scales with replacement.
+      * Resamples that hit a single scale have no slope and are skipped.
+      */
+    public void bootstrap(int resamples, double confidence, long seed) {
+        int n = x.length;
+        if(n < 3) {
+            return;
+        }
+
+        Random random = new Random(seed);
+        int[] sample = new int[n];
+        double[] slopes = new double[resamples];
+        int m = 0;
+        for(int r = 0; r < resamples; r++) {
+            boolean single = true;
+            for(int i = 0; i < n; i++) {
+                sample[i] = random.nextInt(n);
+                single &= x[sample[i]] == x[sample[0]];
+            }
+            // NB: Rounding of the mean makes the slope of a single scale
+            // tiny and arbitrary rather than NaN, so skip it explicitly.
+            double s = single ? Double.NaN : line(x, y, sample)[0];
+            if(!Double.isNaN(s)) {
+                slopes[m++] = s;
+            }
+        }
+        if(m == 0) {
+            return;
+        }
+
+        this.confidence = confidence;
+        Arrays.sort(slopes, 0, m);
+        double tail = (1 - confidence) / 2;
+        lower = slopes[(int) Math.floor(tail * (m - 1))];
+        upper = slopes[(int) Math.ceil((1 - tail) * (m - 1))];
+    }
+
+    /**
+      * Least squares slope and intercept, over the given sample of indices
+      * or over every point
+      */
+    private static double[] line(double[] x, double[] y, int[] sample) {
+        int n = sample != null ? sample.length : x.length;
+        double sx = 0, sy = 0;
+        for(int k = 0; k < n; k++) {
+            int i = sample != null ? sample[k] : k;
+            sx += x[i];
+            sy += y[i];
+        }
+        double mx = sx / n, my = sy / n;
+        double sxx = 0, sxy = 0;
+        for(int k = 0; k < n; k++) {
+            int i = sample != null ? sample[k] : k;
+            sxx += (x[i] - mx) * (x[i] - mx);
+            sxy += (x[i] - mx) * (y[i] - my);
+        }
+        double slope = sxx > 0 ? sxy / sxx : Double.NaN;
+        return new double[] {slope, my - slope * mx};
+    }
+
+    /**
+      * The fractal dimension
+      */
+    public double getSlope() {
+        return slope;
+    }
+
+    public double getIntercept() {
+        return intercept;
+    }
+
+    public double getRSquared() {
+        return rSquared;
+    }
+
+    public double getLower() {
+        return lower;
+    }
+
+    public double getUpper() {
+        return upper;
+    }
+
+    /**
+      * Confidence level of the interval, or 0 without one
+      */
+    public double getConfidence() {
+        return confidence;
+    }
+
+    /**
+      * log(1 / box size) of each scale
+      */
+    public double[] getX() {
+        return x.clone();
+    }
+
+    /**
+      * log(box count) of each scale
+      */
+    public double[] getY() {
+        return y.clone();
+    }
+
+    @Override
+    public String toString() {
+        String s = String.format("D = %.4f, R^2 = %.4f, %d scales", slope, rSquared, x.length);
+        if(!Double.isNaN(lower)) {
+            s += String.format(", %.0f%% CI [%.4f, %.4f]", 100 * confidence, lower, upper);
+        }
+        return s;
+    }
+}
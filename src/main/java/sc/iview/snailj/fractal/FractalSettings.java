@@ -0,0 +1,141 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.fractal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Settings of a multi-scale box-counting analysis. Box sizes are in voxels
+ * of the finest grid, which is 2^bits voxels on a side.
+ *
+ * @author Conrad Mearns
+ */
+public class FractalSettings {
+
+    /**
+      * Levels of the finest grid, which is 2^bits voxels on a side
+      */
+    public int bits = FractalDimension.DEFAULT_BITS;
+
+    /**
+      * Smallest box size, in voxels
+      */
+    public double minBox = 1;
+
+    /**
+      * Largest box size, in voxels, or 0 for half the grid
+      */
+    public double maxBox = 0;
+
+    /**
+      * Ratio between successive box sizes
+      */
+    public double scaleRatio = 2;
+
+    /**
+      * Maximum number of box sizes, or 0 for every size up to maxBox
+      */
+    public int scaleCount = 0;
+
+    /**
+      * Grid origins counted at every box size, the first unshifted and the
+      * others shifted by a random fraction of the box size
+      */
+    public int offsets = 1;
+
+    /**
+      * Bootstrap resamples of the fit, or 0 for no confidence interval
+      */
+    public int bootstrap = 1000;
+
+    /**
+      * Coverage of the bootstrap confidence interval
+      */
+    public double confidence = 0.95;
+
+    public long seed = 0;
+
+    /**
+      * Number of worker threads, or 0 to use every core
+      */
+    public int threads = 0;
+
+    public int gridSize() {
+        return 1 << bits;
+    }
+
+    /**
+      * Box sizes from minBox, growing by scaleRatio, up to maxBox
+      */
+    public double[] boxSizes() {
+        if(scaleRatio <= 1 || minBox < 1) {
+            throw new IllegalArgumentException("Box sizes need minBox >= 1 and scaleRatio > 1");
+        }
+        double max = maxBox > 0 ? Math.min(maxBox, gridSize()) : gridSize() / 2.0;
+        int limit = scaleCount > 0 ? scaleCount : Integer.MAX_VALUE;
+
+        List<Double> sizes = new ArrayList<>();
+        // NB: Tolerate rounding, so that e.g. 2^k lands on the maximum.
+        for(double s = minBox; s <= max * (1 + 1e-9) && sizes.size() < limit; s *= scaleRatio) {
+            sizes.add(s);
+        }
+
+        double[] out = new double[sizes.size()];
+        for(int i = 0; i < out.length; i++) {
+            out[i] = sizes.get(i);
+        }
+        return out;
+    }
+
+    /**
+      * Grid origin shifts as fractions of the box size, one xyz triple per
+      * offset, the first of which is zero
+      */
+    public double[][] gridOffsets() {
+        Random random = new Random(seed);
+        double[][] out = new double[Math.max(1, offsets)][3];
+        for(int i = 1; i < out.length; i++) {
+            for(int d = 0; d < 3; d++) {
+                out[i][d] = random.nextDouble();
+            }
+        }
+        return out;
+    }
+
+    /**
+      * The settings that affect the result, but not how it is computed,
+      * e.g. to cache analyses
+      */
+    public String key() {
+        return bits + "/" + minBox + "/" + maxBox + "/" + scaleRatio + "/" + scaleCount + "/" + offsets + "/" +
+               bootstrap + "/" + confidence + "/" + seed;
+    }
+}
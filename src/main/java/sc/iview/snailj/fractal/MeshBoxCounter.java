@@ -0,0 +1,311 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.fractal;
+
+import sc.iview.snailj.metrics.Metrics;
+
+import net.imagej.mesh.Mesh;
+import net.imagej.mesh.Triangles;
+import net.imagej.mesh.Vertices;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Finds the boxes of a grid touched by a mesh surface, straight from its
+ * triangles, without a voxel image.
+ *
+ * Each triangle is rasterized conservatively at the finest scale: every
+ * voxel in its bounding box, narrowed per column to the slab around the
+ * triangle's plane, is kept if the triangle and the voxel overlap by the
+ * separating axis test. Coarser scales follow from the Morton codes, see
+ * {@link SparseVoxels#boxCounts()}. Triangles are split into chunks that
+ * are rasterized in parallel into their own sorted code arrays, which are
+ * merged pairwise as the chunks join.
+ *
+ * @author Conrad Mearns
+ */
+public class MeshBoxCounter {
+
+    /**
+      * Chunks per thread, so that uneven chunks still balance out
+      */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+      * Half a voxel, padded so that touching counts as overlapping
+      */
+    private static final double HALF = 0.5 + 1e-9;
+
+    private final int threads;
+
+    /**
+      * @param threads Number of worker threads, or 0 to use every core
+      */
+    public MeshBoxCounter(int threads) {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+      * Occupied voxels of a grid 2^bits voxels on a side fitted to the mesh
+      * bounds. A mesh without triangles is voxelized by its vertices.
+      */
+    public SparseVoxels voxelize(Mesh mesh, int bits) {
+        SparseVoxels.Grid grid = new SparseVoxels.Grid(mesh, bits);
+        long triangles = mesh.triangles().size();
+
+        long[] codes;
+        if(triangles == 0) {
+            SparseVoxels.CodeSet set = new SparseVoxels.CodeSet();
+            Vertices v = mesh.vertices();
+            for(long i = 0; i < v.size(); i++) {
+                set.add(grid.code(v.x(i), v.y(i), v.z(i)));
+            }
+            codes = set.toArray();
+        } else if(threads == 1) {
+            codes = new Chunk(Metrics.current(), mesh, grid, 0, triangles, triangles).compute();
+        } else {
+            long grain = Math.max(1, triangles / (threads * CHUNKS_PER_THREAD));
+            codes = FractalDimension.pool(threads).invoke(new Chunk(Metrics.current(), mesh, grid, 0, triangles, grain));
+        }
+
+        return new SparseVoxels(codes, bits, grid.origin, grid.voxelSize);
+    }
+
+    /**
+      * Number of occupied boxes 2^k voxels on a side, for k from 0 to bits
+      */
+    public long[] boxCounts(Mesh mesh, int bits) {
+        return voxelize(mesh, bits).boxCounts();
+    }
+
+    /**
+      * Triangles [start, end), rasterized into a sorted array of unique codes
+      */
+    private static class Chunk extends RecursiveTask<long[]> {
+        private final Metrics.Span span;
+        private final Mesh mesh;
+        private final SparseVoxels.Grid grid;
+        private final long start, end, grain;
+
+        Chunk(Metrics.Span span, Mesh mesh, SparseVoxels.Grid grid, long start, long end, long grain) {
+            this.span = span;
+            this.mesh = mesh;
+            this.grid = grid;
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+        }
+
+        @Override
+        protected long[] compute() {
+            if(end - start <= grain) {
+                try(Metrics.Worker worker = span.worker()) {
+                    SparseVoxels.CodeSet set = new SparseVoxels.CodeSet();
+                    Rasterizer r = new Rasterizer(grid, set);
+                    Vertices v = mesh.vertices();
+                    Triangles t = mesh.triangles();
+                    for(long i = start; i < end; i++) {
+                        r.add(v, t.vertex0(i), t.vertex1(i), t.vertex2(i));
+                    }
+                    return set.toArray();
+                }
+            }
+            long mid = (start + end) >>> 1;
+            Chunk left = new Chunk(span, mesh, grid, start, mid, grain);
+            Chunk right = new Chunk(span, mesh, grid, mid, end, grain);
+            left.fork();
+            long[] b = right.compute();
+            long[] a = left.join();
+            try(Metrics.Worker worker = span.worker()) {
+                return merge(a, b);
+            }
+        }
+    }
+
+    /**
+      * Union of two sorted arrays of unique codes
+      */
+    static long[] merge(long[] a, long[] b) {
+        long[] out = new long[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while(i < a.length && j < b.length) {
+            long x = a[i], y = b[j];
+            if(x <= y) {
+                i++;
+                if(x == y) {
+                    j++;
+                }
+                out[n++] = x;
+            } else {
+                j++;
+                out[n++] = y;
+            }
+        }
+        while(i < a.length) {
+            out[n++] = a[i++];
+        }
+        while(j < b.length) {
+            out[n++] = b[j++];
+        }
+        return n == out.length ? out : java.util.Arrays.copyOf(out, n);
+    }
+
+    /**
+      * Conservative triangle rasterizer in grid units, where voxel (i, j, k)
+      * spans [i, i + 1] x [j, j + 1] x [k, k + 1]
+      */
+    static class Rasterizer {
+        private final SparseVoxels.Grid grid;
+        private final SparseVoxels.CodeSet set;
+
+        // Vertices, edges and normal of the current triangle
+        private double ax, ay, az, bx, by, bz, cx, cy, cz;
+        private double e0x, e0y, e0z, e1x, e1y, e1z, e2x, e2y, e2z;
+        private double nx, ny, nz;
+
+        private final double[] p0 = new double[3], n = new double[3];
+        private final int[] lo = new int[3], hi = new int[3], cell = new int[3];
+
+        Rasterizer(SparseVoxels.Grid grid, SparseVoxels.CodeSet set) {
+            this.grid = grid;
+            this.set = set;
+        }
+
+        void add(Vertices vertices, long i0, long i1, long i2) {
+            double s = 1 / grid.voxelSize;
+            ax = (vertices.x(i0) - grid.origin[0]) * s; ay = (vertices.y(i0) - grid.origin[1]) * s; az = (vertices.z(i0) - grid.origin[2]) * s;
+            bx = (vertices.x(i1) - grid.origin[0]) * s; by = (vertices.y(i1) - grid.origin[1]) * s; bz = (vertices.z(i1) - grid.origin[2]) * s;
+            cx = (vertices.x(i2) - grid.origin[0]) * s; cy = (vertices.y(i2) - grid.origin[1]) * s; cz = (vertices.z(i2) - grid.origin[2]) * s;
+
+            e0x = bx - ax; e0y = by - ay; e0z = bz - az;
+            e1x = cx - bx; e1y = cy - by; e1z = cz - bz;
+            e2x = ax - cx; e2y = ay - cy; e2z = az - cz;
+
+            nx = e0y * e1z - e0z * e1y;
+            ny = e0z * e1x - e0x * e1z;
+            nz = e0x * e1y - e0y * e1x;
+
+            lo[0] = cell(Math.min(ax, Math.min(bx, cx))); hi[0] = cell(Math.max(ax, Math.max(bx, cx)));
+            lo[1] = cell(Math.min(ay, Math.min(by, cy))); hi[1] = cell(Math.max(ay, Math.max(by, cy)));
+            lo[2] = cell(Math.min(az, Math.min(bz, cz))); hi[2] = cell(Math.max(az, Math.max(bz, cz)));
+
+            // Walk the columns along the normal's dominant axis w, narrowed
+            // to the slab where the plane crosses each column
+            n[0] = nx; n[1] = ny; n[2] = nz;
+            p0[0] = ax; p0[1] = ay; p0[2] = az;
+            int w = Math.abs(nx) >= Math.abs(ny) ? (Math.abs(nx) >= Math.abs(nz) ? 0 : 2) : (Math.abs(ny) >= Math.abs(nz) ? 1 : 2);
+            int u = (w + 1) % 3, v = (w + 2) % 3;
+
+            for(int i = lo[u]; i <= hi[u]; i++) {
+                for(int j = lo[v]; j <= hi[v]; j++) {
+                    int k0 = lo[w], k1 = hi[w];
+                    if(n[w] != 0) {
+                        double w00 = plane(u, v, w, i, j), w10 = plane(u, v, w, i + 1, j);
+                        double w01 = plane(u, v, w, i, j + 1), w11 = plane(u, v, w, i + 1, j + 1);
+                        k0 = Math.max(k0, cell(Math.min(Math.min(w00, w10), Math.min(w01, w11))));
+                        k1 = Math.min(k1, cell(Math.max(Math.max(w00, w10), Math.max(w01, w11))));
+                    }
+                    cell[u] = i;
+                    cell[v] = j;
+                    for(int k = k0; k <= k1; k++) {
+                        cell[w] = k;
+                        if(overlaps(cell[0] + 0.5, cell[1] + 0.5, cell[2] + 0.5)) {
+                            set.add(MortonCodes.encode(cell[0], cell[1], cell[2]));
+                        }
+                    }
+                }
+            }
+        }
+
+        private int cell(double g) {
+            int c = (int) Math.floor(g);
+            return c < 0 ? 0 : c > grid.max ? grid.max : c;
+        }
+
+        /**
+          * Coordinate w of the triangle's plane at coordinates (pu, pv)
+          */
+        private double plane(int u, int v, int w, double pu, double pv) {
+            return p0[w] - (n[u] * (pu - p0[u]) + n[v] * (pv - p0[v])) / n[w];
+        }
+
+        /**
+          * Separating axis test of the current triangle against the voxel
+          * centered at (x, y, z)
+          */
+        private boolean overlaps(double x, double y, double z) {
+            double v0x = ax - x, v0y = ay - y, v0z = az - z;
+            double v1x = bx - x, v1y = by - y, v1z = bz - z;
+            double v2x = cx - x, v2y = cy - y, v2z = cz - z;
+
+            // Box face normals
+            if(separated(v0x, v1x, v2x, HALF) || separated(v0y, v1y, v2y, HALF) || separated(v0z, v1z, v2z, HALF)) {
+                return false;
+            }
+
+            // Triangle normal
+            double d = nx * v0x + ny * v0y + nz * v0z;
+            if(Math.abs(d) > HALF * (Math.abs(nx) + Math.abs(ny) + Math.abs(nz))) {
+                return false;
+            }
+
+            // Cross products of the box axes with the triangle edges
+            return !(edge(e0x, e0y, e0z, v0x, v0y, v0z, v1x, v1y, v1z, v2x, v2y, v2z)
+                  || edge(e1x, e1y, e1z, v0x, v0y, v0z, v1x, v1y, v1z, v2x, v2y, v2z)
+                  || edge(e2x, e2y, e2z, v0x, v0y, v0z, v1x, v1y, v1z, v2x, v2y, v2z));
+        }
+
+        private static boolean edge(double ex, double ey, double ez,
+                                    double v0x, double v0y, double v0z,
+                                    double v1x, double v1y, double v1z,
+                                    double v2x, double v2y, double v2z) {
+            // x cross e
+            if(separated(ey * v0z - ez * v0y, ey * v1z - ez * v1y, ey * v2z - ez * v2y,
+                         HALF * (Math.abs(ey) + Math.abs(ez)))) {
+                return true;
+            }
+            // y cross e
+            if(separated(ez * v0x - ex * v0z, ez * v1x - ex * v1z, ez * v2x - ex * v2z,
+                         HALF * (Math.abs(ex) + Math.abs(ez)))) {
+                return true;
+            }
+            // z cross e
+            return separated(ex * v0y - ey * v0x, ex * v1y - ey * v1x, ex * v2y - ey * v2x,
+                             HALF * (Math.abs(ex) + Math.abs(ey)));
+        }
+
+        private static boolean separated(double p0, double p1, double p2, double r) {
+            return Math.min(p0, Math.min(p1, p2)) > r || Math.max(p0, Math.max(p1, p2)) < -r;
+        }
+    }
+}
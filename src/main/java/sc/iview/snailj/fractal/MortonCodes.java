@@ -0,0 +1,90 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.fractal;
+
+/**
+ * 3D Morton (Z-order) codes, 21 bits per axis interleaved into a long.
+ *
+ * Because the bits of x, y and z are interleaved from the most significant
+ * down, shifting a code right by 3k gives the code of the enclosing box
+ * 2^k voxels on a side, and sorting codes groups voxels by box at every
+ * scale at once.
+ *
+ * @author Conrad Mearns
+ */
+public final class MortonCodes {
+
+    /**
+      * Bits per axis
+      */
+    public static final int MAX_BITS = 21;
+
+    private MortonCodes() {
+        // NB: Prevent instantiation of utility class.
+    }
+
+    public static long encode(int x, int y, int z) {
+        return spread(x) | spread(y) << 1 | spread(z) << 2;
+    }
+
+    public static int x(long code) {
+        return compact(code);
+    }
+
+    public static int y(long code) {
+        return compact(code >>> 1);
+    }
+
+    public static int z(long code) {
+        return compact(code >>> 2);
+    }
+
+    /**
+      * Spread the low 21 bits of v to every third bit
+      */
+    static long spread(int v) {
+        long x = v & 0x1fffffL;
+        x = (x | x << 32) & 0x1f00000000ffffL;
+        x = (x | x << 16) & 0x1f0000ff0000ffL;
+        x = (x | x << 8)  & 0x100f00f00f00f00fL;
+        x = (x | x << 4)  & 0x10c30c30c30c30c3L;
+        x = (x | x << 2)  & 0x1249249249249249L;
+        return x;
+    }
+
+    static int compact(long code) {
+        long x = code & 0x1249249249249249L;
+        x = (x | x >>> 2)  & 0x10c30c30c30c30c3L;
+        x = (x | x >>> 4)  & 0x100f00f00f00f00fL;
+        x = (x | x >>> 8)  & 0x1f0000ff0000ffL;
+        x = (x | x >>> 16) & 0x1f00000000ffffL;
+        x = (x | x >>> 32) & 0x1fffffL;
+        return (int) x;
+    }
+}
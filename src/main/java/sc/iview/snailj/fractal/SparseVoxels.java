@@ -0,0 +1,296 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.fractal;
+
+import net.imagej.mesh.Mesh;
+import net.imagej.mesh.Vertices;
+
+import java.util.Arrays;
+
+/**
+ * The voxels touched by a mesh surface, on a cubic grid 2^bits voxels on a
+ * side fitted to the mesh bounds, stored as a sorted array of unique
+ * {@link MortonCodes}. Memory is proportional to the number of occupied
+ * voxels, i.e. to the surface area, rather than to the bounding volume.
+ *
+ * @author Conrad Mearns
+ */
+public class SparseVoxels {
+
+    /**
+      * Largest grid levels, one bit short of the Morton codes so that boxes
+      * on a shifted grid still fit
+      */
+    public static final int MAX_BITS = MortonCodes.MAX_BITS - 1;
+
+    private final long[] codes;
+    private final int bits;
+    private final double[] origin;
+    private final double voxelSize;
+
+    SparseVoxels(long[] codes, int bits, double[] origin, double voxelSize) {
+        this.codes = codes;
+        this.bits = bits;
+        this.origin = origin;
+        this.voxelSize = voxelSize;
+    }
+
+    /**
+      * Voxelize a mesh on every core, see {@link MeshBoxCounter}
+      *
+      * @param bits Levels of the grid, which is 2^bits voxels on a side
+      */
+    public static SparseVoxels voxelize(Mesh mesh, int bits) {
+        return new MeshBoxCounter(0).voxelize(mesh, bits);
+    }
+
+    /**
+      * Number of occupied boxes 2^k voxels on a side, for k from 0 to bits.
+      * All scales are counted from the one sorted array, since the codes of
+      * the enclosing boxes are prefixes of the voxel codes.
+      */
+    public long[] boxCounts() {
+        long[] counts = new long[bits + 1];
+        for(int k = 0; k <= bits; k++) {
+            counts[k] = distinct(codes, 3 * k);
+        }
+        return counts;
+    }
+
+    /**
+      * Number of occupied boxes of any size, in voxels, on a grid whose
+      * origin is shifted by the given fractions of the box size. Each voxel
+      * counts in the box holding its center. Unshifted power of two sizes
+      * are counted from the codes directly, other grids by sorting keys.
+      */
+    public long count(double size, double[] offset) {
+        int k = level(size, offset);
+        if(k >= 0) {
+            return distinct(codes, 3 * k);
+        }
+        return distinct(boxes(size, offset), 0);
+    }
+
+    /**
+      * Mass, i.e. number of occupied voxels, of every occupied box on the
+      * same grids as {@link #count(double, double[])}
+      */
+    public long[] masses(double size, double[] offset) {
+        int k = level(size, offset);
+        if(k >= 0) {
+            return runs(codes, 3 * k);
+        }
+        return runs(boxes(size, offset), 0);
+    }
+
+    /**
+      * The level of an unshifted power of two box size, or -1
+      */
+    private static int level(double size, double[] offset) {
+        int k = 31 - Integer.numberOfLeadingZeros((int) size);
+        if(k >= 0 && size == (1 << k) && offset[0] == 0 && offset[1] == 0 && offset[2] == 0) {
+            return k;
+        }
+        return -1;
+    }
+
+    /**
+      * Sorted keys of the boxes holding each voxel, one per voxel
+      */
+    private long[] boxes(double size, double[] offset) {
+        long[] boxes = new long[codes.length];
+        for(int i = 0; i < codes.length; i++) {
+            long c = codes[i];
+            boxes[i] = MortonCodes.encode(box(MortonCodes.x(c), size, offset[0]),
+                                          box(MortonCodes.y(c), size, offset[1]),
+                                          box(MortonCodes.z(c), size, offset[2]));
+        }
+        Arrays.sort(boxes);
+        return boxes;
+    }
+
+    private static int box(int voxel, double size, double offset) {
+        return (int) Math.floor((voxel + 0.5) / size + offset);
+    }
+
+    static long distinct(long[] codes, int shift) {
+        if(codes.length == 0) {
+            return 0;
+        }
+        long n = 1;
+        long previous = codes[0] >>> shift;
+        for(int i = 1; i < codes.length; i++) {
+            long box = codes[i] >>> shift;
+            if(box != previous) {
+                n++;
+                previous = box;
+            }
+        }
+        return n;
+    }
+
+    /**
+      * Lengths of the runs of equal keys, after shifting, in a sorted array
+      */
+    static long[] runs(long[] keys, int shift) {
+        long[] runs = new long[(int) distinct(keys, shift)];
+        int n = -1;
+        long previous = 0;
+        for(int i = 0; i < keys.length; i++) {
+            long box = keys[i] >>> shift;
+            if(n < 0 || box != previous) {
+                n++;
+                previous = box;
+            }
+            runs[n]++;
+        }
+        return runs;
+    }
+
+    /**
+      * The distinct values of a sorted array
+      */
+    static long[] distinctValues(long[] sorted) {
+        long[] values = new long[(int) distinct(sorted, 0)];
+        int n = 0;
+        for(int i = 0; i < sorted.length; i++) {
+            if(i == 0 || sorted[i] != sorted[i - 1]) {
+                values[n++] = sorted[i];
+            }
+        }
+        return values;
+    }
+
+    /**
+      * Sorted, unique Morton codes of the occupied voxels
+      */
+    public long[] getCodes() {
+        return codes;
+    }
+
+    public int size() {
+        return codes.length;
+    }
+
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+      * Minimum corner of the grid
+      */
+    public double[] getOrigin() {
+        return origin.clone();
+    }
+
+    public double getVoxelSize() {
+        return voxelSize;
+    }
+
+    /**
+      * Cubic grid fitted to the bounds of a mesh
+      */
+    static class Grid {
+
+        final double[] origin = new double[3];
+        final double voxelSize;
+        final int max;
+
+        Grid(Mesh mesh, int bits) {
+            if(bits < 1 || bits > MAX_BITS) {
+                throw new IllegalArgumentException("Grid levels must be between 1 and " + MAX_BITS + ": " + bits);
+            }
+
+            Vertices v = mesh.vertices();
+            double[] lo = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+            double[] hi = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+            for(long i = 0; i < v.size(); i++) {
+                double[] xyz = {v.x(i), v.y(i), v.z(i)};
+                for(int d = 0; d < 3; d++) {
+                    lo[d] = Math.min(lo[d], xyz[d]);
+                    hi[d] = Math.max(hi[d], xyz[d]);
+                }
+            }
+
+            double extent = 0;
+            for(int d = 0; d < 3; d++) {
+                origin[d] = v.size() > 0 ? lo[d] : 0;
+                extent = Math.max(extent, hi[d] - lo[d]);
+            }
+
+            max = (1 << bits) - 1;
+            voxelSize = extent > 0 ? extent / (1 << bits) : 1;
+        }
+
+        int cell(double x, int d) {
+            int c = (int) ((x - origin[d]) / voxelSize);
+            return c < 0 ? 0 : c > max ? max : c;
+        }
+
+        long code(double x, double y, double z) {
+            return MortonCodes.encode(cell(x, 0), cell(y, 1), cell(z, 2));
+        }
+    }
+
+    /**
+      * Growable array of codes, sorted and deduplicated whenever it fills so
+      * that it stays close to the number of distinct codes
+      */
+    static class CodeSet {
+
+        private long[] codes = new long[1 << 12];
+        private int size;
+
+        void add(long code) {
+            if(size == codes.length) {
+                compact();
+                if(size > codes.length / 2) {
+                    codes = Arrays.copyOf(codes, 2 * codes.length);
+                }
+            }
+            codes[size++] = code;
+        }
+
+        private void compact() {
+            Arrays.sort(codes, 0, size);
+            int n = 0;
+            for(int i = 0; i < size; i++) {
+                if(n == 0 || codes[i] != codes[n - 1]) {
+                    codes[n++] = codes[i];
+                }
+            }
+            size = n;
+        }
+
+        long[] toArray() {
+            compact();
+            return Arrays.copyOf(codes, size);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.fractal;
+
+import net.imagej.mesh.Mesh;
+import net.imagej.mesh.Triangles;
+import net.imagej.mesh.Vertices;
+import net.imagej.mesh.nio.BufferMesh;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Uniformly distributed random points on the surface of a mesh. Triangles
+ * are picked with probability proportional to their area, by binary search
+ * in their cumulative areas, and points are spread uniformly over the
+ * picked triangle. A mesh without triangles is sampled at its vertices.
+ *
+ * The buffers of a {@link BufferMesh} are read in place, other meshes are
+ * copied into buffers first.
+ *
+ * @author Conrad Mearns
+ */
+class SurfaceSampler {
+
+    private final FloatBuffer verts;
+    private final IntBuffer indices;
+    private final double[] cumulative;
+
+    SurfaceSampler(Mesh mesh) {
+        if(mesh instanceof BufferMesh) {
+            verts = ((BufferMesh) mesh).vertices().verts();
+            indices = ((BufferMesh) mesh).triangles().indices();
+        } else {
+            Vertices v = mesh.vertices();
+            Triangles t = mesh.triangles();
+            float[] xyz = new float[3 * (int) v.size()];
+            for(int i = 0; i < xyz.length / 3; i++) {
+                xyz[3 * i] = (float) v.x(i);
+                xyz[3 * i + 1] = (float) v.y(i);
+                xyz[3 * i + 2] = (float) v.z(i);
+            }
+            int[] abc = new int[3 * (int) t.size()];
+            for(int i = 0; i < abc.length / 3; i++) {
+                abc[3 * i] = (int) t.vertex0(i);
+                abc[3 * i + 1] = (int) t.vertex1(i);
+                abc[3 * i + 2] = (int) t.vertex2(i);
+            }
+            verts = FloatBuffer.wrap(xyz);
+            indices = IntBuffer.wrap(abc);
+        }
+
+        cumulative = new double[indices.limit() / 3];
+        double area = 0;
+        for(int i = 0; i < cumulative.length; i++) {
+            int a = 3 * indices.get(3 * i), b = 3 * indices.get(3 * i + 1), c = 3 * indices.get(3 * i + 2);
+            double ux = verts.get(b) - verts.get(a), uy = verts.get(b + 1) - verts.get(a + 1), uz = verts.get(b + 2) - verts.get(a + 2);
+            double wx = verts.get(c) - verts.get(a), wy = verts.get(c + 1) - verts.get(a + 1), wz = verts.get(c + 2) - verts.get(a + 2);
+            double nx = uy * wz - uz * wy, ny = uz * wx - ux * wz, nz = ux * wy - uy * wx;
+            area += 0.5 * Math.sqrt(nx * nx + ny * ny + nz * nz);
+            cumulative[i] = area;
+        }
+    }
+
+    /**
+      * Total surface area, 0 for a point cloud
+      */
+    double getArea() {
+        return cumulative.length > 0 ? cumulative[cumulative.length - 1] : 0;
+    }
+
+    /**
+      * Write points [from, to) of an xyz array
+      */
+    void sample(Random random, float[] xyz, int from, int to) {
+        double area = getArea();
+        for(int k = from; k < to; k++) {
+            if(area <= 0) {
+                int i = 3 * random.nextInt(verts.limit() / 3);
+                xyz[3 * k] = verts.get(i);
+                xyz[3 * k + 1] = verts.get(i + 1);
+                xyz[3 * k + 2] = verts.get(i + 2);
+                continue;
+            }
+
+            int i = Arrays.binarySearch(cumulative, random.nextDouble() * area);
+            i = Math.min(i < 0 ? -i - 1 : i, cumulative.length - 1);
+            int a = 3 * indices.get(3 * i), b = 3 * indices.get(3 * i + 1), c = 3 * indices.get(3 * i + 2);
+
+            // NB: Folding the unit square onto the triangle keeps the
+            // distribution uniform.
+            float r = random.nextFloat(), s = random.nextFloat();
+            if(r + s > 1) {
+                r = 1 - r;
+                s = 1 - s;
+            }
+            float q = 1 - r - s;
+            for(int d = 0; d < 3; d++) {
+                xyz[3 * k + d] = q * verts.get(a + d) + r * verts.get(b + d) + s * verts.get(c + d);
+            }
+        }
+    }
+}
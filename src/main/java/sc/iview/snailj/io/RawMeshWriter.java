@@ -0,0 +1,122 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.io;
+
+import sc.iview.snailj.shell.ShellParameters;
+import sc.iview.snailj.shell.ShellStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes shells of any size out of core, as a raw mesh file: a header,
+ * float32 xyz per vertex, then three int64 vertex indices per triangle.
+ *
+ * Each band of a {@link ShellStream} is written at its 64 bit offset
+ * through one direct buffer sized for a band, so neither the heap nor the
+ * native memory grows with the number of turns.
+ *
+ * @author Conrad Mearns
+ */
+public final class RawMeshWriter {
+
+    public static final int MAGIC = 0x534e4c52; // "SNLR"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 64;
+
+    /**
+      * Target size of one band's vertices and indices
+      */
+    private static final long BAND_BYTES = 32L << 20;
+
+    private RawMeshWriter() {
+        // NB: Prevent instantiation of utility class.
+    }
+
+    /**
+      * @return Number of bytes written
+      */
+    public static long write(ShellParameters p, Path path) throws IOException {
+        return write(new ShellStream(p, ShellStream.bandRows(p, BAND_BYTES)), path);
+    }
+
+    public static long write(ShellStream stream, Path path) throws IOException {
+        ShellParameters p = stream.getParameters();
+        long vertices = stream.getTotalVertices();
+        long triangles = stream.getTotalTriangles();
+        long vertexOffset = HEADER_BYTES;
+        long indexOffset = vertexOffset + 12 * vertices;
+        long size = indexOffset + 24 * triangles;
+
+        ByteBuffer out = ByteBuffer.allocateDirect(Math.max(HEADER_BYTES, Math.max(4 * stream.getVertices().length,
+                                                                                   8 * stream.getIndices().length)));
+        out.order(ByteOrder.LITTLE_ENDIAN);
+
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                   StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.putInt(MAGIC).putInt(VERSION);
+            out.putInt(p.hseg()).putInt(p.cseg);
+            out.putLong(vertices).putLong(triangles);
+            out.putLong(vertexOffset).putLong(indexOffset);
+            out.position(HEADER_BYTES);
+            write(channel, out, 0);
+
+            while(stream.next()) {
+                int n = stream.getVertexCount();
+                out.asFloatBuffer().put(stream.getVertices(), 0, 3 * n);
+                out.position(12 * n);
+                write(channel, out, vertexOffset + 12 * stream.getFirstVertex());
+
+                int t = stream.getTriangleCount();
+                if(t > 0) {
+                    out.asLongBuffer().put(stream.getIndices(), 0, 3 * t);
+                    out.position(24 * t);
+                    write(channel, out, indexOffset + 24 * stream.getFirstTriangle());
+                }
+            }
+            return size;
+        }
+    }
+
+    /**
+      * Write the buffer's first position bytes at the file offset, leaving
+      * the buffer cleared for the next band
+      */
+    private static void write(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+        buffer.clear();
+    }
+}
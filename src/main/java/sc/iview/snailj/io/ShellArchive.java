@@ -0,0 +1,536 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.io;
+
+import sc.iview.snailj.fractal.FractalFit;
+import sc.iview.snailj.shell.ShellParameters;
+import sc.iview.snailj.shell.ShellTopology;
+
+import net.imagej.mesh.nio.BufferMesh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Archive of many generated shells in one file. Each entry keeps the
+ * parameters and seed a shell was generated from, its vertex grid and the
+ * fractal dimension fits computed for it.
+ *
+ * The file is a 64 byte header, the entries' data, then an index of every
+ * entry written with {@link DataOutput}. Opening an archive only reads the
+ * header and the index. The data of an entry is mapped when its mesh is
+ * requested, either
+ * <ul>
+ * <li>{@link Encoding#RAW}: little endian float32 vertices and normals,
+ *   wrapped as the mesh's buffers without copying, or</li>
+ * <li>{@link Encoding#QUANTIZED}: vertices quantized to 16 bits per axis
+ *   over the shell's bounding box, each spiral row stored as the difference
+ *   to the previous one and deflated. Consecutive rows of the hseg x cseg
+ *   grid are close, so the differences are small and compress well. The
+ *   vertices are decoded into new buffers, and the normals recomputed from
+ *   the grid.</li>
+ * </ul>
+ * Triangle indices are never stored, they follow from the resolution. Every
+ * mesh of one resolution shares the read-only triangle list of its
+ * {@link ShellTopology}, and zeroed texture coordinates and triangle
+ * normals, allocated the first time a mesh of that resolution is read.
+ * All buffers of the meshes are read-only.
+ *
+ * @author Conrad Mearns
+ */
+public class ShellArchive implements Closeable {
+
+    public static final int MAGIC = 0x534e4c41; // "SNLA"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 64;
+
+    /**
+      * Entry data starts at multiples of this, so mapped buffers are aligned
+      */
+    private static final int ALIGNMENT = 64;
+
+    /**
+      * Largest quantized value, the bounding box spans 0 to this per axis
+      */
+    private static final int LEVELS = 0xffff;
+
+    public enum Encoding {
+        RAW, QUANTIZED
+    }
+
+    /**
+      * One shell of an archive, as described by the index
+      */
+    public static final class Entry {
+        private final String name;
+        private final ShellParameters parameters;
+        private final Encoding encoding;
+        private final long offset, bytes;
+        private final float[] min, step;
+        private final Map<String, FractalFit> analyses;
+
+        private Entry(String name, ShellParameters parameters, Encoding encoding, long offset, long bytes,
+                      float[] min, float[] step, Map<String, FractalFit> analyses) {
+            this.name = name;
+            this.parameters = parameters;
+            this.encoding = encoding;
+            this.offset = offset;
+            this.bytes = bytes;
+            this.min = min;
+            this.step = step;
+            this.analyses = analyses;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public ShellParameters getParameters() {
+            return parameters.copy();
+        }
+
+        public Encoding getEncoding() {
+            return encoding;
+        }
+
+        /**
+          * Bytes of data the entry takes in the file
+          */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+          * Stored analyses by key, e.g. box counting engine and settings
+          */
+        public Map<String, FractalFit> getAnalyses() {
+            return Collections.unmodifiableMap(analyses);
+        }
+
+        private void write(DataOutput out) throws IOException {
+            out.writeUTF(name);
+            parameters.writeTo(out);
+            out.writeByte(encoding.ordinal());
+            out.writeLong(offset);
+            out.writeLong(bytes);
+            if(encoding == Encoding.QUANTIZED) {
+                for(int d = 0; d < 3; d++) {
+                    out.writeFloat(min[d]);
+                    out.writeFloat(step[d]);
+                }
+            }
+            out.writeInt(analyses.size());
+            for(Map.Entry<String, FractalFit> e : analyses.entrySet()) {
+                FractalFit fit = e.getValue();
+                out.writeUTF(e.getKey());
+                writeDoubles(out, fit.getX());
+                writeDoubles(out, fit.getY());
+                out.writeDouble(fit.getLower());
+                out.writeDouble(fit.getUpper());
+                out.writeDouble(fit.getConfidence());
+            }
+        }
+
+        private static Entry read(DataInput in) throws IOException {
+            String name = in.readUTF();
+            ShellParameters p = ShellParameters.readFrom(in);
+            Encoding encoding = Encoding.values()[in.readByte()];
+            long offset = in.readLong();
+            long bytes = in.readLong();
+            float[] min = null, step = null;
+            if(encoding == Encoding.QUANTIZED) {
+                min = new float[3];
+                step = new float[3];
+                for(int d = 0; d < 3; d++) {
+                    min[d] = in.readFloat();
+                    step[d] = in.readFloat();
+                }
+            }
+            Map<String, FractalFit> analyses = new LinkedHashMap<>();
+            for(int k = in.readInt(); k > 0; k--) {
+                String key = in.readUTF();
+                double[] x = readDoubles(in), y = readDoubles(in);
+                analyses.put(key, FractalFit.of(x, y, in.readDouble(), in.readDouble(), in.readDouble()));
+            }
+            return new Entry(name, p, encoding, offset, bytes, min, step, analyses);
+        }
+    }
+
+    private final FileChannel channel;
+    private final List<Entry> entries;
+
+    /**
+      * Buffers shared by the meshes of one resolution, by hseg and cseg
+      */
+    private final Map<Long, Grid> grids = new HashMap<>();
+
+    private static final class Grid {
+        final IntBuffer triangles;
+        final FloatBuffer texCoords, triangleNormals;
+
+        Grid(ShellParameters p) {
+            triangles = ShellTopology.of(p).triangles();
+            texCoords = floats(2 * p.vertexCount()).asReadOnlyBuffer();
+            triangleNormals = floats(3 * p.triangleCount()).asReadOnlyBuffer();
+        }
+    }
+
+    private ShellArchive(FileChannel channel, List<Entry> entries) {
+        this.channel = channel;
+        this.entries = entries;
+    }
+
+    /**
+      * Open an archive by reading its index. Entry data is only mapped by
+      * {@link #mesh(Entry)}.
+      */
+    public static ShellArchive open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while(header.hasRemaining()) {
+                if(channel.read(header, header.position()) < 0) {
+                    throw new EOFException("Truncated SnailJ archive: " + path);
+                }
+            }
+            header.flip();
+            if(header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a SnailJ archive: " + path);
+            }
+            int count = header.getInt();
+            header.getInt();
+            long indexOffset = header.getLong();
+            long indexBytes = header.getLong();
+
+            DataInputStream in = new DataInputStream(new MappedInputStream(
+                channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, indexBytes)));
+            List<Entry> entries = new ArrayList<>(count);
+            for(int i = 0; i < count; i++) {
+                entries.add(Entry.read(in));
+            }
+            return new ShellArchive(channel, Collections.unmodifiableList(entries));
+        } catch(IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+      * The mesh of an entry, with read-only buffers. The vertices and
+      * normals of raw entries are views of the file, and stay valid after
+      * the archive is closed.
+      */
+    public BufferMesh mesh(Entry entry) throws IOException {
+        ShellParameters p = entry.parameters;
+        int floats = 3 * p.vertexCount();
+        MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, entry.offset, entry.bytes);
+        data.order(ByteOrder.LITTLE_ENDIAN);
+
+        FloatBuffer verts, normals;
+        if(entry.encoding == Encoding.RAW) {
+            ByteBuffer vertexBytes = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+            vertexBytes.limit(4 * floats);
+            data.position(4 * floats);
+            ByteBuffer normalBytes = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+            normalBytes.limit(4 * floats);
+            verts = vertexBytes.asFloatBuffer();
+            normals = normalBytes.asFloatBuffer();
+        } else {
+            verts = floats(floats);
+            normals = floats(floats);
+            Inflater inflater = new Inflater();
+            try {
+                decode(entry, new InflaterInputStream(new MappedInputStream(data), inflater, 1 << 16), verts);
+            } finally {
+                inflater.end();
+            }
+            ShellTopology.normals(verts, p.hseg(), p.cseg, normals);
+            verts = verts.asReadOnlyBuffer();
+            normals = normals.asReadOnlyBuffer();
+        }
+
+        Grid grid;
+        synchronized(grids) {
+            grid = grids.computeIfAbsent(((long)p.hseg() << 32) | p.cseg, key -> new Grid(p));
+        }
+        return new BufferMesh(verts, normals, grid.texCoords.duplicate(),
+                              grid.triangles.duplicate(), grid.triangleNormals.duplicate());
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+      * Appends shells to a new archive, and writes the index on close
+      */
+    public static class Writer implements Closeable {
+        private final FileChannel channel;
+        private final Encoding encoding;
+        private final List<Entry> entries = new ArrayList<>();
+
+        public Writer(Path path, Encoding encoding) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                            StandardOpenOption.TRUNCATE_EXISTING);
+            this.encoding = encoding;
+            channel.position(HEADER_BYTES);
+        }
+
+        /**
+          * Append a shell generated from the given parameters
+          *
+          * @param analyses Fits to keep with the shell, by key, or null
+          * @return Bytes of data written for the shell
+          */
+        public long add(String name, ShellParameters p, BufferMesh mesh, Map<String, FractalFit> analyses)
+                throws IOException {
+            FloatBuffer verts = mesh.vertices().verts().duplicate();
+            verts.rewind();
+            if(verts.limit() != 3 * p.vertexCount()) {
+                throw new IllegalArgumentException("Mesh has " + verts.limit() / 3 + " vertices, the parameters give " +
+                                                   p.vertexCount());
+            }
+
+            long offset = align(channel.position());
+            channel.position(offset);
+            float[] min = null, step = null;
+            if(encoding == Encoding.RAW) {
+                FloatBuffer normals = mesh.vertices().normals().duplicate();
+                normals.rewind();
+                normals.limit(verts.limit());
+                writeFloats(channel, verts);
+                writeFloats(channel, normals);
+            } else {
+                min = new float[3];
+                step = new float[3];
+                bounds(verts, min, step);
+                Deflater deflater = new Deflater();
+                try {
+                    DeflaterOutputStream out = new DeflaterOutputStream(Channels.newOutputStream(channel), deflater, 1 << 16);
+                    encode(verts, p.cseg, min, step, out);
+                    out.finish();
+                    out.flush();
+                } finally {
+                    deflater.end();
+                }
+            }
+            long bytes = channel.position() - offset;
+            entries.add(new Entry(name, p.copy(), encoding, offset, bytes, min, step,
+                                  analyses != null ? new LinkedHashMap<>(analyses) : new LinkedHashMap<>()));
+            return bytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                ByteArrayOutputStream index = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(index);
+                for(Entry entry : entries) {
+                    entry.write(out);
+                }
+                out.flush();
+
+                long indexOffset = align(channel.position());
+                channel.write(ByteBuffer.wrap(index.toByteArray()), indexOffset);
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(entries.size()).putInt(0);
+                header.putLong(indexOffset).putLong(index.size());
+                header.clear();
+                channel.write(header, 0);
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+      * Per axis minimum and quantization step of the vertices' bounding box
+      */
+    static void bounds(FloatBuffer verts, float[] min, float[] step) {
+        float[] max = new float[3];
+        for(int d = 0; d < 3; d++) {
+            min[d] = Float.POSITIVE_INFINITY;
+            max[d] = Float.NEGATIVE_INFINITY;
+        }
+        for(int k = 0; k < verts.limit(); k++) {
+            int d = k % 3;
+            min[d] = Math.min(min[d], verts.get(k));
+            max[d] = Math.max(max[d], verts.get(k));
+        }
+        for(int d = 0; d < 3; d++) {
+            step[d] = max[d] > min[d] ? (max[d] - min[d]) / LEVELS : 1;
+        }
+    }
+
+    /**
+      * Quantize the grid and write it row by row, each row as 16 bit
+      * differences to the previous one. The differences wrap around, so
+      * decoding is exact.
+      */
+    static void encode(FloatBuffer verts, int cseg, float[] min, float[] step, OutputStream out) throws IOException {
+        int width = 3 * cseg;
+        int[] previous = new int[width];
+        ByteBuffer row = ByteBuffer.allocate(2 * width).order(ByteOrder.LITTLE_ENDIAN);
+        for(int k = 0; k < verts.limit(); k += width) {
+            row.clear();
+            for(int c = 0; c < width; c++) {
+                int d = c % 3;
+                int q = Math.round((verts.get(k + c) - min[d]) / step[d]);
+                q = Math.max(0, Math.min(LEVELS, q));
+                row.putShort((short)(q - previous[c]));
+                previous[c] = q;
+            }
+            out.write(row.array(), 0, row.position());
+        }
+    }
+
+    static void decode(Entry entry, InputStream in, FloatBuffer verts) throws IOException {
+        int width = 3 * entry.parameters.cseg;
+        int[] previous = new int[width];
+        byte[] bytes = new byte[2 * width];
+        ByteBuffer row = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        DataInputStream data = new DataInputStream(in);
+        for(int k = 0; k < verts.limit(); k += width) {
+            data.readFully(bytes);
+            row.clear();
+            for(int c = 0; c < width; c++) {
+                int d = c % 3;
+                int q = (previous[c] + row.getShort()) & LEVELS;
+                previous[c] = q;
+                verts.put(k + c, entry.min[d] + q * entry.step[d]);
+            }
+        }
+    }
+
+    private static void writeFloats(FileChannel channel, FloatBuffer source) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        FloatBuffer floats = chunk.asFloatBuffer();
+        FloatBuffer rest = source.duplicate();
+        while(rest.hasRemaining()) {
+            int n = Math.min(floats.capacity(), rest.remaining());
+            FloatBuffer part = rest.duplicate();
+            part.limit(part.position() + n);
+            floats.clear();
+            floats.put(part);
+            rest.position(rest.position() + n);
+            chunk.clear();
+            chunk.limit(4 * n);
+            while(chunk.hasRemaining()) {
+                channel.write(chunk);
+            }
+        }
+    }
+
+    private static void writeDoubles(DataOutput out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for(double v : values) {
+            out.writeDouble(v);
+        }
+    }
+
+    private static double[] readDoubles(DataInput in) throws IOException {
+        double[] values = new double[in.readInt()];
+        for(int i = 0; i < values.length; i++) {
+            values[i] = in.readDouble();
+        }
+        return values;
+    }
+
+    private static long align(long position) {
+        return (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static FloatBuffer floats(int count) {
+        return ByteBuffer.allocateDirect(4 * count).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /**
+      * Reads a mapped region as a stream
+      */
+    private static class MappedInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        MappedInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if(!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.io;
+
+import sc.iview.snailj.shell.ShellKernel;
+import sc.iview.snailj.shell.ShellParameters;
+import sc.iview.snailj.shell.ShellTables;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams shells to binary STL or PLY files without building the mesh in
+ * memory. Spiral rows are evaluated one at a time into a small rolling
+ * array from lookup tables that hold one band of rows, encoded into a fixed-size buffer and written through a
+ * {@link FileChannel}, so memory use does not depend on the shell size.
+ * Shells beyond the 32 bit limits of these formats can be written with
+ * {@link RawMeshWriter}.
+ *
+ * @author Conrad Mearns
+ */
+public final class ShellExport {
+
+    public static final String STL = "stl";
+    public static final String PLY = "ply";
+    public static final String RAW = "raw";
+
+    /**
+      * Bytes encoded before each write to the channel
+      */
+    private static final int CHUNK_BYTES = 1 << 20;
+
+    /**
+      * Spiral rows held in the lookup tables at once, at 64 bytes per row
+      */
+    private static final int BAND_ROWS = 1 << 14;
+
+    private ShellExport() {
+        // NB: Prevent instantiation of utility class.
+    }
+
+    /**
+      * Write a shell in the given format
+      * @return Number of bytes written
+      */
+    public static long write(ShellParameters p, Path path, String format) throws IOException {
+        switch(format.toLowerCase()) {
+            case STL:
+                return writeStl(p, path);
+            case PLY:
+                return writePly(p, path);
+            case RAW:
+                return RawMeshWriter.write(p, path);
+            default:
+                throw new IllegalArgumentException("Unknown format: " + format);
+        }
+    }
+
+    /**
+      * Binary STL: an 80 byte header, the triangle count, then a normal,
+      * three vertices and an attribute word per triangle
+      */
+    public static long writeStl(ShellParameters p, Path path) throws IOException {
+        ShellTables t = new ShellTables(p, BAND_ROWS);
+        int hseg = p.hseg();
+        int m = p.cseg;
+        long triangles = 2L * Math.max(0, hseg - 1) * m;
+        if(triangles > 0xffffffffL) {
+            throw new IllegalArgumentException("Too many triangles for STL: " + triangles);
+        }
+
+        try(FileChannel channel = open(path)) {
+            ByteBuffer out = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            byte[] header = new byte[80];
+            byte[] text = ("SnailJ shell " + p.digest()).getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(text, 0, header, 0, Math.min(text.length, header.length));
+            out.put(header);
+            out.putInt((int) triangles);
+
+            float[] row = new float[3 * m];
+            float[] next = new float[3 * m];
+            if(hseg > 0) {
+                ShellKernel.evaluateRow(t, 0, row, 0);
+            }
+            for(int i = 0; i < hseg - 1; i++) {
+                t.seek(i + 1);
+                ShellKernel.evaluateRow(t, i + 1, next, 0);
+                for(int j = 0; j < m; j++) {
+                    int j1 = (j + 1) % m;
+                    if(out.remaining() < 100) {
+                        drain(channel, out);
+                    }
+                    triangle(out, row, j, next, j1, row, j1);
+                    triangle(out, row, j, next, j, next, j1);
+                }
+                float[] swap = row;
+                row = next;
+                next = swap;
+            }
+            drain(channel, out);
+            return channel.position();
+        }
+    }
+
+    /**
+      * Binary little-endian PLY: float x, y, z per vertex, then every
+      * triangle as a list of three vertex indices
+      */
+    public static long writePly(ShellParameters p, Path path) throws IOException {
+        ShellTables t = new ShellTables(p, BAND_ROWS);
+        int hseg = p.hseg();
+        int m = p.cseg;
+        long vertices = (long) hseg * m;
+        long triangles = 2L * Math.max(0, hseg - 1) * m;
+        if(vertices > 0xffffffffL) {
+            throw new IllegalArgumentException("Too many vertices for 32 bit PLY indices: " + vertices);
+        }
+
+        try(FileChannel channel = open(path)) {
+            ByteBuffer out = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            out.put(plyHeader(p, vertices, triangles).getBytes(StandardCharsets.US_ASCII));
+
+            float[] row = new float[3 * m];
+            for(int i = 0; i < hseg; i++) {
+                t.seek(i);
+                ShellKernel.evaluateRow(t, i, row, 0);
+                for(int k = 0; k < row.length; k++) {
+                    if(out.remaining() < 4) {
+                        drain(channel, out);
+                    }
+                    out.putFloat(row[k]);
+                }
+            }
+
+            for(long i = 0; i < hseg - 1; i++) {
+                for(long j = 0; j < m; j++) {
+                    long j1 = (j + 1) % m;
+                    if(out.remaining() < 26) {
+                        drain(channel, out);
+                    }
+                    face(out, m*i+j, (i+1)*m+j1, m*i+j1);
+                    face(out, m*i+j, (i+1)*m+j, (i+1)*m+j1);
+                }
+            }
+            drain(channel, out);
+            return channel.position();
+        }
+    }
+
+    static String plyHeader(ShellParameters p, long vertices, long triangles) {
+        return "ply\n" +
+               "format binary_little_endian 1.0\n" +
+               "comment SnailJ shell " + p.digest() + "\n" +
+               "element vertex " + vertices + "\n" +
+               "property float x\n" +
+               "property float y\n" +
+               "property float z\n" +
+               "element face " + triangles + "\n" +
+               "property list uchar uint vertex_indices\n" +
+               "end_header\n";
+    }
+
+    static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    static void drain(FileChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while(out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    private static void face(ByteBuffer out, long a, long b, long c) {
+        out.put((byte) 3);
+        out.putInt((int) a);
+        out.putInt((int) b);
+        out.putInt((int) c);
+    }
+
+    /**
+      * One STL facet from three vertices, each given as a row array and the
+      * column within it. The normal is the normalized cross product.
+      */
+    private static void triangle(ByteBuffer out, float[] r0, int j0, float[] r1, int j1, float[] r2, int j2) {
+        int a = 3 * j0, b = 3 * j1, c = 3 * j2;
+        float ux = r1[b] - r0[a], uy = r1[b+1] - r0[a+1], uz = r1[b+2] - r0[a+2];
+        float vx = r2[c] - r0[a], vy = r2[c+1] - r0[a+1], vz = r2[c+2] - r0[a+2];
+        float nx = uy * vz - uz * vy;
+        float ny = uz * vx - ux * vz;
+        float nz = ux * vy - uy * vx;
+        float len = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if(len > 0) {
+            nx /= len;
+            ny /= len;
+            nz /= len;
+        }
+
+        out.putFloat(nx).putFloat(ny).putFloat(nz);
+        out.putFloat(r0[a]).putFloat(r0[a+1]).putFloat(r0[a+2]);
+        out.putFloat(r1[b]).putFloat(r1[b+1]).putFloat(r1[b+2]);
+        out.putFloat(r2[c]).putFloat(r2[c+1]).putFloat(r2[c+2]);
+        out.putShort((short) 0);
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.metrics;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Per-stage timings of shell generation and analysis.
+ *
+ * Metrics are off unless the JVM is started with -Dsnailj.metrics=true, or
+ * with -Dsnailj.trace=file, which also appends one JSON object per timed
+ * stage to that file. When off, {@link #begin(Stage)} returns a shared
+ * no-op span, so instrumented code only pays for a static final check.
+ * When on, every stage is registered as a {@link StageMetricsMXBean} with
+ * the platform MBean server.
+ *
+ * <pre>
+ * try(Metrics.Span span = Metrics.begin(Stage.VOXELIZE)) {
+ *     ...
+ *     span.count(vertices, triangles);
+ * }
+ * </pre>
+ *
+ * A span measures the bytes allocated by the thread that opened it. Stages
+ * that hand their work to a pool add the allocations of its threads by
+ * passing {@link #current()} to the tasks, which wrap their work in
+ * {@link Span#worker()}.
+ *
+ * @author Conrad Mearns
+ */
+public final class Metrics {
+
+    public static final boolean ENABLED = Boolean.getBoolean("snailj.metrics") ||
+                                          System.getProperty("snailj.trace") != null;
+
+    private static final Span NONE = new Span(null);
+    private static final Map<Stage, StageMetrics> stages = new EnumMap<>(Stage.class);
+    private static final ThreadLocal<Span> open = new ThreadLocal<>();
+    private static final com.sun.management.ThreadMXBean threads = threads();
+    private static volatile Writer trace;
+
+    static {
+        if(ENABLED) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for(Stage stage : Stage.values()) {
+                StageMetrics metrics = new StageMetrics(stage);
+                stages.put(stage, metrics);
+                try {
+                    ObjectName name = new ObjectName("sc.iview.snailj:type=Metrics,stage=" + stage.name());
+                    if(!server.isRegistered(name)) {
+                        server.registerMBean(metrics, name);
+                    }
+                } catch(JMException e) {
+                    // NB: Metrics are still collected, just not exported.
+                }
+            }
+            openTrace(System.getProperty("snailj.trace"));
+        }
+    }
+
+    private Metrics() {
+        // NB: Prevent instantiation of utility class.
+    }
+
+    /**
+      * Start timing a stage, which ends when the span is closed
+      */
+    public static Span begin(Stage stage) {
+        return ENABLED ? new Span(stage) : NONE;
+    }
+
+    /**
+      * Innermost span open on the current thread, or the no-op span
+      */
+    public static Span current() {
+        Span span = ENABLED ? open.get() : null;
+        return span != null ? span : NONE;
+    }
+
+    /**
+      * Statistics of a stage, or null when metrics are off
+      */
+    public static StageMetricsMXBean get(Stage stage) {
+        return stages.get(stage);
+    }
+
+    /**
+      * One line per stage that has run
+      */
+    public static String summary() {
+        StringBuilder sb = new StringBuilder();
+        for(StageMetrics metrics : stages.values()) {
+            if(metrics.getCount() > 0) {
+                sb.append(metrics).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+      * One timed run of a stage
+      */
+    public static final class Span implements AutoCloseable {
+        private final Stage stage;
+        private final Span parent;
+        private final Thread owner;
+        private final LongAdder workers;
+        private final long start, bytes;
+        private long vertices, triangles;
+
+        private Span(Stage stage) {
+            this.stage = stage;
+            this.parent = stage != null ? open.get() : null;
+            this.owner = stage != null ? Thread.currentThread() : null;
+            this.workers = stage != null ? new LongAdder() : null;
+            this.bytes = stage != null ? allocated() : 0;
+            this.start = stage != null ? System.nanoTime() : 0;
+            if(stage != null) {
+                open.set(this);
+            }
+        }
+
+        /**
+          * Measure the allocations of work done for this span on another
+          * thread until the worker is closed, which must happen before the
+          * span is closed
+          */
+        public Worker worker() {
+            return stage != null && Thread.currentThread() != owner ? new Worker(workers) : Worker.NONE;
+        }
+
+        /**
+          * Add to the vertices and triangles the stage processed
+          */
+        public Span count(long vertices, long triangles) {
+            this.vertices += vertices;
+            this.triangles += triangles;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if(stage == null) {
+                return;
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocated() - bytes + workers.sum();
+            if(parent != null) {
+                open.set(parent);
+            } else {
+                open.remove();
+            }
+            stages.get(stage).record(elapsed, allocated, vertices, triangles);
+            if(trace != null) {
+                trace(stage, elapsed, allocated, vertices, triangles);
+            }
+        }
+    }
+
+    /**
+      * Part of a span's work run on a pool thread
+      */
+    public static final class Worker implements AutoCloseable {
+        private static final Worker NONE = new Worker(null);
+
+        private final LongAdder total;
+        private final long bytes;
+
+        private Worker(LongAdder total) {
+            this.total = total;
+            this.bytes = total != null ? allocated() : 0;
+        }
+
+        @Override
+        public void close() {
+            if(total != null) {
+                total.add(allocated() - bytes);
+            }
+        }
+    }
+
+    /**
+      * Bytes allocated so far by the current thread, or 0 where the JVM does
+      * not tell
+      */
+    private static long allocated() {
+        return threads != null ? threads.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if(bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+                if(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                    return threads;
+                }
+            }
+        } catch(LinkageError e) {
+            // NB: Not a HotSpot JVM, allocations are not measured.
+        }
+        return null;
+    }
+
+    private static void openTrace(String file) {
+        if(file == null) {
+            return;
+        }
+        try {
+            trace = new BufferedWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8,
+                                                              StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+            Runtime.getRuntime().addShutdownHook(new Thread(Metrics::closeTrace));
+        } catch(IOException e) {
+            System.err.println("Could not open SnailJ trace file " + file + ": " + e);
+        }
+    }
+
+    private static synchronized void trace(Stage stage, long nanos, long bytes, long vertices, long triangles) {
+        if(trace == null) {
+            return;
+        }
+        String thread = Thread.currentThread().getName().replace("\\", "\\\\").replace("\"", "\\\"");
+        try {
+            trace.write("{\"stage\":\"" + stage.name() + "\",\"thread\":\"" + thread + "\",\"time\":" +
+                        System.currentTimeMillis() + ",\"nanos\":" + nanos + ",\"bytes\":" + bytes +
+                        ",\"vertices\":" + vertices + ",\"triangles\":" + triangles + "}\n");
+            trace.flush();
+        } catch(IOException e) {
+            System.err.println("SnailJ trace failed, no longer tracing: " + e);
+            trace = null;
+        }
+    }
+
+    private static synchronized void closeTrace() {
+        if(trace != null) {
+            try {
+                trace.close();
+            } catch(IOException e) {
+                // NB: Nothing left to do at shutdown.
+            }
+            trace = null;
+        }
+    }
+}
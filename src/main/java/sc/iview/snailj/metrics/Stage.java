@@ -0,0 +1,74 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.metrics;
+
+/**
+ * Stages of shell generation and analysis that are timed by {@link Metrics}.
+ *
+ * @author Conrad Mearns
+ */
+public enum Stage {
+    /**
+      * Lookup tables of the spiral and generating curve
+      */
+    CURVE("Curve Evaluation"),
+    /**
+      * Vertices and normals written into the mesh buffers
+      */
+    VERTICES("Vertex Write"),
+    /**
+      * Triangle indices
+      */
+    INDICES("Index Build"),
+    /**
+      * Copying a mesh into a scene node
+      */
+    UPLOAD("Scene Upload"),
+    VOXELIZE("Voxelization"),
+    BOX_COUNT("Box Counting"),
+    /**
+      * Random points on a mesh's surface, for the fast estimator
+      */
+    SAMPLE("Surface Sampling"),
+    /**
+      * Neighbour counts of sampled points, for the correlation integral
+      */
+    CORRELATE("Pair Counting"),
+    FIT("Curve Fit");
+
+    private final String label;
+
+    Stage(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
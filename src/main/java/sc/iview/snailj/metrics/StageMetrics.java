@@ -0,0 +1,167 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free accumulators of one stage, with the latencies in a histogram
+ * of 64 power of two nanosecond buckets.
+ *
+ * @author Conrad Mearns
+ */
+class StageMetrics implements StageMetricsMXBean {
+
+    private final Stage stage;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder vertices = new LongAdder();
+    private final LongAdder triangles = new LongAdder();
+    private final LongAdder[] histogram = new LongAdder[64];
+
+    StageMetrics(Stage stage) {
+        this.stage = stage;
+        for(int i = 0; i < histogram.length; i++) {
+            histogram[i] = new LongAdder();
+        }
+    }
+
+    void record(long elapsed, long allocated, long vertexCount, long triangleCount) {
+        count.increment();
+        nanos.add(elapsed);
+        max.accumulate(elapsed);
+        bytes.add(allocated);
+        vertices.add(vertexCount);
+        triangles.add(triangleCount);
+        histogram[63 - Long.numberOfLeadingZeros(Math.max(1, elapsed))].increment();
+    }
+
+    @Override
+    public String getStage() {
+        return stage.getLabel();
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public double getTotalMillis() {
+        return nanos.sum() / 1e6;
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : nanos.sum() / 1e6 / n;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return max.get() / 1e6;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return percentile(0.5);
+    }
+
+    @Override
+    public double getP90Millis() {
+        return percentile(0.9);
+    }
+
+    @Override
+    public double getP99Millis() {
+        return percentile(0.99);
+    }
+
+    /**
+      * Upper bound of the histogram bucket holding the given quantile
+      */
+    private double percentile(double q) {
+        long[] buckets = new long[histogram.length];
+        long total = 0;
+        for(int i = 0; i < buckets.length; i++) {
+            buckets[i] = histogram[i].sum();
+            total += buckets[i];
+        }
+        if(total == 0) {
+            return 0;
+        }
+        long rank = (long)Math.ceil(q * total);
+        long seen = 0;
+        for(int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if(seen >= rank) {
+                return Math.min(Math.pow(2, i + 1), max.get()) / 1e6;
+            }
+        }
+        return max.get() / 1e6;
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getVertices() {
+        return vertices.sum();
+    }
+
+    @Override
+    public long getTriangles() {
+        return triangles.sum();
+    }
+
+    @Override
+    public void reset() {
+        count.reset();
+        nanos.reset();
+        max.reset();
+        bytes.reset();
+        vertices.reset();
+        triangles.reset();
+        for(LongAdder bucket : histogram) {
+            bucket.reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d x %.3f ms (p50 %.3f, p99 %.3f, max %.3f), %d bytes, %d vertices, %d triangles",
+                             getStage(), getCount(), getMeanMillis(), getP50Millis(), getP99Millis(), getMaxMillis(),
+                             getAllocatedBytes(), getVertices(), getTriangles());
+    }
+}
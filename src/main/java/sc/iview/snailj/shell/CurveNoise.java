@@ -0,0 +1,59 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.shell;
+
+/**
+ * Source of the bumps added to the generating curve.
+ *
+ * Samples are addressed by spiral row and curve column rather than drawn in
+ * sequence, so a value never depends on the order or the thread the rows
+ * are evaluated on, and the same seed always regenerates the same shell.
+ *
+ * @author Conrad Mearns
+ */
+public interface CurveNoise {
+
+    String RANDOM = "Random";
+    String SMOOTH = "Smooth";
+
+    /**
+      * Value in [0, 1) for sample j of spiral row i
+      */
+    double sample(int i, int j);
+
+    /**
+      * Noise source selected by {@link ShellParameters#noise}
+      */
+    static CurveNoise create(ShellParameters p) {
+        if(SMOOTH.equals(p.noise)) {
+            return new ValueNoise(p.seed, p.segmentsPerTurn, p.cseg, p.noiseFrequency);
+        }
+        return new WhiteNoise(p.seed);
+    }
+}
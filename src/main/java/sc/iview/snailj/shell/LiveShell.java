@@ -0,0 +1,101 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.shell;
+
+import net.imagej.mesh.nio.BufferMesh;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.EnumSet;
+
+/**
+ * A shell that is edited in place. Each {@link #update} classifies which
+ * parameters changed, recomputes only the affected lookup tables and
+ * re-evaluates the vertices and their normals into the existing buffers. The triangle indices
+ * only depend on hseg and cseg and are kept unless those change.
+ *
+ * @author Conrad Mearns
+ */
+public class LiveShell {
+
+    private final ShellBuilder builder;
+    private ShellTables tables;
+    private FloatBuffer verts, normals;
+    private IntBuffer indices;
+    private BufferMesh mesh;
+
+    public LiveShell(ShellParameters p, int threads) {
+        builder = new ShellBuilder(threads);
+        tables = new ShellTables(p);
+        allocate();
+        ShellKernel.triangles(tables.p, indices);
+        builder.evaluate(tables, verts, normals);
+    }
+
+    public ShellParameters getParameters() {
+        return tables.getParameters();
+    }
+
+    /**
+      * The current mesh. A new instance is only created when the topology
+      * changes, otherwise its buffers are updated in place.
+      */
+    public BufferMesh getMesh() {
+        return mesh;
+    }
+
+    /**
+      * Apply edited parameters.
+      * @return The terms that changed, empty if nothing was recomputed
+      */
+    public EnumSet<ShellChange> update(ShellParameters next) {
+        EnumSet<ShellChange> changes = tables.update(next);
+        if(changes.isEmpty()) {
+            return changes;
+        }
+
+        if(changes.contains(ShellChange.TOPOLOGY)) {
+            allocate();
+            ShellKernel.triangles(tables.p, indices);
+        }
+        builder.evaluate(tables, verts, normals);
+        return changes;
+    }
+
+    private void allocate() {
+        int vertexCount = tables.p.vertexCount();
+        int triangleCount = tables.p.triangleCount();
+
+        verts = ShellKernel.floats(3 * vertexCount);
+        normals = ShellKernel.floats(3 * vertexCount);
+        indices = ShellKernel.ints(3 * triangleCount);
+        mesh = new BufferMesh(verts, normals, ShellKernel.floats(2 * vertexCount),
+                              indices, ShellKernel.floats(3 * triangleCount));
+    }
+}
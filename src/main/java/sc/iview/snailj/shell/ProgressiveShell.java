@@ -0,0 +1,198 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.shell;
+
+import net.imagej.mesh.nio.BufferMesh;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Generates a shell in steps so it can be shown while it is being built.
+ * A coarse version of the whole shell is published first, then the full
+ * resolution rows are evaluated band by band along the spiral, and after
+ * each band a mesh joining the refined rows to the coarse rest of the
+ * shell is published. Generation stops between bands once cancelled.
+ *
+ * @author Conrad Mearns
+ */
+public class ProgressiveShell {
+
+    /**
+      * Resolution of the coarse preview, per turn and around the curve
+      */
+    public static final int COARSE_SEGMENTS = 16;
+
+    /**
+      * Number of bands the full resolution rows are evaluated in
+      */
+    public static final int BANDS = 8;
+
+    /**
+      * Receives each mesh as it becomes available. Called on the generating
+      * thread, the meshes are not modified afterwards.
+      */
+    public interface Listener {
+        /**
+          * @param progress Fraction of the full resolution rows in the mesh
+          * @param done Whether this is the finished shell
+          */
+        void publish(BufferMesh mesh, double progress, boolean done);
+    }
+
+    private final ShellParameters p;
+    private final ShellBuilder builder;
+    private volatile boolean cancelled;
+
+    public ProgressiveShell(ShellParameters p, int threads) {
+        this.p = p.copy();
+        this.builder = new ShellBuilder(threads);
+    }
+
+    public ShellParameters getParameters() {
+        return p;
+    }
+
+    /**
+      * Stop generating after the band being evaluated. Nothing further is
+      * published.
+      */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+      * Generate the shell, publishing the coarse preview, the partially
+      * refined meshes and finally the full shell.
+      *
+      * @return The full shell
+      * @throws CancellationException if cancelled or interrupted first
+      */
+    public BufferMesh generate(Listener listener) {
+        checkCancelled();
+        ShellParameters coarse = p.copy();
+        coarse.segmentsPerTurn = Math.min(p.segmentsPerTurn, COARSE_SEGMENTS);
+        coarse.cseg = Math.min(p.cseg, COARSE_SEGMENTS);
+        boolean preview = coarse.vertexCount() * 4 <= p.vertexCount();
+
+        ShellTables coarseTables = null;
+        BufferMesh coarseMesh = null;
+        if(preview) {
+            coarseTables = new ShellTables(coarse);
+            coarseMesh = builder.build(coarse);
+            checkCancelled();
+            listener.publish(coarseMesh, 0, false);
+        }
+
+        ShellTables tables = new ShellTables(p);
+        int hseg = tables.hseg, cseg = tables.cseg;
+        FloatBuffer verts = ShellKernel.floats(3 * hseg * cseg);
+        FloatBuffer normals = ShellKernel.floats(3 * hseg * cseg);
+
+        int bands = preview ? Math.min(BANDS, hseg) : 1;
+        for(int band = 0; band < bands; band++) {
+            int start = (int)((long)hseg * band / bands);
+            int end = (int)((long)hseg * (band + 1) / bands);
+            builder.evaluate(tables, verts, normals, start, end);
+            checkCancelled();
+            if(end < hseg) {
+                if(p.bumpiness != 0) {
+                    ShellTopology.normals(verts, end, cseg, normals);
+                }
+                listener.publish(join(tables, verts, normals, end, coarseTables, coarseMesh),
+                                 (double)end / hseg, false);
+            }
+        }
+        ShellKernel.bumpNormals(tables, verts, normals);
+
+        IntBuffer indices = ShellKernel.ints(3 * p.triangleCount());
+        ShellKernel.triangles(p, indices);
+        BufferMesh mesh = new BufferMesh(verts, normals, ShellKernel.floats(2 * hseg * cseg),
+                                         indices, ShellKernel.floats(3 * p.triangleCount()));
+        listener.publish(mesh, 1, true);
+        return mesh;
+    }
+
+    private void checkCancelled() {
+        if(cancelled || Thread.currentThread().isInterrupted()) {
+            cancelled = true;
+            throw new CancellationException("Shell generation cancelled");
+        }
+    }
+
+    /**
+      * The first rows of the full resolution shell followed by the rows of
+      * the coarse shell from where the refined ones end, as one triangle
+      * list. The two parts are not stitched together.
+      */
+    static BufferMesh join(ShellTables fine, FloatBuffer verts, FloatBuffer normals, int rows,
+                           ShellTables coarse, BufferMesh coarseMesh) {
+        int m = fine.cseg, cm = coarse.cseg;
+        int first = 0;
+        while(first < coarse.hseg && coarse.theta[first] < fine.theta[rows - 1]) {
+            first++;
+        }
+        int coarseRows = coarse.hseg - first;
+        int fineVerts = rows * m;
+        int vertexCount = fineVerts + coarseRows * cm;
+        int triangleCount = 2 * (rows - 1) * m + 2 * Math.max(0, coarseRows - 1) * cm;
+
+        FloatBuffer v = ShellKernel.floats(3 * vertexCount);
+        FloatBuffer n = ShellKernel.floats(3 * vertexCount);
+        v.put(slice(verts, 0, 3 * fineVerts));
+        n.put(slice(normals, 0, 3 * fineVerts));
+        v.put(slice(coarseMesh.vertices().verts(), 3 * first * cm, 3 * coarseRows * cm));
+        n.put(slice(coarseMesh.vertices().normals(), 3 * first * cm, 3 * coarseRows * cm));
+        v.flip();
+        n.flip();
+
+        IntBuffer indices = ShellKernel.ints(3 * triangleCount);
+        ShellKernel.triangles(fine.p, indices, 0, rows - 1);
+        IntBuffer coarseIndices = coarseMesh.triangles().indices();
+        int offset = fineVerts - first * cm;
+        for(int k = 6 * first * cm, end = 6 * (coarse.hseg - 1) * cm, to = 6 * (rows - 1) * m; k < end; k++) {
+            indices.put(to++, coarseIndices.get(k) + offset);
+        }
+
+        return new BufferMesh(v, n, ShellKernel.floats(2 * vertexCount),
+                              indices, ShellKernel.floats(3 * triangleCount));
+    }
+
+    private static FloatBuffer slice(FloatBuffer buffer, int from, int count) {
+        FloatBuffer slice = buffer.duplicate();
+        slice.limit(from + count);
+        slice.position(from);
+        return slice;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.shell;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Evaluates a band of spiral rows into vertex and normal buffers, laid out
+ * as in {@link ShellKernel#evaluateRows(ShellTables, FloatBuffer, FloatBuffer, int, int)}.
+ *
+ * The scalar kernel computes in double precision. When built with the
+ * vector-api profile and run with the jdk.incubator.vector module, a float32
+ * SIMD kernel (VectorShellKernel) can be chosen instead; it is loaded
+ * reflectively so that the rest of the code still runs on Java 8.
+ *
+ * @author Conrad Mearns
+ */
+interface RowKernel {
+
+    String VECTOR_CLASS = "sc.iview.snailj.shell.VectorShellKernel";
+
+    RowKernel SCALAR = ShellKernel::evaluateRows;
+
+    void evaluateRows(ShellTables t, FloatBuffer xyz, FloatBuffer normals, int rowStart, int rowEnd);
+
+    /**
+      * The vector kernel, or the scalar one when it was not compiled in or
+      * the jdk.incubator.vector module is not available
+      */
+    static RowKernel vector() {
+        return Vector.KERNEL;
+    }
+
+    /**
+      * Loads the vector kernel once, on first use
+      */
+    final class Vector {
+        static final RowKernel KERNEL = load();
+
+        private static RowKernel load() {
+            try {
+                return Class.forName(VECTOR_CLASS).asSubclass(RowKernel.class).getDeclaredConstructor().newInstance();
+            } catch(ReflectiveOperationException | LinkageError e) {
+                return SCALAR;
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.shell;
+
+import sc.iview.snailj.metrics.Metrics;
+import sc.iview.snailj.metrics.Stage;
+
+import net.imagej.mesh.nio.BufferMesh;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds shell meshes on several threads. The spiral rows are split into
+ * bands, and each band writes its vertices, normals and triangles into a
+ * disjoint slice of preallocated vertex, normal and index buffers. With
+ * {@link Metrics} on, the triangles are written in a second pass, so that
+ * the two stages are timed apart. The output is bit for bit the same as {@link ShellKernel#toMesh(ShellParameters)}, unless the
+ * float32 vector kernel is used, see {@link #ShellBuilder(int, boolean)}.
+ *
+ * @author Conrad Mearns
+ */
+public class ShellBuilder {
+
+    /**
+      * Bands per thread, so that uneven bands still balance out
+      */
+    private static final int BANDS_PER_THREAD = 4;
+
+    private final int threads;
+    private final RowKernel rows;
+
+    /**
+      * Shared by every build; its idle threads end on their own
+      */
+    private ForkJoinPool pool;
+
+    /**
+      * @param threads Number of worker threads, or 0 to use every core. The
+      *   vector kernel is used if the snailj.vector system property is true.
+      */
+    public ShellBuilder(int threads) {
+        this(threads, Boolean.getBoolean("snailj.vector"));
+    }
+
+    /**
+      * @param threads Number of worker threads, or 0 to use every core
+      * @param vector Evaluate smooth shells with the float32 SIMD kernel when
+      *   it was built (vector-api profile) and the jdk.incubator.vector
+      *   module is available. Its vertices differ from the double precision
+      *   ones by less than 2e-7 of the shell's extent on the presets.
+      */
+    public ShellBuilder(int threads, boolean vector) {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.rows = vector ? RowKernel.vector() : RowKernel.SCALAR;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+      * Whether rows are evaluated by the vector kernel
+      */
+    public boolean isVectorized() {
+        return rows != RowKernel.SCALAR;
+    }
+
+    public BufferMesh build(ShellParameters p) {
+        int vertexCount = p.vertexCount();
+        int triangleCount = p.triangleCount();
+
+        FloatBuffer verts = ShellKernel.floats(3 * vertexCount);
+        FloatBuffer normals = ShellKernel.floats(3 * vertexCount);
+        IntBuffer indices = ShellKernel.ints(3 * triangleCount);
+
+        build(p, verts, normals, indices);
+
+        return new BufferMesh(verts, normals, ShellKernel.floats(2 * vertexCount),
+                              indices, ShellKernel.floats(3 * triangleCount));
+    }
+
+    /**
+      * Fill preallocated buffers, starting at their current positions, with
+      * the vertices and triangle indices of the shell.
+      */
+    public void build(ShellParameters p, FloatBuffer verts, IntBuffer indices) {
+        build(p, verts, null, indices);
+    }
+
+    /**
+      * Fill preallocated buffers with the vertices, their normals, unless
+      * normals is null, and the triangle indices of the shell.
+      */
+    public void build(ShellParameters p, FloatBuffer verts, FloatBuffer normals, IntBuffer indices) {
+        ShellTables tables;
+        try(Metrics.Span span = Metrics.begin(Stage.CURVE)) {
+            tables = new ShellTables(p);
+        }
+        if(!Metrics.ENABLED) {
+            run(tables, verts, normals, indices, 0, tables.hseg);
+            ShellKernel.bumpNormals(tables, verts, normals);
+            return;
+        }
+        evaluate(tables, verts, normals);
+        try(Metrics.Span span = Metrics.begin(Stage.INDICES).count(0, p.triangleCount())) {
+            run(tables, null, null, indices, 0, tables.hseg);
+        }
+    }
+
+    /**
+      * Re-evaluate only the vertices of a shell into a preallocated buffer,
+      * e.g. after its tables were updated for edited parameters.
+      */
+    public void evaluate(ShellTables tables, FloatBuffer verts) {
+        evaluate(tables, verts, null);
+    }
+
+    public void evaluate(ShellTables tables, FloatBuffer verts, FloatBuffer normals) {
+        try(Metrics.Span span = Metrics.begin(Stage.VERTICES).count((long)tables.hseg * tables.cseg, 0)) {
+            run(tables, verts, normals, null, 0, tables.hseg);
+            ShellKernel.bumpNormals(tables, verts, normals);
+        }
+    }
+
+    /**
+      * Evaluate only spiral rows [rowStart, rowEnd) into their slice of the
+      * buffers. The normals of bumpy shells are not filled in, since they
+      * need the neighbouring rows.
+      */
+    public void evaluate(ShellTables tables, FloatBuffer verts, FloatBuffer normals, int rowStart, int rowEnd) {
+        try(Metrics.Span span = Metrics.begin(Stage.VERTICES).count((long)(rowEnd - rowStart) * tables.cseg, 0)) {
+            run(tables, verts, normals, null, rowStart, rowEnd);
+        }
+    }
+
+    private void run(ShellTables tables, FloatBuffer verts, FloatBuffer normals, IntBuffer indices,
+                     int rowStart, int rowEnd) {
+        int count = rowEnd - rowStart;
+        Metrics.Span span = Metrics.current();
+
+        if(threads == 1 || count < 2) {
+            new Band(span, rows, tables, verts, normals, indices, rowStart, rowEnd, count).compute();
+        } else {
+            int grain = Math.max(1, count / (threads * BANDS_PER_THREAD));
+            pool().invoke(new Band(span, rows, tables, verts, normals, indices, rowStart, rowEnd, grain));
+        }
+    }
+
+    private synchronized ForkJoinPool pool() {
+        if(pool == null) {
+            pool = new ForkJoinPool(threads);
+        }
+        return pool;
+    }
+
+    /**
+      * Rows [start, end) of the spiral when there is a vertex buffer, and the
+      * quads joining each of those rows to the next one when there is an
+      * index buffer.
+      */
+    private static class Band extends RecursiveAction {
+        private final Metrics.Span span;
+        private final RowKernel rows;
+        private final ShellTables t;
+        private final FloatBuffer verts, normals;
+        private final IntBuffer indices;
+        private final int start, end, grain;
+
+        Band(Metrics.Span span, RowKernel rows, ShellTables t, FloatBuffer verts, FloatBuffer normals,
+             IntBuffer indices, int start, int end, int grain) {
+            this.span = span;
+            this.rows = rows;
+            this.t = t;
+            this.verts = verts;
+            this.normals = normals;
+            this.indices = indices;
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if(end - start <= grain) {
+                try(Metrics.Worker worker = span.worker()) {
+                    if(verts != null) {
+                        rows.evaluateRows(t, verts, normals, start, end);
+                    }
+                    if(indices != null) {
+                        ShellKernel.triangles(t.p, indices, start, Math.min(end, t.hseg - 1));
+                    }
+                }
+            } else {
+                int mid = (start + end) >>> 1;
+                invokeAll(new Band(span, rows, t, verts, normals, indices, start, mid, grain),
+                          new Band(span, rows, t, verts, normals, indices, mid, end, grain));
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.shell;
+
+import java.util.EnumSet;
+
+/**
+ * Groups of shell terms that a parameter change invalidates. Used to
+ * recompute only the affected lookup tables when a shell is edited.
+ *
+ * @author Conrad Mearns
+ */
+public enum ShellChange {
+    /** hseg or cseg, i.e. the triangle indices */
+    TOPOLOGY,
+    /** segmentsPerTurn, or the adaptive spacing: the theta of every row */
+    SPIRAL,
+    /** alpha: exp(theta / tan(alpha)) */
+    GROWTH,
+    /** omega: cos/sin(theta + omega) */
+    TURN,
+    /** N, W2: the theta half of the node function */
+    NODE_ROW,
+    /** L, P, W1: the s half of the node function */
+    NODE_COLUMN,
+    /** phi: cos/sin(s + phi) */
+    CURVE_PHASE,
+    /** a, b: C_ellipse */
+    ELLIPSE,
+    /** D, A, beta, mu: terms independent of theta and s */
+    CONSTANTS,
+    /** bumpiness and its seed, style and frequency */
+    NOISE;
+
+    /**
+      * Classify which terms differ between two parameter sets
+      */
+    public static EnumSet<ShellChange> between(ShellParameters from, ShellParameters to) {
+        EnumSet<ShellChange> changes = EnumSet.noneOf(ShellChange.class);
+
+        if(from.hseg() != to.hseg() || from.cseg != to.cseg) {
+            changes.add(TOPOLOGY);
+        }
+        if(from.segmentsPerTurn != to.segmentsPerTurn || from.adaptive != to.adaptive ||
+           (to.adaptive && (from.alpha != to.alpha || from.turns != to.turns))) {
+            changes.add(SPIRAL);
+        }
+        if(from.alpha != to.alpha) {
+            changes.add(GROWTH);
+        }
+        if(from.omega != to.omega) {
+            changes.add(TURN);
+        }
+        if(hasNodes(from) != hasNodes(to)) {
+            changes.add(NODE_ROW);
+            changes.add(NODE_COLUMN);
+        }
+        if(from.N != to.N || from.W2 != to.W2) {
+            changes.add(NODE_ROW);
+        }
+        if(from.L != to.L || from.P != to.P || from.W1 != to.W1) {
+            changes.add(NODE_COLUMN);
+        }
+        if(from.phi != to.phi) {
+            changes.add(CURVE_PHASE);
+        }
+        if(from.a != to.a || from.b != to.b) {
+            changes.add(ELLIPSE);
+        }
+        if(from.D != to.D || from.A != to.A || from.beta != to.beta || from.mu != to.mu) {
+            changes.add(CONSTANTS);
+        }
+        if(from.bumpiness != to.bumpiness || from.seed != to.seed ||
+           !from.noise.equals(to.noise) || from.noiseFrequency != to.noiseFrequency) {
+            changes.add(NOISE);
+        }
+        return changes;
+    }
+
+    static boolean hasNodes(ShellParameters p) {
+        return !(p.W1 == 0 || p.W2 == 0 || p.N == 0);
+    }
+}
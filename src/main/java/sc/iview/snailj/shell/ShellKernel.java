@@ -0,0 +1,356 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.shell;
+
+import sc.iview.snailj.metrics.Metrics;
+import sc.iview.snailj.metrics.Stage;
+
+import net.imagej.mesh.nio.BufferMesh;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Shell evaluation kernel, based on the paper by Jorge Picado
+ * http://www.mat.uc.pt/~picado/conchas/eng/article.pdf
+ *
+ * Vertices are written straight into flat xyz arrays or buffers, row by row
+ * along the spiral, so evaluating a shell does not allocate per sample. The
+ * trigonometric and exponential terms come from {@link ShellTables}, which
+ * holds one array per term of length hseg or cseg; beyond those
+ * {@link #evaluate(ShellParameters, float[])} allocates nothing, and
+ * {@link #toMesh(ShellParameters)} allocates only the mesh buffers.
+ *
+ * Rows are independent of each other, and the bumps come from a
+ * {@link CurveNoise} addressed by row and column, so the row range variants
+ * can be run on disjoint bands in parallel (see {@link ShellBuilder}) and
+ * produce exactly the same output as a serial evaluation.
+ *
+ * @author Conrad Mearns
+ * @author Kyle Harrington
+ */
+public final class ShellKernel {
+
+    private ShellKernel() {
+        // NB: Prevent instantiation of utility class.
+    }
+
+    /**
+      * Curve function, without the random bumps
+      * @param s The angle, in radians, that maps to a point on an ellipse
+      */
+    public static double C_ellipse(ShellParameters p, double s) {
+        return Math.pow(Math.pow(Math.cos(s)/p.a, 2) + Math.pow(Math.sin(s)/p.b, 2), -0.5);
+    }
+
+    /**
+      * Node function, allows malformation of the standard ellipse curve to
+      * introduce bumps and spines
+      * @param s The angle, in radians, that maps to a point on an ellipse
+      * @param theta The angle, in radians, that maps to a point on a spiral
+      */
+    public static double C_node(ShellParameters p, double s, double theta) {
+        if(p.W1 == 0 || p.W2 == 0 || p.N == 0) {
+            return 0;
+        } else {
+            double l = ((2 * Math.PI) / p.N) * ((p.N * theta)/(2 * Math.PI) - (int)((p.N * theta)/(2 * Math.PI)));
+            return p.L * Math.exp(-(Math.pow(2*(s-p.P)/p.W1, 2) + Math.pow(2*l/p.W2, 2)));
+        }
+    }
+
+    /**
+      * X, Y, and Z functions for shell generation.
+      * @param s The angle, in radians, that maps to a point on an ellipse
+      * @param theta The angle, in radians, that maps to a point on a spiral
+      * @param curve The combination of all curve-related functions with
+      *   corresponding s and theta values
+      */
+    public static double S_x(ShellParameters p, double theta, double s, double curve) {
+        return p.D * (p.A * Math.sin(p.beta) * Math.cos(theta) +
+                        Math.cos(s + p.phi) * Math.cos(theta + p.omega) * curve -
+                        Math.sin(p.mu) * Math.sin(s + p.phi) * Math.sin(theta + p.omega) * curve
+                      ) * Math.exp(theta / Math.tan(p.alpha));
+    }
+
+    public static double S_y(ShellParameters p, double theta, double s, double curve) {
+        return (p.A * Math.sin(p.beta) * Math.sin(theta) +
+                  Math.cos(s + p.phi) * Math.sin(theta + p.omega) * curve -
+                  Math.sin(p.mu) * Math.sin(s + p.phi) * Math.cos(theta + p.omega) * curve
+                ) * Math.exp(theta / Math.tan(p.alpha));
+    }
+
+    public static double S_z(ShellParameters p, double theta, double s, double curve) {
+        return (-p.A * Math.cos(p.beta) +
+                  Math.cos(p.mu) * Math.sin(s + p.phi) * curve
+                ) * Math.exp(theta / Math.tan(p.alpha));
+    }
+
+    /**
+      * Evaluate every vertex of the shell into a flat xyz array, laid out
+      * row by row along the spiral (vertex i*cseg+j at offset 3*(i*cseg+j)).
+      */
+    public static void evaluate(ShellParameters p, float[] xyz) {
+        evaluateRows(new ShellTables(p), xyz, 0, p.hseg());
+    }
+
+    /**
+      * Evaluate spiral rows [rowStart, rowEnd) into their slice of a flat xyz
+      * array laid out as in {@link #evaluate(ShellParameters, float[])}.
+      */
+    public static void evaluateRows(ShellTables t, float[] xyz, int rowStart, int rowEnd) {
+        for(int i = rowStart; i < rowEnd; i++) {
+            row(t, i, xyz, 3 * i * t.cseg, null);
+        }
+    }
+
+    /**
+      * Evaluate a single spiral row into xyz[offset .. offset + 3*cseg), for
+      * callers that stream the shell a few rows at a time. The row must be
+      * held by the tables, which may cover only a band of the shell.
+      */
+    public static void evaluateRow(ShellTables t, int i, float[] xyz, int offset) {
+        row(t, i, xyz, offset, null);
+    }
+
+    /**
+      * Evaluate every vertex of the shell into a buffer, starting at its
+      * current position. The position itself is left untouched.
+      */
+    public static void evaluate(ShellParameters p, FloatBuffer xyz) {
+        evaluateRows(new ShellTables(p), xyz, 0, p.hseg());
+    }
+
+    /**
+      * Evaluate spiral rows [rowStart, rowEnd) into their slice of the buffer,
+      * without moving its position, so that disjoint row ranges can be
+      * written to the same buffer from several threads.
+      */
+    public static void evaluateRows(ShellTables t, FloatBuffer xyz, int rowStart, int rowEnd) {
+        evaluateRows(t, xyz, null, rowStart, rowEnd);
+    }
+
+    /**
+      * Evaluate spiral rows [rowStart, rowEnd) together with their unit
+      * normals, laid out like the vertices, if normals is not null.
+      *
+      * The normal is dS/dtheta x dS/ds, from the analytic derivatives of the
+      * separable terms, with the common factor exp(theta / tan(alpha))
+      * dropped. The random bumps have no derivative, so the normals of bumpy
+      * shells are left for {@link #bumpNormals} once every row is evaluated.
+      */
+    public static void evaluateRows(ShellTables t, FloatBuffer xyz, FloatBuffer normals, int rowStart, int rowEnd) {
+        int cseg = t.cseg;
+        boolean analytic = normals != null && t.p.bumpiness == 0;
+        float[] row = new float[3 * cseg];
+        float[] rowNormals = analytic ? new float[3 * cseg] : null;
+
+        // NB: Duplicates leave the positions of the shared buffers alone.
+        FloatBuffer out = xyz.duplicate();
+        FloatBuffer outNormals = analytic ? normals.duplicate() : null;
+        for(int i = rowStart; i < rowEnd; i++) {
+            row(t, i, row, 0, rowNormals);
+            out.position(xyz.position() + 3 * i * cseg);
+            out.put(row);
+            if(analytic) {
+                outNormals.position(normals.position() + 3 * i * cseg);
+                outNormals.put(rowNormals);
+            }
+        }
+    }
+
+    /**
+      * The row loop behind every evaluate method: spiral row i into xyz from
+      * offset k, and its analytic normals into normals from index 0 unless
+      * normals is null or the shell is bumpy.
+      */
+    private static void row(ShellTables t, int i, float[] xyz, int k, float[] normals) {
+        int cseg = t.cseg;
+        double bumpiness = t.p.bumpiness;
+        CurveNoise noise = t.noise;
+        boolean analytic = normals != null && bumpiness == 0;
+        int n = 0;
+        double sinMu = t.sinMu, cosMu = t.cosMu, cot = t.cot;
+
+        int r = i - t.firstRow;
+        double e = t.growth[r];
+        double x0 = t.Asb * t.cosTheta[r];
+        double y0 = t.Asb * t.sinTheta[r];
+        double ct = t.cosTurn[r], st = t.sinTurn[r], node = t.nodeRow[r];
+        for(int j = 0; j < cseg; j++) {
+            double c = t.ellipse[j] + t.nodeCol[j] * node;
+            if(bumpiness != 0) {
+                c += noise.sample(i, j) * bumpiness;
+            }
+            double cs = t.cosCurve[j], ss = t.sinCurve[j];
+
+            double px = cs * ct - sinMu * ss * st;
+            double py = cs * st - sinMu * ss * ct;
+            double pz = cosMu * ss;
+            double fx = x0 + px * c, fy = y0 + py * c, fz = -t.Acb + pz * c;
+
+            xyz[k++] = (float)(t.D * fx * e);
+            xyz[k++] = (float)(fy * e);
+            xyz[k++] = (float)(fz * e);
+
+            if(analytic) {
+                // d/dtheta of (F exp(cot theta)) / exp(cot theta) = cot F + dF/dtheta
+                double cTheta = t.nodeCol[j] * t.nodeRowSlope[r];
+                double ux = t.D * (cot * fx - t.Asb * t.sinTheta[r] - (cs * st + sinMu * ss * ct) * c + px * cTheta);
+                double uy = cot * fy + t.Asb * t.cosTheta[r] + (cs * ct + sinMu * ss * st) * c + py * cTheta;
+                double uz = cot * fz + pz * cTheta;
+
+                double cS = t.ellipseSlope[j] + t.nodeColSlope[j] * node;
+                double vx = t.D * (-(ss * ct + sinMu * cs * st) * c + px * cS);
+                double vy = -(ss * st + sinMu * cs * ct) * c + py * cS;
+                double vz = cosMu * cs * c + pz * cS;
+
+                double nx = uy * vz - uz * vy;
+                double ny = uz * vx - ux * vz;
+                double nz = ux * vy - uy * vx;
+                double len = Math.sqrt(nx * nx + ny * ny + nz * nz);
+                double scale = len > 0 ? 1 / len : 0;
+
+                normals[n++] = (float)(nx * scale);
+                normals[n++] = (float)(ny * scale);
+                normals[n++] = (float)(nz * scale);
+            }
+        }
+    }
+
+    /**
+      * Fill in the normals of a bumpy shell from its evaluated vertices, with
+      * central differences over the grid. Smooth shells already have their
+      * analytic normals, and are left alone.
+      */
+    static void bumpNormals(ShellTables t, FloatBuffer xyz, FloatBuffer normals) {
+        if(normals != null && t.p.bumpiness != 0) {
+            ShellTopology.normals(xyz.slice(), t.hseg, t.cseg, normals.slice());
+        }
+    }
+
+    /**
+      * Evaluate every vertex with the S_x, S_y and S_z formulas directly,
+      * without lookup tables. This is several times slower and only kept as
+      * the reference that the separable evaluation is checked against.
+      */
+    public static void evaluateReference(ShellParameters p, float[] xyz) {
+        int hseg = p.hseg();
+        int cseg = p.cseg;
+        double[] thetas = new double[hseg];
+        ShellTables.spiral(p, thetas);
+        CurveNoise noise = CurveNoise.create(p);
+
+        int k = 0;
+        for(int i = 0; i < hseg; i++) {
+            double theta = thetas[i];
+            for(int j = 0; j < cseg; j++) {
+                double s = j * (2 * Math.PI) / cseg;
+                double c = C_ellipse(p, s) + C_node(p, s, theta);
+                if(p.bumpiness != 0) {
+                    c += noise.sample(i, j) * p.bumpiness;
+                }
+
+                xyz[k++] = (float)S_x(p, theta, s, c);
+                xyz[k++] = (float)S_y(p, theta, s, c);
+                xyz[k++] = (float)S_z(p, theta, s, c);
+            }
+        }
+    }
+
+    /**
+      * Write the triangle indices of the shell grid, starting at the current
+      * position of the buffer. Each quad between two neighbouring spiral rows
+      * becomes two triangles, wrapping around the generating curve.
+      */
+    public static void triangles(ShellParameters p, IntBuffer indices) {
+        triangles(p, indices, 0, p.hseg() - 1);
+    }
+
+    /**
+      * Write the triangles of quad rows [rowStart, rowEnd), i.e. the strips
+      * joining spiral row i to row i+1, into their slice of the buffer.
+      */
+    public static void triangles(ShellParameters p, IntBuffer indices, int rowStart, int rowEnd) {
+        triangles(p.cseg, indices, rowStart, rowEnd);
+    }
+
+    static void triangles(int m, IntBuffer indices, int rowStart, int rowEnd) {
+
+        int k = indices.position() + 6 * rowStart * m;
+        for(int i = rowStart; i < rowEnd; i++) {
+            for(int j = 0; j < m; j++) {
+                indices.put(k++, m*i+j);
+                indices.put(k++, (i+1)*m+(j+1)%m);
+                indices.put(k++, m*i+(j+1)%m);
+
+                indices.put(k++, m*i+j);
+                indices.put(k++, (i+1)*m+j);
+                indices.put(k++, (i+1)*m+(j+1)%m);
+            }
+        }
+    }
+
+    /**
+      * Build the shell as a mesh, writing vertices, their normals and the
+      * indices directly into the buffers backing the {@link BufferMesh}.
+      */
+    public static BufferMesh toMesh(ShellParameters p) {
+        int vertexCount = p.vertexCount();
+        int triangleCount = p.triangleCount();
+
+        FloatBuffer verts = floats(3 * vertexCount);
+        FloatBuffer normals = floats(3 * vertexCount);
+        IntBuffer indices = ints(3 * triangleCount);
+
+        ShellTables t;
+        try(Metrics.Span span = Metrics.begin(Stage.CURVE)) {
+            t = new ShellTables(p);
+        }
+        try(Metrics.Span span = Metrics.begin(Stage.VERTICES).count(vertexCount, 0)) {
+            evaluateRows(t, verts, normals, 0, t.hseg);
+            bumpNormals(t, verts, normals);
+        }
+        try(Metrics.Span span = Metrics.begin(Stage.INDICES).count(0, triangleCount)) {
+            triangles(p, indices);
+        }
+
+        return new BufferMesh(verts, normals, floats(2 * vertexCount),
+                              indices, floats(3 * triangleCount));
+    }
+
+    static FloatBuffer floats(int count) {
+        return ByteBuffer.allocateDirect(4 * count).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    static IntBuffer ints(int count) {
+        return ByteBuffer.allocateDirect(4 * count).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.shell;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Level-of-detail pyramid of a shell. Level 0 is the shell itself, and each
+ * further level halves the resolution along the spiral and around the
+ * generating curve, so it has about a quarter of the vertices.
+ *
+ * @author Conrad Mearns
+ */
+public final class ShellLod {
+
+    /**
+      * Coarsest resolution a level may have, per turn and around the curve
+      */
+    public static final int MIN_SEGMENTS = 4;
+
+    private ShellLod() {
+        // NB: Prevent instantiation of utility class.
+    }
+
+    /**
+      * Parameters of each level, from full detail to the coarsest. Fewer than
+      * the requested levels are returned if the resolution runs out first.
+      */
+    public static List<ShellParameters> levels(ShellParameters p, int count) {
+        List<ShellParameters> levels = new ArrayList<>();
+        ShellParameters level = p.copy();
+        levels.add(level);
+        while(levels.size() < count) {
+            int segmentsPerTurn = level.segmentsPerTurn / 2;
+            int cseg = level.cseg / 2;
+            if(segmentsPerTurn < MIN_SEGMENTS || cseg < MIN_SEGMENTS) {
+                break;
+            }
+            level = level.copy();
+            level.segmentsPerTurn = segmentsPerTurn;
+            level.cseg = cseg;
+            levels.add(level);
+        }
+        return levels;
+    }
+
+    /**
+      * Level to show for a shell of the given size seen from the given
+      * distance: full detail up to twice its size, then one level coarser
+      * each time the distance doubles.
+      */
+    public static int select(double distance, double size, int levelCount) {
+        double ratio = distance / (2 * size);
+        if(ratio <= 1) {
+            return 0;
+        }
+        int level = (int)(Math.log(ratio) / Math.log(2)) + 1;
+        return Math.min(level, levelCount - 1);
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.shell;
+
+import net.imagej.mesh.nio.BufferMesh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Cache of generated shell meshes, keyed by {@link ShellParameters#digest()}.
+ *
+ * Recently used meshes are kept in memory, up to a byte budget. Meshes
+ * evicted from memory, and meshes too large to keep in memory at all, are
+ * spilled to a directory and memory-mapped back on a hit, so a repeated
+ * shell costs a file map instead of a regeneration. Files in the directory
+ * survive between runs and are evicted oldest first once the disk budget is
+ * exceeded. If the directory cannot be written, the cache keeps working in
+ * memory only, and unreadable files are deleted as they are found.
+ *
+ * Cached meshes are shared between callers and must not be modified.
+ *
+ * @author Conrad Mearns
+ */
+public class ShellMeshCache {
+
+    private static final int MAGIC = 0x534e4c4a; // "SNLJ"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 16;
+    private static final String SUFFIX = ".mesh";
+    private static final String TEMPORARY = SUFFIX + ".tmp";
+
+    private static ShellMeshCache shared;
+
+    private final long memoryBytes;
+    private final long diskBytes;
+    private final File directory;
+
+    private final LinkedHashMap<String, BufferMesh> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryUsed, diskUsed;
+
+    /**
+      * Cleared when a spill fails, after which nothing more is written
+      */
+    private boolean spilling;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong spills = new AtomicLong();
+
+    /**
+      * @param memoryBytes Budget of the in-memory tier
+      * @param directory Directory of the on-disk tier, or null for none
+      * @param diskBytes Budget of the on-disk tier
+      */
+    public ShellMeshCache(long memoryBytes, File directory, long diskBytes) {
+        this.memoryBytes = memoryBytes;
+        this.directory = directory;
+        this.diskBytes = diskBytes;
+
+        if(directory != null) {
+            directory.mkdirs();
+            spilling = true;
+
+            // NB: Left behind by spills that were interrupted.
+            File[] partial = directory.listFiles((dir, name) -> name.endsWith(TEMPORARY));
+            if(partial != null) {
+                for(File f : partial) {
+                    f.delete();
+                }
+            }
+
+            File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+            if(files != null) {
+                Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+                for(File f : files) {
+                    String key = f.getName().substring(0, f.getName().length() - SUFFIX.length());
+                    disk.put(key, f.length());
+                    diskUsed += f.length();
+                }
+                trimDisk();
+            }
+        }
+    }
+
+    /**
+      * Cache shared by the SnailJ commands. Its budgets default to 256 MB in
+      * memory and 4 GB on disk under java.io.tmpdir, and can be set in MB with
+      * the snailj.cache.memory and snailj.cache.disk system properties.
+      */
+    public static synchronized ShellMeshCache shared() {
+        if(shared == null) {
+            long mb = 1024 * 1024;
+            shared = new ShellMeshCache(Long.getLong("snailj.cache.memory", 256) * mb,
+                                        new File(System.getProperty("java.io.tmpdir"), "snailj-cache"),
+                                        Long.getLong("snailj.cache.disk", 4096) * mb);
+        }
+        return shared;
+    }
+
+    /**
+      * The cached mesh for the parameters, generating and caching it on a miss
+      */
+    public BufferMesh get(ShellParameters p, Function<ShellParameters, BufferMesh> generator) {
+        String key = p.digest();
+        BufferMesh mesh = lookup(key);
+        if(mesh != null) {
+            return mesh;
+        }
+
+        misses.incrementAndGet();
+        mesh = generator.apply(p);
+        store(key, mesh);
+        return mesh;
+    }
+
+    /**
+      * The cached mesh for the parameters, or null
+      */
+    public BufferMesh getIfPresent(ShellParameters p) {
+        return lookup(p.digest());
+    }
+
+    public void put(ShellParameters p, BufferMesh mesh) {
+        store(p.digest(), mesh);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+      * Hits that were served by mapping a spilled mesh back in
+      */
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+      * Meshes dropped from either tier
+      */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+      * Meshes written to the on-disk tier
+      */
+    public long getSpills() {
+        return spills.get();
+    }
+
+    public synchronized void clear() {
+        memory.clear();
+        memoryUsed = 0;
+        for(String key : disk.keySet()) {
+            file(key).delete();
+        }
+        disk.clear();
+        diskUsed = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ShellMeshCache[hits=" + hits + ", diskHits=" + diskHits + ", misses=" + misses +
+               ", evictions=" + evictions + ", spills=" + spills + "]";
+    }
+
+    private synchronized BufferMesh lookup(String key) {
+        BufferMesh mesh = memory.get(key);
+        if(mesh != null) {
+            hits.incrementAndGet();
+            return mesh;
+        }
+
+        if(disk.get(key) != null) {
+            try {
+                mesh = map(file(key));
+                file(key).setLastModified(System.currentTimeMillis());
+                hits.incrementAndGet();
+                diskHits.incrementAndGet();
+                return mesh;
+            } catch(IOException | RuntimeException e) {
+                // NB: Truncated or corrupt, e.g. by a crash or another process.
+                diskUsed -= disk.remove(key);
+                file(key).delete();
+            }
+        }
+        return null;
+    }
+
+    private synchronized void store(String key, BufferMesh mesh) {
+        long bytes = bytes(mesh);
+        if(bytes > memoryBytes / 4) {
+            spill(key, mesh);
+            return;
+        }
+
+        BufferMesh previous = memory.put(key, mesh);
+        if(previous != null) {
+            memoryUsed -= bytes(previous);
+        }
+        memoryUsed += bytes;
+
+        Iterator<Map.Entry<String, BufferMesh>> it = memory.entrySet().iterator();
+        while(memoryUsed > memoryBytes && it.hasNext()) {
+            Map.Entry<String, BufferMesh> eldest = it.next();
+            it.remove();
+            memoryUsed -= bytes(eldest.getValue());
+            evictions.incrementAndGet();
+            spill(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private void spill(String key, BufferMesh mesh) {
+        if(!spilling || disk.containsKey(key)) {
+            return;
+        }
+        File f = file(key);
+        try {
+            write(mesh, f);
+            disk.put(key, f.length());
+            diskUsed += f.length();
+            spills.incrementAndGet();
+            trimDisk();
+        } catch(IOException | RuntimeException e) {
+            System.err.println("SnailJ mesh cache could not write to " + directory + ", keeping meshes in memory only: " + e);
+            spilling = false;
+            temporary(f).delete();
+        }
+    }
+
+    private void trimDisk() {
+        Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator();
+        while(diskUsed > diskBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            diskUsed -= eldest.getValue();
+            file(eldest.getKey()).delete();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private File file(String key) {
+        return new File(directory, key + SUFFIX);
+    }
+
+    private static File temporary(File f) {
+        return new File(f.getPath() + ".tmp");
+    }
+
+    /**
+      * Bytes of the vertex, normal, texture coordinate, index and triangle
+      * normal buffers
+      */
+    private static long bytes(BufferMesh mesh) {
+        return 4L * (mesh.vertices().verts().limit() + mesh.vertices().normals().limit() +
+                     mesh.vertices().texCoords().limit() + mesh.triangles().indices().limit() +
+                     mesh.triangles().normals().limit());
+    }
+
+    /**
+      * Write a mesh as a header followed by its raw vertex, normal and index
+      * buffers, through a temporary file so a crash never leaves a partial
+      * entry.
+      */
+    static void write(BufferMesh mesh, File f) throws IOException {
+        FloatBuffer verts = mesh.vertices().verts().duplicate();
+        FloatBuffer normals = mesh.vertices().normals().duplicate();
+        IntBuffer indices = mesh.triangles().indices().duplicate();
+        verts.rewind();
+        normals.rewind();
+        normals.limit(verts.limit());
+        indices.rewind();
+
+        File tmp = temporary(f);
+        try(RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+            FileChannel channel = raf.getChannel()) {
+            long size = HEADER_BYTES + 8L * verts.limit() + 4L * indices.limit();
+            raf.setLength(size);
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.order(ByteOrder.LITTLE_ENDIAN);
+            out.putInt(MAGIC).putInt(VERSION).putInt(verts.limit()).putInt(indices.limit());
+            out.asFloatBuffer().put(verts);
+            out.position(out.position() + 4 * verts.limit());
+            out.asFloatBuffer().put(normals);
+            out.position(out.position() + 4 * verts.limit());
+            out.asIntBuffer().put(indices);
+            out.force();
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+      * Map a spilled mesh. The vertex, normal and index buffers of the
+      * returned mesh are read-only views of the file, nothing is copied.
+      */
+    static BufferMesh map(File f) throws IOException {
+        try(RandomAccessFile raf = new RandomAccessFile(f, "r");
+            FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            in.order(ByteOrder.LITTLE_ENDIAN);
+            if(in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("Not a SnailJ mesh cache file: " + f);
+            }
+            int vertexFloats = in.getInt();
+            int indexInts = in.getInt();
+            if(vertexFloats < 0 || indexInts < 0 || in.capacity() < HEADER_BYTES + 8L * vertexFloats + 4L * indexInts) {
+                throw new IOException("Truncated SnailJ mesh cache file: " + f);
+            }
+
+            ByteBuffer vertexBytes = in.slice().order(ByteOrder.LITTLE_ENDIAN);
+            vertexBytes.limit(4 * vertexFloats);
+            in.position(in.position() + 4 * vertexFloats);
+            ByteBuffer normalBytes = in.slice().order(ByteOrder.LITTLE_ENDIAN);
+            normalBytes.limit(4 * vertexFloats);
+            in.position(in.position() + 4 * vertexFloats);
+            ByteBuffer indexBytes = in.slice().order(ByteOrder.LITTLE_ENDIAN);
+            indexBytes.limit(4 * indexInts);
+
+            return new BufferMesh(vertexBytes.asFloatBuffer(), normalBytes.asFloatBuffer(),
+                                  ShellKernel.floats(vertexFloats / 3 * 2),
+                                  indexBytes.asIntBuffer(), ShellKernel.floats(indexInts));
+        }
+    }
+}
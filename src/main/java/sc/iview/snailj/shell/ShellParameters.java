@@ -0,0 +1,325 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.shell;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Everything needed to evaluate one shell: the 14 parameters outlined by
+ * Picado plus the sampling resolution. Angles are always in radians.
+ *
+ * @author Conrad Mearns
+ */
+public class ShellParameters {
+
+    /**
+      * 14 parameters outlined by the referenced paper.
+      */
+    public double D, A, alpha, beta, phi, mu, omega, a, b, L, P, W1, W2, N;
+
+    /**
+      * Quantity of rotations the shell makes
+      */
+    public double turns;
+
+    /**
+      * Resolution of segments per turn along spiral
+      */
+    public int segmentsPerTurn = 64;
+
+    /**
+      * Distribute the spiral rows following the growth exp(theta / tan(alpha))
+      * instead of evenly, so small early turns get fewer rows than the large
+      * final ones. The number of rows is unchanged.
+      */
+    public boolean adaptive;
+
+    /**
+      * Resolution of segments of the generating curve
+      */
+    public int cseg = 64;
+
+    /**
+      * Amplitude of the random bumps added to the generating curve
+      */
+    public double bumpiness;
+
+    /**
+      * Seed for the bumps, so that bumpy shells can be reproduced
+      */
+    public long seed;
+
+    /**
+      * {@link CurveNoise#RANDOM} for independent bumps per vertex, or
+      * {@link CurveNoise#SMOOTH} for coherent swellings
+      */
+    public String noise = CurveNoise.RANDOM;
+
+    /**
+      * Lattice cells per turn and per generating curve of the smooth noise
+      */
+    public int noiseFrequency = 8;
+
+    /**
+      * Number of samples along the spiral
+      */
+    public int hseg() {
+        return (int)(segmentsPerTurn * turns);
+    }
+
+    /**
+      * Number of vertices, for shells that fit in a single buffer
+      * @throws IllegalArgumentException if the bytes of the xyz coordinates
+      *   would not fit in one buffer; such shells need a {@link ShellStream}
+      */
+    public int vertexCount() {
+        return checked(vertices(), "vertices");
+    }
+
+    /**
+      * Number of triangles, for shells that fit in a single buffer
+      * @throws IllegalArgumentException if the bytes of the indices would not
+      *   fit in one buffer; such shells need a {@link ShellStream}
+      */
+    public int triangleCount() {
+        return checked(triangles(), "triangles");
+    }
+
+    public long vertices() {
+        return (long) hseg() * cseg;
+    }
+
+    public long triangles() {
+        return 2L * Math.max(0, hseg() - 1) * cseg;
+    }
+
+    private static int checked(long count, String what) {
+        // NB: Every in-memory consumer allocates 3 floats or ints of 4 bytes
+        // per element, so it is the byte count that has to fit in an int.
+        if(12L * count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many " + what + " for an in-memory mesh (" + count +
+                                               "), generate the shell with a ShellStream instead");
+        }
+        return (int) count;
+    }
+
+    /**
+      * Convert the angles (alpha, beta, phi, mu, omega, P, W1 and W2) from
+      * degrees to radians
+      */
+    public void anglesToRadians() {
+        alpha = Math.toRadians(alpha);
+        beta = Math.toRadians(beta);
+        phi = Math.toRadians(phi);
+        mu = Math.toRadians(mu);
+        omega = Math.toRadians(omega);
+
+        P = Math.toRadians(P);
+        W1 = Math.toRadians(W1);
+        W2 = Math.toRadians(W2);
+    }
+
+    /**
+      * Whether the named parameter is an angle
+      */
+    public static boolean isAngle(String name) {
+        switch(name) {
+            case "alpha": case "beta": case "phi": case "mu": case "omega":
+            case "P": case "W1": case "W2":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+      * Set a parameter by its field name, e.g. from a CSV column
+      * @throws IllegalArgumentException for an unknown name
+      */
+    public void set(String name, String value) {
+        switch(name) {
+            case "noise": noise = value; break;
+            case "seed": seed = Long.parseLong(value); break;
+            case "segmentsPerTurn": segmentsPerTurn = Integer.parseInt(value); break;
+            case "cseg": cseg = Integer.parseInt(value); break;
+            case "noiseFrequency": noiseFrequency = Integer.parseInt(value); break;
+            case "adaptive": adaptive = Boolean.parseBoolean(value); break;
+            default: set(name, Double.parseDouble(value));
+        }
+    }
+
+    /**
+      * Set a numeric parameter by its field name
+      * @throws IllegalArgumentException for an unknown name
+      */
+    public void set(String name, double value) {
+        switch(name) {
+            case "D": D = value; break;
+            case "A": A = value; break;
+            case "alpha": alpha = value; break;
+            case "beta": beta = value; break;
+            case "phi": phi = value; break;
+            case "mu": mu = value; break;
+            case "omega": omega = value; break;
+            case "a": a = value; break;
+            case "b": b = value; break;
+            case "L": L = value; break;
+            case "P": P = value; break;
+            case "W1": W1 = value; break;
+            case "W2": W2 = value; break;
+            case "N": N = value; break;
+            case "turns": turns = value; break;
+            case "segmentsPerTurn": segmentsPerTurn = (int) value; break;
+            case "cseg": cseg = (int) value; break;
+            case "bumpiness": bumpiness = value; break;
+            case "seed": seed = (long) value; break;
+            case "noiseFrequency": noiseFrequency = (int) value; break;
+            default: throw new IllegalArgumentException("Unknown shell parameter: " + name);
+        }
+    }
+
+    /**
+      * Get a numeric parameter by its field name
+      * @throws IllegalArgumentException for an unknown name
+      */
+    public double get(String name) {
+        switch(name) {
+            case "D": return D;
+            case "A": return A;
+            case "alpha": return alpha;
+            case "beta": return beta;
+            case "phi": return phi;
+            case "mu": return mu;
+            case "omega": return omega;
+            case "a": return a;
+            case "b": return b;
+            case "L": return L;
+            case "P": return P;
+            case "W1": return W1;
+            case "W2": return W2;
+            case "N": return N;
+            case "turns": return turns;
+            case "segmentsPerTurn": return segmentsPerTurn;
+            case "cseg": return cseg;
+            case "bumpiness": return bumpiness;
+            case "seed": return seed;
+            case "noiseFrequency": return noiseFrequency;
+            default: throw new IllegalArgumentException("Unknown shell parameter: " + name);
+        }
+    }
+
+    public ShellParameters copy() {
+        ShellParameters p = new ShellParameters();
+        p.D = D; p.A = A; p.alpha = alpha; p.beta = beta; p.phi = phi;
+        p.mu = mu; p.omega = omega; p.a = a; p.b = b; p.L = L; p.P = P;
+        p.W1 = W1; p.W2 = W2; p.N = N;
+        p.turns = turns;
+        p.segmentsPerTurn = segmentsPerTurn;
+        p.adaptive = adaptive;
+        p.cseg = cseg;
+        p.bumpiness = bumpiness;
+        p.seed = seed;
+        p.noise = noise;
+        p.noiseFrequency = noiseFrequency;
+        return p;
+    }
+
+    /**
+      * Write every field that affects the generated mesh, in a fixed order
+      */
+    public void writeTo(DataOutput out) throws IOException {
+        for(double v : new double[] {D, A, alpha, beta, phi, mu, omega, a, b, L, P, W1, W2, N}) {
+            out.writeDouble(v);
+        }
+        out.writeDouble(turns);
+        out.writeInt(segmentsPerTurn);
+        out.writeBoolean(adaptive);
+        out.writeInt(cseg);
+        out.writeDouble(bumpiness);
+        out.writeLong(seed);
+        out.writeUTF(noise);
+        out.writeInt(noiseFrequency);
+    }
+
+    /**
+      * Read parameters written by {@link #writeTo(DataOutput)}
+      */
+    public static ShellParameters readFrom(DataInput in) throws IOException {
+        ShellParameters p = new ShellParameters();
+        p.D = in.readDouble(); p.A = in.readDouble(); p.alpha = in.readDouble();
+        p.beta = in.readDouble(); p.phi = in.readDouble(); p.mu = in.readDouble();
+        p.omega = in.readDouble(); p.a = in.readDouble(); p.b = in.readDouble();
+        p.L = in.readDouble(); p.P = in.readDouble(); p.W1 = in.readDouble();
+        p.W2 = in.readDouble(); p.N = in.readDouble();
+        p.turns = in.readDouble();
+        p.segmentsPerTurn = in.readInt();
+        p.adaptive = in.readBoolean();
+        p.cseg = in.readInt();
+        p.bumpiness = in.readDouble();
+        p.seed = in.readLong();
+        p.noise = in.readUTF();
+        p.noiseFrequency = in.readInt();
+        return p;
+    }
+
+    /**
+      * Canonical hash of the parameters: two parameter sets with the same
+      * digest generate the same mesh. The noise settings of a shell without
+      * bumps do not change its mesh, so they are left at their defaults.
+      * @return SHA-256 of {@link #writeTo(DataOutput)}, as hex
+      */
+    public String digest() {
+        ShellParameters canonical = this;
+        if(bumpiness == 0) {
+            ShellParameters defaults = new ShellParameters();
+            canonical = copy();
+            canonical.seed = defaults.seed;
+            canonical.noise = defaults.noise;
+            canonical.noiseFrequency = defaults.noiseFrequency;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            canonical.writeTo(new DataOutputStream(bytes));
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray());
+            StringBuilder sb = new StringBuilder();
+            for(byte h : hash) {
+                sb.append(String.format("%02x", h));
+            }
+            return sb.toString();
+        } catch(IOException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.shell;
+
+/**
+ * Built-in shell presets, from Picado's paper. Angles are in radians.
+ *
+ * @author Conrad Mearns
+ */
+public final class ShellPresets {
+
+    private ShellPresets() {
+        // NB: Prevent instantiation of utility class.
+    }
+
+    //D, A, alpha, beta, phi, mu, omega, a, b, L, P, W1, W2, N;
+    public static final String CUSTOM         = "Custom";
+    public static final String TORUS          = "Torus";
+    public static final String BOAT_EAR_MOON  = "Boat Ear Moon";
+    public static final String WENTLETRAP     = "Precious Wentletrap";
+    public static final String TURRITELLA     = "Turritella";
+    public static final String ANCILLA        = "Ancilla";
+    public static final String ARGONAUTA      = "Argonauta";
+
+    /**
+      * Names of the built-in presets, in the order of {@link #presets}
+      */
+    private static final String[] NAMES = {TORUS, BOAT_EAR_MOON, WENTLETRAP, TURRITELLA, ANCILLA, ARGONAUTA};
+
+    private static final double[][] presets = {
+      {
+        //Torus
+        1,
+        90,
+        Math.toRadians(90),
+        Math.toRadians(10),
+        0,0,0,
+        10,
+        10,
+        0, 0, 1, 1, 1
+      },
+      {
+        //Boat Ear Moon
+        1,
+        25,
+        Math.toRadians(83),
+        Math.toRadians(42),
+        Math.toRadians(70),
+        Math.toRadians(10),
+        Math.toRadians(30),
+        12,
+        20,
+        0, 0, 1, 1, 1
+      },
+      {
+        //Precious Wentletrap
+        1,
+        90,
+        Math.toRadians(86),
+        Math.toRadians(10),
+        Math.toRadians(-45),
+        Math.toRadians(5),
+        Math.toRadians(1),
+        20,
+        20,
+        10, Math.toRadians(40), Math.toRadians(180), Math.toRadians(0.4), 8
+      },
+      {
+        //Turritella
+        1,
+        22.2,
+        Math.toRadians(88.9),
+        Math.toRadians(4),
+        Math.toRadians(55),
+        Math.toRadians(1),
+        Math.toRadians(-2),
+        1.3,
+        1.5,
+        0, 0, 1, 1, 1
+      },
+      {
+        //Ancilla
+        1,
+        100,
+        Math.toRadians(86),
+        Math.toRadians(7),
+        0, 0, 0,
+        15,
+        35,
+        0, 0, 1, 1, 1
+      },
+      {
+        //Argonauta
+        1,
+        2,
+        Math.toRadians(80),
+        Math.toRadians(90),
+        0, 0, 0,
+        2,
+        1.5,
+        0.3,
+        Math.toRadians(5),
+        Math.toRadians(150),
+        Math.toRadians(20),
+        30
+      }
+    };
+
+    public static String[] names() {
+        return NAMES.clone();
+    }
+
+    /**
+      * Overwrite the 14 parameters with a preset
+      * @return false if there is no such preset, e.g. for {@link #CUSTOM}
+      */
+    public static boolean apply(String name, ShellParameters p) {
+        for(int i = 0; i < NAMES.length; i++) {
+            if(NAMES[i].equals(name)) {
+                double[] v = presets[i];
+                p.D = v[0]; p.A = v[1]; p.alpha = v[2]; p.beta = v[3];
+                p.phi = v[4]; p.mu = v[5]; p.omega = v[6]; p.a = v[7];
+                p.b = v[8]; p.L = v[9]; p.P = v[10]; p.W1 = v[11];
+                p.W2 = v[12]; p.N = v[13];
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+      * A preset with the given resolution
+      */
+    public static ShellParameters get(String name, double turns, int segmentsPerTurn, int cseg) {
+        ShellParameters p = new ShellParameters();
+        if(!apply(name, p)) {
+            throw new IllegalArgumentException("Unknown preset: " + name);
+        }
+        p.turns = turns;
+        p.segmentsPerTurn = segmentsPerTurn;
+        p.cseg = cseg;
+        return p;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.shell;
+
+import sc.iview.snailj.metrics.Metrics;
+import sc.iview.snailj.metrics.Stage;
+
+/**
+ * Generates a shell one band of spiral rows at a time, for shells too large
+ * to hold in memory.
+ *
+ * Each call to {@link #next()} evaluates the next band into the same
+ * vertex array, and writes the triangles joining every row of the band to
+ * the row before it, including the last row of the previous band, which is
+ * carried forward by its vertex index only. Vertex and triangle indices are
+ * 64 bit. The per-row lookup tables are also kept for one band at a time,
+ * so memory use depends only on the band size and cseg, not on the number
+ * of turns.
+ *
+ * <pre>
+ * ShellStream stream = new ShellStream(p, 256);
+ * while(stream.next()) {
+ *     write(stream.getFirstVertex(), stream.getVertices(), stream.getVertexCount());
+ *     write(stream.getFirstTriangle(), stream.getIndices(), stream.getTriangleCount());
+ * }
+ * </pre>
+ *
+ * @author Conrad Mearns
+ */
+public class ShellStream {
+
+    private final ShellTables tables;
+    private final int hseg, cseg, bandRows;
+
+    private final float[] verts;
+    private final long[] indices;
+
+    private int nextRow;
+    private int start, rows;
+    private int triangleCount;
+
+    /**
+      * @param bandRows Spiral rows generated per band
+      */
+    public ShellStream(ShellParameters p, int bandRows) {
+        hseg = p.hseg();
+        cseg = p.cseg;
+        this.bandRows = Math.max(1, bandRows);
+        try(Metrics.Span span = Metrics.begin(Stage.CURVE)) {
+            tables = new ShellTables(p, this.bandRows);
+        }
+
+        verts = new float[3 * this.bandRows * cseg];
+        indices = new long[6 * this.bandRows * cseg];
+    }
+
+    /**
+      * Band size that keeps one band's vertices and indices around the given
+      * number of bytes
+      */
+    public static int bandRows(ShellParameters p, long bytes) {
+        long perRow = (3L * 4 + 6L * 8) * Math.max(1, p.cseg) + 8L * 8;
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE / (6L * Math.max(1, p.cseg)), bytes / perRow));
+    }
+
+    public ShellParameters getParameters() {
+        return tables.getParameters();
+    }
+
+    /**
+      * Generate the next band
+      * @return false when every row has been generated
+      */
+    public boolean next() {
+        if(nextRow >= hseg) {
+            return false;
+        }
+
+        start = nextRow;
+        rows = Math.min(bandRows, hseg - start);
+        nextRow = start + rows;
+
+        try(Metrics.Span span = Metrics.begin(Stage.CURVE)) {
+            tables.band(start);
+        }
+
+        try(Metrics.Span span = Metrics.begin(Stage.VERTICES).count((long)rows * cseg, 0)) {
+            for(int r = 0; r < rows; r++) {
+                ShellKernel.evaluateRow(tables, start + r, verts, 3 * r * cseg);
+            }
+        }
+
+        try(Metrics.Span span = Metrics.begin(Stage.INDICES)) {
+            int k = 0;
+            long m = cseg;
+            for(int i = Math.max(start, 1); i < nextRow; i++) {
+                long a = (i - 1) * m;
+                long b = i * m;
+                for(int j = 0; j < cseg; j++) {
+                    int j1 = (j + 1) % cseg;
+                    indices[k++] = a + j;
+                    indices[k++] = b + j1;
+                    indices[k++] = a + j1;
+
+                    indices[k++] = a + j;
+                    indices[k++] = b + j;
+                    indices[k++] = b + j1;
+                }
+            }
+            triangleCount = k / 3;
+            span.count(0, triangleCount);
+        }
+        return true;
+    }
+
+    /**
+      * xyz of the current band's vertices, from index 0
+      */
+    public float[] getVertices() {
+        return verts;
+    }
+
+    public int getVertexCount() {
+        return rows * cseg;
+    }
+
+    /**
+      * Global index of the first vertex of the current band
+      */
+    public long getFirstVertex() {
+        return (long) start * cseg;
+    }
+
+    /**
+      * Global vertex indices of the current band's triangles, three per
+      * triangle, from index 0
+      */
+    public long[] getIndices() {
+        return indices;
+    }
+
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    /**
+      * Global index of the first triangle of the current band
+      */
+    public long getFirstTriangle() {
+        return 2L * Math.max(0, start - 1) * cseg;
+    }
+
+    public long getTotalVertices() {
+        return (long) hseg * cseg;
+    }
+
+    public long getTotalTriangles() {
+        return 2L * Math.max(0, hseg - 1) * cseg;
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.shell;
+
+import java.util.EnumSet;
+
+import static sc.iview.snailj.shell.ShellChange.*;
+
+/**
+ * Lookup tables for the separable evaluation of a shell.
+ *
+ * Almost every term of S_x, S_y and S_z depends either only on theta (the
+ * spiral row) or only on s (the generating curve column), and the node
+ * function factors as L * exp(-(2(s-P)/W1)^2) * exp(-(2l/W2)^2). These are
+ * computed once per shell, so that the kernel's inner loop is only
+ * multiply-adds. When parameters are edited, {@link #update} recomputes
+ * only the tables the change touches.
+ *
+ * The per-row tables normally cover every spiral row. A {@link ShellStream}
+ * or a file export instead keeps them for one band of rows at a time,
+ * starting at {@link #firstRow}, so that their size does not grow with the
+ * number of turns.
+ *
+ * @author Conrad Mearns
+ */
+public class ShellTables {
+
+    ShellParameters p;
+    int hseg, cseg;
+
+    /**
+      * Spiral row held at index 0 of the per-row tables
+      */
+    int firstRow;
+
+    /**
+      * Per spiral row: theta, exp(theta / tan(alpha)), cos/sin(theta),
+      * cos/sin(theta + omega) and the theta half of the node function
+      */
+    double[] theta, growth, cosTheta, sinTheta, cosTurn, sinTurn, nodeRow;
+
+    /**
+      * Per generating curve column: s, cos/sin(s + phi), C_ellipse and the s
+      * half of the node function, including L
+      */
+    double[] s, cosCurve, sinCurve, ellipse, nodeCol;
+
+    /**
+      * Derivatives of the theta half of the node function by theta, and of
+      * C_ellipse and the s half of the node function by s, for the normals
+      */
+    double[] nodeRowSlope, ellipseSlope, nodeColSlope;
+
+    /**
+      * Terms that depend on neither theta nor s, including the growth rate
+      * 1 / tan(alpha)
+      */
+    double D, Asb, Acb, sinMu, cosMu, cot;
+
+    /**
+      * Bumps added to the generating curve
+      */
+    CurveNoise noise;
+
+    public ShellTables(ShellParameters p) {
+        this.p = p.copy();
+        allocate(this.p.hseg());
+        compute(EnumSet.allOf(ShellChange.class));
+    }
+
+    /**
+      * Tables whose per-row terms hold only the given number of spiral rows,
+      * starting with the first; move them along the shell with {@link #band}
+      * or {@link #seek}.
+      */
+    public ShellTables(ShellParameters p, int rows) {
+        this.p = p.copy();
+        allocate(Math.max(1, Math.min(rows, this.p.hseg())));
+        compute(EnumSet.allOf(ShellChange.class));
+    }
+
+    /**
+      * Recompute the per-row tables for the band of rows starting at first.
+      * Bands are expected in order; the adaptive spiral continues from the
+      * end of the previous band, so the rows match those of full tables.
+      */
+    void band(int first) {
+        double lo = first > 0 && first == firstRow + theta.length ? theta[theta.length - 1] : 0;
+        firstRow = first;
+        spiral(p, theta, first, lo);
+        for(int i = 0; i < theta.length; i++) {
+            cosTheta[i] = Math.cos(theta[i]);
+            sinTheta[i] = Math.sin(theta[i]);
+        }
+        growth();
+        turn();
+        nodeRows();
+    }
+
+    /**
+      * Make sure the per-row tables hold the given row, moving them to the
+      * band starting there if not. Rows are expected in increasing order.
+      */
+    public void seek(int row) {
+        if(row < firstRow || row >= firstRow + theta.length) {
+            band(row);
+        }
+    }
+
+    public ShellParameters getParameters() {
+        return p;
+    }
+
+    /**
+      * Switch to new parameters, recomputing only the tables that depend on
+      * what changed.
+      * @return The terms that changed
+      */
+    public EnumSet<ShellChange> update(ShellParameters next) {
+        EnumSet<ShellChange> changes = ShellChange.between(p, next);
+        p = next.copy();
+
+        if(changes.contains(TOPOLOGY)) {
+            firstRow = 0;
+            allocate(p.hseg());
+            compute(EnumSet.allOf(ShellChange.class));
+        } else {
+            compute(changes);
+        }
+        return changes;
+    }
+
+    private void allocate(int rows) {
+        hseg = p.hseg();
+        cseg = p.cseg;
+
+        theta = new double[rows];
+        growth = new double[rows];
+        cosTheta = new double[rows];
+        sinTheta = new double[rows];
+        cosTurn = new double[rows];
+        sinTurn = new double[rows];
+        nodeRow = new double[rows];
+        nodeRowSlope = new double[rows];
+
+        s = new double[cseg];
+        cosCurve = new double[cseg];
+        sinCurve = new double[cseg];
+        ellipse = new double[cseg];
+        nodeCol = new double[cseg];
+        ellipseSlope = new double[cseg];
+        nodeColSlope = new double[cseg];
+    }
+
+    private void compute(EnumSet<ShellChange> changes) {
+        boolean spiral = changes.contains(SPIRAL);
+
+        if(spiral) {
+            spiral();
+        }
+        if(spiral || changes.contains(GROWTH)) {
+            growth();
+        }
+        if(spiral || changes.contains(TURN)) {
+            turn();
+        }
+        if(spiral || changes.contains(NODE_ROW)) {
+            nodeRows();
+        }
+        if(changes.contains(CURVE_PHASE)) {
+            curvePhase();
+        }
+        if(changes.contains(ELLIPSE)) {
+            ellipse();
+        }
+        if(changes.contains(NODE_COLUMN)) {
+            nodeColumns();
+        }
+        if(changes.contains(CONSTANTS)) {
+            constants();
+        }
+        if(spiral || changes.contains(NOISE)) {
+            noise = CurveNoise.create(p);
+        }
+    }
+
+    private void spiral() {
+        spiral(p, theta, firstRow, 0);
+        for(int i = 0; i < theta.length; i++) {
+            cosTheta[i] = Math.cos(theta[i]);
+            sinTheta[i] = Math.sin(theta[i]);
+        }
+    }
+
+    /**
+      * Share of the rows that follows the growth in adaptive sampling. The
+      * rest stays evenly spaced, so even the smallest turn keeps a quarter of
+      * its rows.
+      */
+    private static final double ADAPTIVE_WEIGHT = 0.75;
+
+    /**
+      * The theta of every spiral row. Rows are hstep apart, or, for adaptive
+      * sampling, spread over the same range so that the row density follows
+      * the growth exp(theta / tan(alpha)).
+      */
+    public static void spiral(ShellParameters p, double[] theta) {
+        spiral(p, theta, 0, 0);
+    }
+
+    /**
+      * The theta of the spiral rows from first on, as many as fit in theta
+      * and the shell. lo is the theta of the row before first, where the
+      * adaptive search starts.
+      */
+    static void spiral(ShellParameters p, double[] theta, int first, double lo) {
+        int hseg = p.hseg();
+        int end = Math.min(hseg, first + theta.length);
+        double hstep = (2.0f * Math.PI) / p.segmentsPerTurn;
+        double k = 1 / Math.tan(p.alpha);
+
+        if(!p.adaptive || hseg < 3 || Math.abs(k) < 1e-9) {
+            for(int i = first; i < end; i++) {
+                theta[i - first] = hstep * i;
+            }
+            return;
+        }
+
+        // Invert the cumulative density F(t), a blend of the even spacing
+        // t / tmax and the growth integral G(t) / G(tmax), by bisection
+        double tmax = hstep * (hseg - 1);
+        double gmax = Math.expm1(k * tmax) / k;
+        for(int i = first; i < end; i++) {
+            if(i == 0 || i == hseg - 1) {
+                theta[i - first] = i == 0 ? 0 : tmax;
+                continue;
+            }
+            double target = (double) i / (hseg - 1);
+            double a = lo, b = tmax;
+            for(int it = 0; it < 60; it++) {
+                double t = 0.5 * (a + b);
+                double f = (1 - ADAPTIVE_WEIGHT) * t / tmax + ADAPTIVE_WEIGHT * (Math.expm1(k * t) / k) / gmax;
+                if(f < target) {
+                    a = t;
+                } else {
+                    b = t;
+                }
+            }
+            theta[i - first] = lo = 0.5 * (a + b);
+        }
+    }
+
+    private void growth() {
+        cot = 1 / Math.tan(p.alpha);
+        for(int i = 0; i < theta.length; i++) {
+            growth[i] = Math.exp(theta[i] * cot);
+        }
+    }
+
+    private void turn() {
+        for(int i = 0; i < theta.length; i++) {
+            cosTurn[i] = Math.cos(theta[i] + p.omega);
+            sinTurn[i] = Math.sin(theta[i] + p.omega);
+        }
+    }
+
+    private void nodeRows() {
+        boolean nodes = ShellChange.hasNodes(p);
+        for(int i = 0; i < theta.length; i++) {
+            if(nodes) {
+                double t = theta[i];
+                double l = ((2 * Math.PI) / p.N) * ((p.N * t)/(2 * Math.PI) - (int)((p.N * t)/(2 * Math.PI)));
+                nodeRow[i] = Math.exp(-Math.pow(2*l/p.W2, 2));
+                nodeRowSlope[i] = nodeRow[i] * (-8 * l / (p.W2 * p.W2));
+            } else {
+                nodeRow[i] = 0;
+                nodeRowSlope[i] = 0;
+            }
+        }
+    }
+
+    private void curvePhase() {
+        for(int j = 0; j < cseg; j++) {
+            double c = j * (2 * Math.PI) / cseg;
+            s[j] = c;
+            cosCurve[j] = Math.cos(c + p.phi);
+            sinCurve[j] = Math.sin(c + p.phi);
+        }
+    }
+
+    private void ellipse() {
+        double shape = 1 / (p.b * p.b) - 1 / (p.a * p.a);
+        for(int j = 0; j < cseg; j++) {
+            double c = j * (2 * Math.PI) / cseg;
+            ellipse[j] = ShellKernel.C_ellipse(p, c);
+            ellipseSlope[j] = -Math.pow(ellipse[j], 3) * Math.sin(c) * Math.cos(c) * shape;
+        }
+    }
+
+    private void nodeColumns() {
+        boolean nodes = ShellChange.hasNodes(p);
+        for(int j = 0; j < cseg; j++) {
+            if(nodes) {
+                double c = j * (2 * Math.PI) / cseg;
+                nodeCol[j] = p.L * Math.exp(-Math.pow(2*(c-p.P)/p.W1, 2));
+                nodeColSlope[j] = nodeCol[j] * (-8 * (c - p.P) / (p.W1 * p.W1));
+            } else {
+                nodeCol[j] = 0;
+                nodeColSlope[j] = 0;
+            }
+        }
+    }
+
+    private void constants() {
+        D = p.D;
+        Asb = p.A * Math.sin(p.beta);
+        Acb = p.A * Math.cos(p.beta);
+        sinMu = Math.sin(p.mu);
+        cosMu = Math.cos(p.mu);
+    }
+}
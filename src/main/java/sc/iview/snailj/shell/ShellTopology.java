@@ -0,0 +1,222 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.shell;
+
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The connectivity of a shell grid of hseg spiral rows by cseg curve
+ * segments, as one triangle strip. Each quad row is a strip alternating
+ * between spiral rows i and i+1 around the generating curve, and
+ * consecutive rows are stitched together by repeating the last index of one
+ * and the first of the next, which only adds degenerate triangles and keeps
+ * the winding of {@link ShellKernel#triangles}.
+ *
+ * That is 2 (cseg + 1) + 2 indices per quad row instead of 6 cseg for
+ * independent triangles. The indices are 32 bit, as scenery meshes only
+ * take those. The topology only depends on the resolution, so one
+ * read-only instance is shared by every shell with the same hseg and cseg.
+ *
+ * Quads are split along the other diagonal than in the triangle list.
+ *
+ * @author Conrad Mearns
+ */
+public final class ShellTopology {
+
+    private static final Map<Long, SoftReference<ShellTopology>> shared = new HashMap<>();
+
+    private final int hseg, cseg;
+    private final int length;
+    private final IntBuffer ints;
+    private IntBuffer triangles;
+
+    private ShellTopology(int hseg, int cseg) {
+        this.hseg = hseg;
+        this.cseg = cseg;
+        this.length = stripLength(hseg, cseg);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4 * length).order(ByteOrder.nativeOrder());
+        IntBuffer out = buffer.asIntBuffer();
+        for(int k = 0; k < length; k++) {
+            out.put(index(k));
+        }
+        this.ints = buffer.asReadOnlyBuffer().order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**
+      * The shared topology of a resolution
+      */
+    public static ShellTopology of(int hseg, int cseg) {
+        Long key = ((long)hseg << 32) | cseg;
+        synchronized(shared) {
+            Iterator<SoftReference<ShellTopology>> refs = shared.values().iterator();
+            while(refs.hasNext()) {
+                if(refs.next().get() == null) {
+                    refs.remove();
+                }
+            }
+            SoftReference<ShellTopology> ref = shared.get(key);
+            ShellTopology topology = ref != null ? ref.get() : null;
+            if(topology == null) {
+                topology = new ShellTopology(hseg, cseg);
+                shared.put(key, new SoftReference<>(topology));
+            }
+            return topology;
+        }
+    }
+
+    public static ShellTopology of(ShellParameters p) {
+        return of(p.hseg(), p.cseg);
+    }
+
+    /**
+      * Number of strip indices of a grid, including the stitches
+      */
+    public static int stripLength(int hseg, int cseg) {
+        int rows = Math.max(0, hseg - 1);
+        return rows == 0 ? 0 : rows * 2 * (cseg + 1) + 2 * (rows - 1);
+    }
+
+    /**
+      * The k-th strip index. Every quad row takes 2 (cseg + 1) indices
+      * followed by two stitching indices, except the last row.
+      */
+    private int index(int k) {
+        int row = k / (2 * cseg + 4);
+        int r = k % (2 * cseg + 4);
+        if(r >= 2 * cseg + 2) {
+            // NB: The last vertex of this row is the first of the next.
+            return (row + 1) * cseg;
+        }
+        int j = (r >> 1) % cseg;
+        return (r & 1) == 0 ? row * cseg + j : (row + 1) * cseg + j;
+    }
+
+    public int getHseg() {
+        return hseg;
+    }
+
+    public int getCseg() {
+        return cseg;
+    }
+
+    /**
+      * Number of strip indices
+      */
+    public int length() {
+        return length;
+    }
+
+    /**
+      * The strip as read-only 32 bit native order indices, shared
+      */
+    public IntBuffer ints() {
+        return ints.duplicate();
+    }
+
+    /**
+      * The triangle list of {@link ShellKernel#triangles} as read-only 32 bit
+      * native order indices, for meshes that need one. Built when first
+      * asked for and shared.
+      */
+    public synchronized IntBuffer triangles() {
+        if(triangles == null) {
+            int count = 6 * Math.max(0, hseg - 1) * cseg;
+            ByteBuffer buffer = ByteBuffer.allocateDirect(4 * count).order(ByteOrder.nativeOrder());
+            ShellKernel.triangles(cseg, buffer.asIntBuffer(), 0, hseg - 1);
+            triangles = buffer.asReadOnlyBuffer().order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+        return triangles.duplicate();
+    }
+
+    /**
+      * The strip of several grids of this resolution stored one after
+      * another, e.g. shells merged into one vertex buffer. The copies are
+      * stitched like the rows, and every copy starts at an even position,
+      * so the winding is kept. Not shared.
+      */
+    public IntBuffer ints(int copies) {
+        IntBuffer strip = ints();
+        int vertices = hseg * cseg;
+        int total = copies == 0 || length == 0 ? 0 : copies * length + 2 * (copies - 1);
+        IntBuffer out = ByteBuffer.allocateDirect(4 * total).order(ByteOrder.nativeOrder()).asIntBuffer();
+        for(int c = 0; c < copies && length > 0; c++) {
+            int offset = c * vertices;
+            if(c > 0) {
+                out.put(strip.get(length - 1) + offset - vertices);
+                out.put(strip.get(0) + offset);
+            }
+            for(int k = 0; k < length; k++) {
+                out.put(strip.get(k) + offset);
+            }
+        }
+        out.flip();
+        return out;
+    }
+
+    /**
+      * Smooth vertex normals of a shell grid from central differences along
+      * the spiral and around the curve, oriented like the triangles.
+      * Vertices where the grid collapses get a zero normal.
+      */
+    public static void normals(FloatBuffer verts, int hseg, int cseg, FloatBuffer normals) {
+        for(int i = 0; i < hseg; i++) {
+            int prev = Math.max(0, i - 1), next = Math.min(hseg - 1, i + 1);
+            for(int j = 0; j < cseg; j++) {
+                int left = (j + cseg - 1) % cseg, right = (j + 1) % cseg;
+                int a = 3 * (next * cseg + j), b = 3 * (prev * cseg + j);
+                int c = 3 * (i * cseg + right), d = 3 * (i * cseg + left);
+                float ux = verts.get(a) - verts.get(b);
+                float uy = verts.get(a + 1) - verts.get(b + 1);
+                float uz = verts.get(a + 2) - verts.get(b + 2);
+                float vx = verts.get(c) - verts.get(d);
+                float vy = verts.get(c + 1) - verts.get(d + 1);
+                float vz = verts.get(c + 2) - verts.get(d + 2);
+
+                float nx = uy * vz - uz * vy;
+                float ny = uz * vx - ux * vz;
+                float nz = ux * vy - uy * vx;
+                float len = (float)Math.sqrt(nx * nx + ny * ny + nz * nz);
+                float scale = len > 0 ? 1 / len : 0;
+
+                int k = 3 * (i * cseg + j);
+                normals.put(k, nx * scale);
+                normals.put(k + 1, ny * scale);
+                normals.put(k + 2, nz * scale);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.shell;
+
+/**
+ * Coherent value noise. Random values are placed on a coarse lattice with
+ * {@code frequency} cells per spiral turn and per generating curve, and
+ * samples in between are blended with a smoothstep, so the bumps become
+ * rounded swellings rather than per-vertex jitter. The lattice wraps around
+ * the generating curve so there is no seam at s = 0.
+ *
+ * @author Conrad Mearns
+ */
+public class ValueNoise implements CurveNoise {
+
+    private final long seed;
+    private final int frequency;
+    private final double rowScale, columnScale;
+
+    public ValueNoise(long seed, int segmentsPerTurn, int cseg, int frequency) {
+        this.seed = seed;
+        this.frequency = Math.max(1, frequency);
+        rowScale = (double) this.frequency / segmentsPerTurn;
+        columnScale = (double) this.frequency / cseg;
+    }
+
+    @Override
+    public double sample(int i, int j) {
+        double u = i * rowScale;
+        double v = j * columnScale;
+        int gi = (int) u;
+        int gj = (int) v;
+        double fu = smooth(u - gi);
+        double fv = smooth(v - gj);
+
+        int gj0 = gj % frequency;
+        int gj1 = (gj + 1) % frequency;
+
+        double v00 = WhiteNoise.hash(seed, gi, gj0);
+        double v01 = WhiteNoise.hash(seed, gi, gj1);
+        double v10 = WhiteNoise.hash(seed, gi + 1, gj0);
+        double v11 = WhiteNoise.hash(seed, gi + 1, gj1);
+
+        double a = v00 + (v01 - v00) * fv;
+        double b = v10 + (v11 - v10) * fv;
+        return a + (b - a) * fu;
+    }
+
+    private static double smooth(double t) {
+        return t * t * (3 - 2 * t);
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.sweep;
+
+import sc.iview.snailj.fit.FitWorkspace;
+import sc.iview.snailj.fractal.FractalDimension;
+import sc.iview.snailj.fractal.FractalFit;
+import sc.iview.snailj.fractal.FractalSettings;
+import sc.iview.snailj.shell.ShellParameters;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sweeps shell parameters over a grid or a Latin hypercube sample, and
+ * records the fractal dimension of every shell.
+ *
+ * Each shell is generated straight into its worker's reusable buffers and
+ * analyzed with the sparse engine, without a scene node. Points are
+ * generated as they are submitted, and only a few shells per worker are in
+ * flight at a time, so memory does not grow with the sweep.
+ * Results go to a {@link SweepStore}, which skips shells it already holds,
+ * so an interrupted sweep resumes where it stopped.
+ *
+ * @author Conrad Mearns
+ */
+public class ParameterSweep {
+
+    public static final String GRID = "Grid";
+    public static final String LATIN_HYPERCUBE = "Latin Hypercube";
+
+    private final ShellParameters base;
+    private final List<SweepAxis> axes;
+
+    public String mode = GRID;
+
+    /**
+      * Number of Latin hypercube samples
+      */
+    public int samples = 100;
+
+    public long seed;
+
+    /**
+      * Number of worker threads, or 0 to use every core
+      */
+    public int threads = 0;
+
+    /**
+      * Box counting of each shell, which runs on its worker's thread
+      */
+    public final FractalSettings settings = new FractalSettings();
+
+    /**
+      * Called from the workers after every analyzed shell
+      */
+    public interface Listener {
+        void point(int done, int total, ShellParameters p, double dimension);
+    }
+
+    public ParameterSweep(ShellParameters base, List<SweepAxis> axes) {
+        this.base = base.copy();
+        this.axes = new ArrayList<>(axes);
+        settings.threads = 1;
+        settings.bootstrap = 200;
+    }
+
+    public List<SweepAxis> getAxes() {
+        return new ArrayList<>(axes);
+    }
+
+    /**
+      * The swept shells. Grid points vary the first axis fastest.
+      */
+    public List<ShellParameters> points() {
+        List<ShellParameters> points = new ArrayList<>();
+        for(Iterator<ShellParameters> it = iterator(); it.hasNext();) {
+            points.add(it.next());
+        }
+        return points;
+    }
+
+    /**
+      * Number of swept shells
+      */
+    public int size() {
+        if(LATIN_HYPERCUBE.equals(mode)) {
+            return samples;
+        } else if(GRID.equals(mode)) {
+            int total = 1;
+            for(SweepAxis axis : axes) {
+                total *= axis.getSteps();
+            }
+            return total;
+        }
+        throw new IllegalArgumentException("Unknown sweep mode: " + mode);
+    }
+
+    /**
+      * The swept shells in the order of {@link #points()}, each created only
+      * when it is reached
+      */
+    public Iterator<ShellParameters> iterator() {
+        int total = size();
+        boolean latin = LATIN_HYPERCUBE.equals(mode);
+        Random random = new Random(seed);
+        int[][] strata = new int[latin ? axes.size() : 0][];
+        for(int a = 0; a < strata.length; a++) {
+            strata[a] = permutation(samples, random);
+        }
+
+        return new Iterator<ShellParameters>() {
+            private int i;
+
+            @Override
+            public boolean hasNext() {
+                return i < total;
+            }
+
+            @Override
+            public ShellParameters next() {
+                if(i >= total) {
+                    throw new NoSuchElementException();
+                }
+                ShellParameters p = base.copy();
+                if(latin) {
+                    for(int a = 0; a < axes.size(); a++) {
+                        p.set(axes.get(a).getName(), axes.get(a).lerp((strata[a][i] + random.nextDouble()) / samples));
+                    }
+                } else {
+                    int rest = i;
+                    for(SweepAxis axis : axes) {
+                        p.set(axis.getName(), axis.value(rest % axis.getSteps()));
+                        rest /= axis.getSteps();
+                    }
+                }
+                i++;
+                return p;
+            }
+        };
+    }
+
+    private static int[] permutation(int n, Random random) {
+        int[] p = new int[n];
+        for(int i = 0; i < n; i++) {
+            p[i] = i;
+        }
+        for(int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = p[i];
+            p[i] = p[j];
+            p[j] = t;
+        }
+        return p;
+    }
+
+    /**
+      * Analyze every point not yet in the CSV file, appending each result as
+      * soon as it is known. The first shell that fails stops the sweep.
+      * @return Fractal dimension of every shell in the file, by digest
+      */
+    public Map<String, Double> run(Path csv, Listener listener) throws IOException, InterruptedException {
+        int total = size();
+        int workers = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+
+        try(SweepStore store = new SweepStore(csv, axes)) {
+            ThreadLocal<FitWorkspace> workspaces = ThreadLocal.withInitial(FitWorkspace::new);
+            ExecutorService pool = Executors.newFixedThreadPool(workers);
+            CompletionService<Void> completed = new ExecutorCompletionService<>(pool);
+            AtomicInteger done = new AtomicInteger();
+            int running = 0;
+            try {
+                for(Iterator<ShellParameters> it = iterator(); it.hasNext();) {
+                    ShellParameters p = it.next();
+                    String digest = p.digest();
+                    if(store.contains(digest)) {
+                        done.incrementAndGet();
+                        continue;
+                    }
+                    if(Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedException();
+                    }
+                    // NB: Wait for a shell to finish before submitting more
+                    // than two per worker, which also reports failures early.
+                    if(running == 2 * workers) {
+                        completed.take().get();
+                        running--;
+                    }
+                    completed.submit(() -> {
+                        long start = System.nanoTime();
+                        FractalFit fit = FractalDimension.sparse(workspaces.get().mesh(p), settings);
+                        store.append(digest, p, fit.getSlope(), fit.getRSquared(), fit.getLower(), fit.getUpper(),
+                                     (System.nanoTime() - start) / 1000000);
+                        if(listener != null) {
+                            listener.point(done.incrementAndGet(), total, p, fit.getSlope());
+                        }
+                        return null;
+                    });
+                    running++;
+                }
+                for(; running > 0; running--) {
+                    completed.take().get();
+                }
+            } catch(ExecutionException e) {
+                if(e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IllegalStateException("Sweep failed", e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+            return store.getDimensions();
+        }
+    }
+
+    /**
+      * Fractal dimensions of a two axis grid sweep, as a row-major image
+      * with the first axis along x, NaN where a shell is missing
+      */
+    public double[] heatmap(Map<String, Double> dimensions) {
+        if(!GRID.equals(mode) || axes.size() != 2) {
+            throw new IllegalStateException("Heatmaps need a grid sweep of two parameters");
+        }
+        double[] values = new double[size()];
+        Iterator<ShellParameters> it = iterator();
+        for(int i = 0; i < values.length; i++) {
+            Double d = dimensions.get(it.next().digest());
+            values[i] = d != null ? d : Double.NaN;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.sweep;
+
+/**
+ * One swept parameter: a field name of ShellParameters and its range. Angles
+ * are in radians, like everywhere in ShellParameters.
+ *
+ * @author Conrad Mearns
+ */
+public class SweepAxis {
+
+    private final String name;
+    private final double min, max;
+    private final int steps;
+
+    /**
+      * @param steps Grid points from min to max inclusive; ignored by Latin
+      *   hypercube sampling
+      */
+    public SweepAxis(String name, double min, double max, int steps) {
+        if(steps < 1) {
+            throw new IllegalArgumentException("Sweep of " + name + " needs at least one step");
+        }
+        this.name = name;
+        this.min = min;
+        this.max = max;
+        this.steps = steps;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+
+    /**
+      * Value of grid point i
+      */
+    public double value(int i) {
+        return steps == 1 ? min : min + (max - min) * i / (steps - 1);
+    }
+
+    /**
+      * Value at a fraction of the range
+      */
+    public double lerp(double t) {
+        return min + (max - min) * t;
+    }
+}
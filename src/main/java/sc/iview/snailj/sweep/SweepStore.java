@@ -0,0 +1,136 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.sweep;
+
+import sc.iview.snailj.shell.ShellParameters;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CSV file of sweep results, one row per shell, keyed by the digest of its
+ * parameters. Rows are flushed as soon as they are appended, so a crash
+ * loses at most the shells being analyzed, and reopening the file loads the
+ * finished rows so that those shells are skipped.
+ *
+ * Parameter columns use ShellParameters field names with angles in
+ * degrees, like the input of ShellBatch.
+ *
+ * @author Conrad Mearns
+ */
+public class SweepStore implements AutoCloseable {
+
+    static final String DIGEST = "digest";
+    static final String[] RESULTS = {"D", "R2", "lower", "upper", "vertices", "ms"};
+
+    private final BufferedWriter out;
+    private final Map<String, Double> done = new HashMap<>();
+    private final List<SweepAxis> axes;
+
+    public SweepStore(Path csv, List<SweepAxis> axes) throws IOException {
+        this.axes = axes;
+        String header = header(axes);
+        boolean exists = Files.exists(csv) && Files.size(csv) > 0;
+
+        if(exists) {
+            try(BufferedReader in = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+                String first = in.readLine();
+                if(!header.equals(first)) {
+                    throw new IOException("Existing sweep results have other columns: " + csv);
+                }
+                int d = 1 + axes.size();
+                for(String line = in.readLine(); line != null; line = in.readLine()) {
+                    String[] cells = line.split(",", -1);
+                    // NB: A row cut short by a crash is simply computed again.
+                    if(cells.length == d + RESULTS.length) {
+                        done.put(cells[0], Double.parseDouble(cells[d]));
+                    }
+                }
+            }
+        }
+
+        out = Files.newBufferedWriter(csv, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if(!exists) {
+            out.write(header);
+            out.newLine();
+            out.flush();
+        }
+    }
+
+    private static String header(List<SweepAxis> axes) {
+        StringBuilder sb = new StringBuilder(DIGEST);
+        for(SweepAxis axis : axes) {
+            sb.append(',').append(axis.getName());
+        }
+        for(String r : RESULTS) {
+            sb.append(',').append(r);
+        }
+        return sb.toString();
+    }
+
+    public synchronized boolean contains(String digest) {
+        return done.containsKey(digest);
+    }
+
+    /**
+      * Fractal dimension of every finished shell, by digest
+      */
+    public synchronized Map<String, Double> getDimensions() {
+        return new HashMap<>(done);
+    }
+
+    public synchronized void append(String digest, ShellParameters p, double dimension, double rSquared,
+                                    double lower, double upper, long millis) throws IOException {
+        StringBuilder sb = new StringBuilder(digest);
+        for(SweepAxis axis : axes) {
+            double v = p.get(axis.getName());
+            sb.append(',').append(ShellParameters.isAngle(axis.getName()) ? Math.toDegrees(v) : v);
+        }
+        sb.append(',').append(dimension).append(',').append(rSquared).append(',').append(lower)
+          .append(',').append(upper).append(',').append(p.vertices()).append(',').append(millis);
+
+        out.write(sb.toString());
+        out.newLine();
+        out.flush();
+        done.put(digest, dimension);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.commands.snailj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import sc.iview.snailj.shell.ShellKernel;
+import sc.iview.snailj.shell.ShellParameters;
+import sc.iview.snailj.shell.ShellPresets;
+
+import net.imagej.mesh.nio.BufferMesh;
+
+import graphics.scenery.Node;
+
+import java.lang.ref.WeakReference;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link ShellRegistry}.
+ *
+ * @author Conrad Mearns
+ */
+public class ShellRegistryTest {
+
+    @Test
+    public void testEntryGoesAwayWithNode() throws InterruptedException {
+        ShellParameters p = ShellPresets.get(ShellPresets.BOAT_EAR_MOON, 2, 16, 16);
+        BufferMesh mesh = ShellKernel.toMesh(p);
+        int before = ShellRegistry.size();
+
+        Node node = new Node("Shell");
+        ShellRegistry.register(node, mesh, p);
+        assertNotNull(ShellRegistry.get(node));
+        assertEquals(before + 1, ShellRegistry.size());
+
+        WeakReference<Node> ref = new WeakReference<>(node);
+        node = null;
+        for(int i = 0; i < 50 && (ref.get() != null || ShellRegistry.size() > before); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("Node is still reachable", ref.get());
+        assertEquals(before, ShellRegistry.size());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.fractal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link FractalFit}.
+ *
+ * @author Conrad Mearns
+ */
+public class FractalFitTest {
+
+    @Test
+    public void testLine() {
+        double[] x = {0, 1, 2, 3, 4};
+        double[] y = {1, 3.5, 6, 8.5, 11};
+        FractalFit fit = new FractalFit(x, y);
+        assertEquals(2.5, fit.getSlope(), 1e-12);
+        assertEquals(1, fit.getIntercept(), 1e-12);
+        assertEquals(1, fit.getRSquared(), 1e-12);
+    }
+
+    @Test
+    public void testMismatchedData() {
+        try {
+            new FractalFit(new double[3], new double[4]);
+            fail("Mismatched data was accepted");
+        } catch(IllegalArgumentException e) {
+            // NB: Expected.
+        }
+    }
+
+    @Test
+    public void testBootstrapSkipsSingleScale() {
+        // Log box sizes, which are not exactly representable. Resampling
+        // three scales draws a single scale one time in nine, and the mean
+        // of such a resample rounds, so its least squares slope is an
+        // arbitrary number rather than NaN.
+        double[] x = {Math.log(1 / 2.0), Math.log(1 / 6.0), Math.log(1 / 10.0)};
+        double[] y = new double[x.length];
+        for(int i = 0; i < x.length; i++) {
+            y[i] = -2.37 * x[i] + 0.1;
+        }
+
+        for(long seed = 0; seed < 20; seed++) {
+            FractalFit fit = new FractalFit(x, y);
+            fit.bootstrap(500, 1, seed);
+            // NB: With a confidence of 1, the interval spans every slope.
+            assertEquals("lower, seed " + seed, -2.37, fit.getLower(), 1e-9);
+            assertEquals("upper, seed " + seed, -2.37, fit.getUpper(), 1e-9);
+        }
+    }
+
+    @Test
+    public void testBootstrapCoversSlope() {
+        double[] x = new double[8];
+        double[] y = new double[8];
+        for(int i = 0; i < x.length; i++) {
+            x[i] = -i;
+            y[i] = 2.2 * i + (i % 3 - 1) * 0.05;
+        }
+        FractalFit fit = new FractalFit(x, y);
+        fit.bootstrap(1000, 0.95, 1);
+        assertEquals(0.95, fit.getConfidence(), 0);
+        assertTrue(fit.getLower() <= fit.getSlope() && fit.getSlope() <= fit.getUpper());
+        assertTrue(fit.getUpper() - fit.getLower() < 0.2);
+    }
+
+    @Test
+    public void testBootstrapNeedsThreeScales() {
+        FractalFit fit = new FractalFit(new double[] {0, 1}, new double[] {0, 2});
+        fit.bootstrap(100, 0.95, 1);
+        assertTrue(Double.isNaN(fit.getLower()));
+        assertTrue(Double.isNaN(fit.getUpper()));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.fractal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import sc.iview.snailj.shell.ShellKernel;
+import sc.iview.snailj.shell.ShellParameters;
+import sc.iview.snailj.shell.ShellPresets;
+
+import net.imagej.mesh.Mesh;
+import net.imagej.mesh.nio.BufferMesh;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link MortonCodes} and {@link MeshBoxCounter}.
+ *
+ * @author Conrad Mearns
+ */
+public class MeshBoxCounterTest {
+
+    @Test
+    public void testMortonRoundTrip() {
+        int max = (1 << MortonCodes.MAX_BITS) - 1;
+        int[][] cells = {{0, 0, 0}, {1, 2, 3}, {max, 0, max}, {12345, 678901, 2000000}, {max, max, max}};
+        for(int[] c : cells) {
+            long code = MortonCodes.encode(c[0], c[1], c[2]);
+            assertEquals(c[0], MortonCodes.x(code));
+            assertEquals(c[1], MortonCodes.y(code));
+            assertEquals(c[2], MortonCodes.z(code));
+        }
+    }
+
+    @Test
+    public void testShiftedCodeIsEnclosingBox() {
+        for(int x = 0; x < 16; x += 3) {
+            for(int y = 0; y < 16; y += 5) {
+                for(int z = 0; z < 16; z += 7) {
+                    long code = MortonCodes.encode(x, y, z);
+                    for(int k = 0; k < 4; k++) {
+                        assertEquals(MortonCodes.encode(x >> k, y >> k, z >> k), code >>> (3 * k));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSquareBoxCounts() {
+        // A flat unit square covers every voxel of one layer of the grid, so
+        // there are 4^(bits - k) boxes 2^k voxels on a side
+        int bits = 6;
+        long[] counts = new MeshBoxCounter(1).boxCounts(square(), bits);
+        assertEquals(bits + 1, counts.length);
+        for(int k = 0; k <= bits; k++) {
+            assertEquals("boxes of 2^" + k, 1L << (2 * (bits - k)), counts[k]);
+        }
+    }
+
+    @Test
+    public void testThreadsAgree() {
+        ShellParameters p = ShellPresets.get(ShellPresets.ARGONAUTA, 3, 32, 32);
+        BufferMesh mesh = ShellKernel.toMesh(p);
+        SparseVoxels one = new MeshBoxCounter(1).voxelize(mesh, 7);
+        SparseVoxels four = new MeshBoxCounter(4).voxelize(mesh, 7);
+        assertArrayEquals(one.getCodes(), four.getCodes());
+        assertArrayEquals(one.boxCounts(), four.boxCounts());
+    }
+
+    private static Mesh square() {
+        FloatBuffer verts = FloatBuffer.wrap(new float[] {0, 0, 0, 1, 0, 0, 1, 1, 0, 0, 1, 0});
+        IntBuffer indices = IntBuffer.wrap(new int[] {0, 1, 2, 0, 2, 3});
+        return new BufferMesh(verts, FloatBuffer.allocate(12), FloatBuffer.allocate(8),
+                              indices, FloatBuffer.allocate(6));
+    }
+}
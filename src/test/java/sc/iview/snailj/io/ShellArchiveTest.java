@@ -0,0 +1,189 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import sc.iview.snailj.fractal.FractalFit;
+import sc.iview.snailj.shell.ShellKernel;
+import sc.iview.snailj.shell.ShellParameters;
+import sc.iview.snailj.shell.ShellPresets;
+
+import net.imagej.mesh.nio.BufferMesh;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link ShellArchive}.
+ *
+ * @author Conrad Mearns
+ */
+public class ShellArchiveTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRawRoundTrip() throws IOException {
+        ShellParameters[] shells = shells();
+        Path path = write(ShellArchive.Encoding.RAW, shells);
+
+        try(ShellArchive archive = ShellArchive.open(path)) {
+            List<ShellArchive.Entry> entries = archive.entries();
+            assertEquals(shells.length, entries.size());
+            for(int i = 0; i < shells.length; i++) {
+                ShellArchive.Entry entry = entries.get(i);
+                assertEntry(i, shells[i], entry);
+
+                BufferMesh expected = ShellKernel.toMesh(shells[i]);
+                BufferMesh actual = archive.mesh(entry);
+                assertArrayEquals(floats(expected.vertices().verts()), floats(actual.vertices().verts()), 0);
+                assertArrayEquals(floats(expected.vertices().normals()), floats(actual.vertices().normals()), 0);
+                assertArrayEquals(ints(expected.triangles().indices()), ints(actual.triangles().indices()));
+                assertTrue(actual.vertices().verts().isReadOnly());
+                assertTrue(actual.triangles().indices().isReadOnly());
+            }
+        }
+    }
+
+    @Test
+    public void testQuantizedRoundTrip() throws IOException {
+        ShellParameters[] shells = shells();
+        Path path = write(ShellArchive.Encoding.QUANTIZED, shells);
+
+        try(ShellArchive archive = ShellArchive.open(path)) {
+            List<ShellArchive.Entry> entries = archive.entries();
+            assertEquals(shells.length, entries.size());
+            for(int i = 0; i < shells.length; i++) {
+                ShellArchive.Entry entry = entries.get(i);
+                assertEntry(i, shells[i], entry);
+
+                // 16 bits per axis over the bounding box
+                float[] expected = floats(ShellKernel.toMesh(shells[i]).vertices().verts());
+                float[] actual = floats(archive.mesh(entry).vertices().verts());
+                assertEquals(expected.length, actual.length);
+                for(int d = 0; d < 3; d++) {
+                    float lo = Float.POSITIVE_INFINITY, hi = Float.NEGATIVE_INFINITY;
+                    for(int k = d; k < expected.length; k += 3) {
+                        lo = Math.min(lo, expected[k]);
+                        hi = Math.max(hi, expected[k]);
+                    }
+                    double tolerance = (hi - lo) / 65535.0 + 1e-6 * Math.max(Math.abs(lo), Math.abs(hi));
+                    for(int k = d; k < expected.length; k += 3) {
+                        assertEquals("vertex " + k / 3, expected[k], actual[k], tolerance);
+                    }
+                }
+                assertArrayEquals(ints(ShellKernel.toMesh(shells[i]).triangles().indices()),
+                                  ints(archive.mesh(entry).triangles().indices()));
+            }
+        }
+    }
+
+    @Test
+    public void testMismatchedMeshIsRejected() throws IOException {
+        ShellParameters p = ShellPresets.get(ShellPresets.TORUS, 2, 16, 16);
+        ShellParameters other = ShellPresets.get(ShellPresets.TORUS, 3, 16, 16);
+        try(ShellArchive.Writer writer = new ShellArchive.Writer(folder.newFile("bad.snla").toPath(),
+                                                                 ShellArchive.Encoding.RAW)) {
+            writer.add("Torus", p, ShellKernel.toMesh(other), null);
+            fail("Mesh of other parameters was accepted");
+        } catch(IllegalArgumentException e) {
+            // NB: Expected.
+        }
+    }
+
+    private static ShellParameters[] shells() {
+        ShellParameters bumpy = ShellPresets.get(ShellPresets.TURRITELLA, 3, 32, 24);
+        bumpy.bumpiness = 0.05;
+        bumpy.seed = 7;
+        return new ShellParameters[] {
+            ShellPresets.get(ShellPresets.BOAT_EAR_MOON, 2, 32, 24),
+            bumpy,
+            ShellPresets.get(ShellPresets.ARGONAUTA, 4, 16, 16)
+        };
+    }
+
+    private Path write(ShellArchive.Encoding encoding, ShellParameters[] shells) throws IOException {
+        Path path = folder.newFile(encoding + ".snla").toPath();
+        try(ShellArchive.Writer writer = new ShellArchive.Writer(path, encoding)) {
+            for(int i = 0; i < shells.length; i++) {
+                writer.add("Shell " + i, shells[i], ShellKernel.toMesh(shells[i]), analyses(i));
+            }
+        }
+        return path;
+    }
+
+    private static Map<String, FractalFit> analyses(int i) {
+        double[] x = {0, 1, 2, 3};
+        double[] y = {0, 2 + i, 4 + 2 * i, 6 + 3 * i};
+        return Collections.singletonMap("box", FractalFit.of(x, y, 1.5 + i, 2.5 + i, 0.95));
+    }
+
+    private static void assertEntry(int i, ShellParameters p, ShellArchive.Entry entry) {
+        assertEquals("Shell " + i, entry.getName());
+        assertEquals(p.digest(), entry.getParameters().digest());
+
+        FractalFit expected = analyses(i).get("box");
+        FractalFit actual = entry.getAnalyses().get("box");
+        assertEquals(expected.getSlope(), actual.getSlope(), 0);
+        assertEquals(expected.getLower(), actual.getLower(), 0);
+        assertEquals(expected.getUpper(), actual.getUpper(), 0);
+        assertEquals(expected.getConfidence(), actual.getConfidence(), 0);
+        assertArrayEquals(expected.getY(), actual.getY(), 0);
+    }
+
+    private static float[] floats(FloatBuffer buffer) {
+        float[] values = new float[buffer.limit()];
+        for(int i = 0; i < values.length; i++) {
+            values[i] = buffer.get(i);
+        }
+        return values;
+    }
+
+    private static int[] ints(IntBuffer buffer) {
+        int[] values = new int[buffer.limit()];
+        for(int i = 0; i < values.length; i++) {
+            values[i] = buffer.get(i);
+        }
+        return values;
+    }
+}
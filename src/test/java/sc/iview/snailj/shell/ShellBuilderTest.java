@@ -0,0 +1,94 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.shell;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import net.imagej.mesh.nio.BufferMesh;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link ShellBuilder}.
+ *
+ * @author Conrad Mearns
+ */
+public class ShellBuilderTest {
+
+    @Test
+    public void testMatchesToMesh() {
+        for(String name : ShellPresets.names()) {
+            ShellParameters p = ShellPresets.get(name, 3, 32, 24);
+            assertSame(name, ShellKernel.toMesh(p), new ShellBuilder(1).build(p));
+            assertSame(name, ShellKernel.toMesh(p), new ShellBuilder(3).build(p));
+        }
+    }
+
+    @Test
+    public void testMatchesToMeshWithBumps() {
+        ShellParameters p = ShellPresets.get(ShellPresets.TURRITELLA, 4, 48, 32);
+        p.bumpiness = 0.05;
+        p.adaptive = true;
+        assertSame("bumpy", ShellKernel.toMesh(p), new ShellBuilder(3).build(p));
+    }
+
+    @Test
+    public void testBuilderIsReusable() {
+        ShellBuilder builder = new ShellBuilder(2);
+        for(String name : ShellPresets.names()) {
+            ShellParameters p = ShellPresets.get(name, 2, 16, 16);
+            assertSame(name, ShellKernel.toMesh(p), builder.build(p));
+        }
+    }
+
+    /**
+      * Vertices, normals and indices are the same bit for bit
+      */
+    private static void assertSame(String name, BufferMesh expected, BufferMesh actual) {
+        assertArrayEquals(bits(expected.vertices().verts()), bits(actual.vertices().verts()));
+        assertArrayEquals(bits(expected.vertices().normals()), bits(actual.vertices().normals()));
+        IntBuffer a = expected.triangles().indices(), b = actual.triangles().indices();
+        assertEquals(name, a.limit(), b.limit());
+        for(int i = 0; i < a.limit(); i++) {
+            assertEquals(name, a.get(i), b.get(i));
+        }
+    }
+
+    private static int[] bits(FloatBuffer buffer) {
+        int[] bits = new int[buffer.limit()];
+        for(int i = 0; i < bits.length; i++) {
+            bits[i] = Float.floatToRawIntBits(buffer.get(i));
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.shell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link ShellKernel} and {@link ShellTables}.
+ *
+ * @author Conrad Mearns
+ */
+public class ShellKernelTest {
+
+    @Test
+    public void testTablesMatchReference() {
+        for(String name : ShellPresets.names()) {
+            ShellParameters p = ShellPresets.get(name, 4, 48, 32);
+            assertClose(name, reference(p), evaluate(p));
+
+            p.bumpiness = 0.05;
+            assertClose(name + " with bumps", reference(p), evaluate(p));
+        }
+    }
+
+    @Test
+    public void testAdaptiveMatchesReference() {
+        ShellParameters p = ShellPresets.get(ShellPresets.WENTLETRAP, 6, 32, 24);
+        p.adaptive = true;
+        assertClose("adaptive", reference(p), evaluate(p));
+    }
+
+    @Test
+    public void testUpdatedTablesMatchNewTables() {
+        ShellParameters p = ShellPresets.get(ShellPresets.BOAT_EAR_MOON, 3, 32, 24);
+        ShellTables tables = new ShellTables(p);
+        for(String name : ShellPresets.names()) {
+            ShellParameters next = ShellPresets.get(name, 3, 32, 24);
+            tables.update(next);
+
+            float[] updated = new float[3 * next.vertexCount()];
+            ShellKernel.evaluateRows(tables, updated, 0, next.hseg());
+            assertClose(name, evaluate(next), updated);
+        }
+    }
+
+    @Test
+    public void testCountsRejectOverflowingBuffers() {
+        // NB: 200M vertices, whose xyz floats fit in an int but whose bytes do not
+        ShellParameters p = ShellPresets.get(ShellPresets.TORUS, 3125, 64, 1000);
+        assertEquals(200_000_000L, p.vertices());
+        try {
+            p.vertexCount();
+            fail("Expected the vertex count to be rejected");
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            p.triangleCount();
+            fail("Expected the triangle count to be rejected");
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static float[] evaluate(ShellParameters p) {
+        float[] xyz = new float[3 * p.vertexCount()];
+        ShellKernel.evaluate(p, xyz);
+        return xyz;
+    }
+
+    private static float[] reference(ShellParameters p) {
+        float[] xyz = new float[3 * p.vertexCount()];
+        ShellKernel.evaluateReference(p, xyz);
+        return xyz;
+    }
+
+    /**
+      * Every coordinate within 1e-6 of the shell's extent. The tables regroup
+      * the products of the formulas, so the doubles can differ in their last
+      * bits, which usually but not always round to the same float.
+      */
+    private static void assertClose(String name, float[] expected, float[] actual) {
+        assertEquals(name, expected.length, actual.length);
+        double extent = 0;
+        for(float v : expected) {
+            extent = Math.max(extent, Math.abs(v));
+        }
+        for(int i = 0; i < expected.length; i++) {
+            assertEquals(name + " at " + i, expected[i], actual[i], 1e-6 * extent);
+        }
+    }
+}
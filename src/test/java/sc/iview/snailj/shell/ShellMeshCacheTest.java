@@ -0,0 +1,169 @@
+/*
+ * #%L
+ * Scenery-backed 3D visualization package for ImageJ.
+ * %%
+ * Copyright (C) 2016 - 2018 SciView developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package sc.iview.snailj.shell;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import net.imagej.mesh.nio.BufferMesh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link ShellMeshCache}.
+ *
+ * @author Conrad Mearns
+ */
+public class ShellMeshCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFileRoundTrip() throws IOException {
+        ShellParameters p = ShellPresets.get(ShellPresets.WENTLETRAP, 3, 32, 24);
+        BufferMesh mesh = ShellKernel.toMesh(p);
+        File f = new File(folder.getRoot(), "shell.mesh");
+        ShellMeshCache.write(mesh, f);
+        assertSame(mesh, ShellMeshCache.map(f));
+    }
+
+    @Test
+    public void testSpilledMeshIsMappedBack() throws IOException {
+        // NB: No memory budget, so every mesh goes straight to disk.
+        ShellMeshCache cache = new ShellMeshCache(0, folder.newFolder("cache"), 1L << 30);
+        ShellParameters p = ShellPresets.get(ShellPresets.ANCILLA, 3, 32, 24);
+
+        BufferMesh mesh = cache.get(p, ShellKernel::toMesh);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getSpills());
+
+        BufferMesh hit = cache.get(p, q -> { throw new AssertionError("Generated again"); });
+        assertEquals(1, cache.getDiskHits());
+        assertSame(mesh, hit);
+    }
+
+    @Test
+    public void testCorruptFileIsDropped() throws IOException {
+        File directory = folder.newFolder("cache");
+        ShellParameters p = ShellPresets.get(ShellPresets.ANCILLA, 3, 32, 24);
+        new ShellMeshCache(0, directory, 1L << 30).put(p, ShellKernel.toMesh(p));
+
+        File f = new File(directory, p.digest() + ".mesh");
+        assertTrue(f.exists());
+        try(RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+
+        ShellMeshCache cache = new ShellMeshCache(0, directory, 1L << 30);
+        assertNull(cache.getIfPresent(p));
+        assertFalse(f.exists());
+    }
+
+    @Test
+    public void testTemporaryFilesAreRemoved() throws IOException {
+        File directory = folder.newFolder("cache");
+        File partial = new File(directory, "0123.mesh.tmp");
+        assertTrue(partial.createNewFile());
+
+        new ShellMeshCache(0, directory, 1L << 30);
+        assertFalse(partial.exists());
+    }
+
+    @Test
+    public void testUnwritableDirectoryKeepsMemoryTier() throws IOException {
+        // NB: A plain file, so spilling to it fails.
+        File directory = folder.newFile("cache");
+        ShellParameters p = ShellPresets.get(ShellPresets.TORUS, 2, 16, 16);
+        long bytes = bytes(ShellKernel.toMesh(p));
+
+        ShellMeshCache cache = new ShellMeshCache(4 * bytes, directory, 1L << 30);
+        for(int seed = 0; seed < 6; seed++) {
+            ShellParameters q = p.copy();
+            q.bumpiness = 0.01;
+            q.seed = seed;
+            cache.put(q, ShellKernel.toMesh(q));
+        }
+        assertEquals(0, cache.getSpills());
+        assertTrue(cache.getEvictions() > 0);
+
+        ShellParameters last = p.copy();
+        last.bumpiness = 0.01;
+        last.seed = 5;
+        assertNotNull(cache.getIfPresent(last));
+    }
+
+    @Test
+    public void testNoiseOfSmoothShellIsNotPartOfDigest() {
+        ShellParameters p = ShellPresets.get(ShellPresets.TORUS, 2, 16, 16);
+        ShellParameters q = p.copy();
+        q.seed = 42;
+        q.noise = CurveNoise.SMOOTH;
+        assertEquals(p.digest(), q.digest());
+
+        p.bumpiness = q.bumpiness = 0.01;
+        assertFalse(p.digest().equals(q.digest()));
+    }
+
+    private static long bytes(BufferMesh mesh) {
+        return 4L * (mesh.vertices().verts().limit() + mesh.vertices().normals().limit() +
+                     mesh.vertices().texCoords().limit() + mesh.triangles().indices().limit() +
+                     mesh.triangles().normals().limit());
+    }
+
+    private static void assertSame(BufferMesh expected, BufferMesh actual) {
+        assertArrayEquals(floats(expected.vertices().verts()), floats(actual.vertices().verts()), 0);
+        assertArrayEquals(floats(expected.vertices().normals()), floats(actual.vertices().normals()), 0);
+        IntBuffer a = expected.triangles().indices(), b = actual.triangles().indices();
+        assertEquals(a.limit(), b.limit());
+        for(int i = 0; i < a.limit(); i++) {
+            assertEquals(a.get(i), b.get(i));
+        }
+    }
+
+    private static float[] floats(FloatBuffer buffer) {
+        float[] values = new float[buffer.limit()];
+        for(int i = 0; i < values.length; i++) {
+            values[i] = buffer.get(i);
+        }
+        return values;
+    }
+}